@@ -0,0 +1,35 @@
+package com.babel17.interpreter.parser;
+
+/**
+ * Tells a parse or an analysis that its result is no longer needed. The work checks it at
+ * statement boundaries and stops by throwing Cancelled. A cancellation can be cancelled
+ * from any thread.
+ */
+public final class Cancellation {
+
+  public static class Cancelled extends RuntimeException {
+    public Cancelled() {
+      super("cancelled");
+    }
+  }
+
+  private volatile boolean cancelled = false;
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public void check() {
+    if (cancelled) throw new Cancelled();
+  }
+
+  /** Checks the cancellation, if there is one. */
+  public static void check(Cancellation cancellation) {
+    if (cancellation != null) cancellation.check();
+  }
+
+}
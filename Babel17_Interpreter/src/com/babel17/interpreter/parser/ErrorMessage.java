@@ -3,7 +3,7 @@ package com.babel17.interpreter.parser;
 import java.util.*;
 import com.babel17.syntaxtree.Location;
 
-public class ErrorMessage {
+public class ErrorMessage implements java.io.Serializable {
 
     private Location loc;
     private String message;
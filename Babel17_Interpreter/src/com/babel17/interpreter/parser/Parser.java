@@ -85,31 +85,42 @@ public class Parser {
   }
 
   private NodeList toNodeList(Tree tree) {
-    NodeList l = new NodeList();
+    ArrayList<Node> l = new ArrayList<Node>();
     int count = tree.getChildCount();
     for (int i = 0; i < count; i++) {
-      l = l.cons(toNode(tree.getChild(i)));
+      l.add(toNode(tree.getChild(i)));
     }
-    return l.reverse();
+    return new NodeList(l);
+  }
+
+  private NodeList toStatementList(Tree tree) {
+    ArrayList<Node> l = new ArrayList<Node>();
+    int count = tree.getChildCount();
+    for (int i = 0; i < count; i++) {
+      Cancellation.check(cancellation);
+      l.add(toNode(tree.getChild(i)));
+    }
+    return new NodeList(l);
   }
 
   private NodeList toPatternList(Tree tree) {
-    NodeList l = new NodeList();
+    ArrayList<Node> l = new ArrayList<Node>();
     int count = tree.getChildCount();
     for (int i = 0; i < count; i++) {
-      l = l.cons(toPattern(tree.getChild(i)));
+      l.add(toPattern(tree.getChild(i)));
     }
-    return l.reverse();
+    return new NodeList(l);
   }
 
   private Node rightassocBinary(NodeList l, int op) {
-    if (l.tail().empty()) {
-      return l.head();
-    } else {
-      return new BinaryNode(new OperatorNode(op),
-              l.head(), rightassocBinary(l.tail(), op)).mergeLocation();
+    int i = l.length() - 1;
+    Node result = l.get(i);
+    while (i > 0) {
+      i--;
+      result = new BinaryNode(new OperatorNode(op),
+              l.get(i), result).mergeLocation();
     }
-
+    return result;
   }
 
   private Node leftassocBinary(NodeList l, int op) {
@@ -240,7 +251,7 @@ public class Parser {
         case babel17Parser.PROG:
           return toNode(tree.getChild(0));
         case babel17Parser.BLOCK:
-          return new BlockNode(toNodeList(tree).suppressErrors()).mergeLocation(loc).mergeLocation();   
+          return new BlockNode(toStatementList(tree).suppressErrors()).mergeLocation(loc).mergeLocation();   
         case babel17Parser.LENS_ASSIGN: {
           Node leftSide = toNode(tree.getChild(0));
           Node rightSide = toNode(tree.getChild(1));
@@ -493,7 +504,7 @@ public class Parser {
           }
         }
         case babel17Parser.MAP_OR_SET_OR_OBJ: {
-          NodeList l = new NodeList();
+          ArrayList<Node> l = new ArrayList<Node>();
           int count = tree.getChildCount();
           boolean is_set = false;
           boolean is_map = false;
@@ -509,7 +520,7 @@ public class Parser {
                 error = true;
               } else {
                 is_set = true;
-                l = l.cons(c.head().mergeLocation(getLocation(t)));
+                l.add(c.head().mergeLocation(getLocation(t)));
               }
             } else {
               int ty = t.getChild(1).getType();
@@ -520,7 +531,7 @@ public class Parser {
                   error = true;
                 } else {
                   is_map = true;
-                  l = l.cons(new MapNode.KeyValue(c.head(), c.tail().head()).mergeLocation(getLocation(t)));
+                  l.add(new MapNode.KeyValue(c.head(), c.tail().head()).mergeLocation(getLocation(t)));
                 }
               } else if (ty == babel17Parser.ASSIGN) {
                 if (is_set || is_map) {
@@ -533,7 +544,7 @@ public class Parser {
                   Node v = c.tail().head();
                   if (m instanceof IdentifierNode) {
                     IdentifierNode message = (IdentifierNode)m;
-                    l = l.cons(new RecordNode.MessageValue(message, v).mergeLocation(getLocation(t)));
+                    l.add(new RecordNode.MessageValue(message, v).mergeLocation(getLocation(t)));
                   } else {
                     pe.addMessage(m.location(), "message identifier expected");
                     error = true;
@@ -543,11 +554,11 @@ public class Parser {
             }
           }
           if (is_map) {
-            return new MapNode(l.reverse()).mergeLocation(loc).mergeLocation();
+            return new MapNode(new NodeList(l)).mergeLocation(loc).mergeLocation();
           } else if (is_obj) {
-            return new RecordNode(l.reverse()).mergeLocation(loc).mergeLocation();
+            return new RecordNode(new NodeList(l)).mergeLocation(loc).mergeLocation();
           } else {
-            return new SetNode(l.reverse()).mergeLocation(loc).mergeLocation();
+            return new SetNode(new NodeList(l)).mergeLocation(loc).mergeLocation();
           }
         }
         case babel17Parser.TYPEID: {
@@ -616,26 +627,26 @@ public class Parser {
                 id.mergeLocation(getLocation(tree.getChild(2)));
                 BlockNode rightSide = toNode(tree.getChild(3)).toBlock();
                 Node u = new DefNode(id, null, rightSide, null).mergeLocation(loc).mergeLocation();
-                b = (BlockNode) new BlockNode(b.statements().reverse().cons(u).reverse()).mergeLocation().mergeLocation(b.location());
+                b = (BlockNode) new BlockNode(b.statements().append(new NodeList().cons(u))).mergeLocation().mergeLocation(b.location());
             }
             return (new ModuleNode(m, b)).mergeLocation(loc);
         }
         case babel17Parser.IF: {
           NodeList children = toNodeList(tree);
           if (children.hasErrors()) return BeginNode.empty();
-          NodeList conditions = new NodeList();
-          NodeList blocks = new NodeList();
+          ArrayList<Node> conditions = new ArrayList<Node>();
+          ArrayList<Node> blocks = new ArrayList<Node>();
           int len = children.length();
           int i = 0;
           for (Node n : children) {
             if (i < len / 2) {
-              conditions = conditions.cons(n);
+              conditions.add(n);
             } else {
-              blocks = blocks.cons(n);
+              blocks.add(n);
             }
             i++;
           }
-          return new IfNode(conditions.reverse(), blocks.reverse()).mergeLocation(loc);
+          return new IfNode(new NodeList(conditions), new NodeList(blocks)).mergeLocation(loc);
         }
         case babel17Parser.BEGIN:
           return new BeginNode(toNode(tree.getChild(0)).toBlock()).mergeLocation(loc);
@@ -666,45 +677,45 @@ public class Parser {
           Node value = toNode(tree.getChild(0));
           Tree t = tree.getChild(1);
           int count = t.getChildCount();
-          NodeList patterns = new NodeList();
-          NodeList blocks = new NodeList();
+          ArrayList<Node> patterns = new ArrayList<Node>();
+          ArrayList<Node> blocks = new ArrayList<Node>();
           for (int i = 0; i < count; i++) {
             Tree s = t.getChild(i);
             PatternNode pattern = toPattern(s.getChild(0));
             BlockNode block = toNode(s.getChild(1)).toBlock();
-            patterns = patterns.cons(pattern);
-            blocks = blocks.cons(block);
+            patterns.add(pattern);
+            blocks.add(block);
           }
-          return new MatchNode(value, patterns.reverse(), blocks.reverse()).mergeLocation(loc).mergeLocation();
+          return new MatchNode(value, new NodeList(patterns), new NodeList(blocks)).mergeLocation(loc).mergeLocation();
         }
         case babel17Parser.TRY: {
             Node mainblock = toNode(tree.getChild(0));
             Tree t = tree.getChild(1);
             int count = t.getChildCount();
-            NodeList patterns = new NodeList();
-            NodeList blocks = new NodeList();
+            ArrayList<Node> patterns = new ArrayList<Node>();
+            ArrayList<Node> blocks = new ArrayList<Node>();
             for (int i = 0; i < count; i++) {
               Tree s = t.getChild(i);
               PatternNode pattern = toPattern(s.getChild(0));
               BlockNode block = toNode(s.getChild(1)).toBlock();
-              patterns = patterns.cons(pattern);
-              blocks = blocks.cons(block);
+              patterns.add(pattern);
+              blocks.add(block);
             }
-            return new TryNode(mainblock, patterns.reverse(), blocks.reverse()).mergeLocation(loc).mergeLocation();
+            return new TryNode(mainblock, new NodeList(patterns), new NodeList(blocks)).mergeLocation(loc).mergeLocation();
         }
         case babel17Parser.LAMBDA: {
           Tree t = tree.getChild(0);
           int count = t.getChildCount();
-          NodeList patterns = new NodeList();
-          NodeList blocks = new NodeList();
+          ArrayList<Node> patterns = new ArrayList<Node>();
+          ArrayList<Node> blocks = new ArrayList<Node>();
           for (int i = 0; i < count; i++) {
             Tree s = t.getChild(i);
             PatternNode pattern = toPattern(s.getChild(0));
             BlockNode block = toNode(s.getChild(1)).toBlock();
-            patterns = patterns.cons(pattern);
-            blocks = blocks.cons(block);
+            patterns.add(pattern);
+            blocks.add(block);
           }
-          return new LambdaNode(patterns.reverse(), blocks.reverse()).mergeLocation(loc).mergeLocation();
+          return new LambdaNode(new NodeList(patterns), new NodeList(blocks)).mergeLocation(loc).mergeLocation();
         }
         case babel17Parser.WITH: {
           NodeList l = toNodeList(tree);
@@ -915,7 +926,7 @@ public class Parser {
           return (PatternNode) new ListPattern(l, false).mergeLocation(loc).mergeLocation();
         }
         case babel17Parser.MAP_OR_SET_OR_OBJ: {
-          NodeList l = new NodeList();
+          ArrayList<Node> l = new ArrayList<Node>();
           int count = tree.getChildCount();
           boolean is_set = false;
           boolean is_map = false;
@@ -931,10 +942,10 @@ public class Parser {
                         "set element in map or object");
                   error = true;
                 } else
-                  l = l.cons(c.head().mergeLocation(getLocation(t)));                  
+                  l.add(c.head().mergeLocation(getLocation(t)));                  
               } else {
                 is_set = true;
-                l = l.cons(c.head().mergeLocation(getLocation(t)));
+                l.add(c.head().mergeLocation(getLocation(t)));
               }
             } else {
               int ty = t.getChild(1).getType();
@@ -945,7 +956,7 @@ public class Parser {
                   error = true;
                 } else {
                   is_map = true;
-                  l = l.cons(new MapPattern.KeyValue((PatternNode) c.head(),
+                  l.add(new MapPattern.KeyValue((PatternNode) c.head(),
                           (PatternNode) c.tail().head()).mergeLocation(getLocation(t)));
                 }
               } else if (ty == babel17Parser.ASSIGN) {
@@ -959,7 +970,7 @@ public class Parser {
                   PatternNode v = (PatternNode) c.tail().head();
                   if (m instanceof IdentifierPattern) {
                     IdentifierPattern message = (IdentifierPattern)m;
-                    l = l.cons(new RecordPattern.MessageValue(message, v).mergeLocation(getLocation(t)));
+                    l.add(new RecordPattern.MessageValue(message, v).mergeLocation(getLocation(t)));
                   } else {
                     pe.addMessage(m.location(), "message identifier expected");
                     error = true;
@@ -969,11 +980,11 @@ public class Parser {
             }
           }
           if (is_map) {
-            return (PatternNode) new MapPattern(l.reverse()).mergeLocation(loc).mergeLocation();
+            return (PatternNode) new MapPattern(new NodeList(l)).mergeLocation(loc).mergeLocation();
           } else if (is_set) {
-            return (PatternNode) new SetPattern(l.reverse()).mergeLocation(loc).mergeLocation();
+            return (PatternNode) new SetPattern(new NodeList(l)).mergeLocation(loc).mergeLocation();
           } else if (is_obj) {
-            return (PatternNode) new RecordPattern(l.reverse()).mergeLocation(loc).mergeLocation();
+            return (PatternNode) new RecordPattern(new NodeList(l)).mergeLocation(loc).mergeLocation();
           }
         }
         case babel17Parser.LIST_CONS:
@@ -996,12 +1007,13 @@ public class Parser {
       lastKnownLocations.pop();
     }
   }
-  private CommonTokenStream tokens;
+  private TokenStream tokens;
   private Source source;
   private ParseException pe;
+  private Cancellation cancellation;
   private java.util.Stack<Location> lastKnownLocations;
 
-  private Parser(Source source, CommonTokenStream tokens, ParseException pe) {
+  private Parser(Source source, TokenStream tokens, ParseException pe) {
     this.tokens = tokens;
     this.pe = pe;
     this.source = source;
@@ -1052,8 +1064,23 @@ public class Parser {
   }
 
   public static ParseResult parse(Source source,  CharStream stream) throws java.io.IOException {
+    return parse(source, stream, null);
+  }
+
+  /**
+   * Parses the stream like parse(source, stream), but stops with Cancellation.Cancelled once
+   * the cancellation is cancelled. It is checked for each token and each statement.
+   */
+  public static ParseResult parse(Source source, CharStream stream, Cancellation cancellation) {
     babel17Lexer lexer = new babel17Lexer(stream);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    // a cancellable parse reads the tokens only as the parser needs them, so that the
+    // cancellation is also checked while the parser runs
+    TokenStream tokens;
+    StatementTokenStream lazyTokens = null;
+    if (cancellation == null)
+      tokens = new CommonTokenStream(lexer);
+    else
+      tokens = lazyTokens = new StatementTokenStream(cancellable(lexer, cancellation));
     babel17Parser parser = new babel17Parser(tokens);
     ParseException pe = new ParseException();
     CommonTree tree = null;
@@ -1064,6 +1091,7 @@ public class Parser {
             int pos = e.charPositionInLine;
             pe.addMessage(new Location(source, line, pos + 1), "syntax error");
     }
+    if (lazyTokens != null) lazyTokens.fill();
     if (lexer.errorDuringLexing) {
       int numErrors = lexer.lexingErrors.size();
       for (int i = 0; i < numErrors; i++) {
@@ -1085,10 +1113,85 @@ public class Parser {
     }
     if (tree != null) {
       Parser p = new Parser(source, tokens, pe);
+      p.cancellation = cancellation;
       Node n = p.toNode(tree);
       n.mergeLocation(new Location(source, 1, 1)).distributeLocation();
       return new ParseResult(n, pe.countMessages() == 0 ? null : pe);
     }
     return new ParseResult(null, pe);
   }
+
+  /** Receives the top-level statements of a stream, see parseStatements. */
+  public interface StatementHandler {
+    /** Tells whether to go on with the statement that starts at the given character index. */
+    boolean more(int start);
+    /** Receives a statement and the indices of its first and last character. */
+    void statement(Node statement, int start, int stop);
+  }
+
+  /**
+   * Parses the top-level statements of the stream one at a time and hands each one to the
+   * handler as soon as it has been parsed. Only the tokens and trees of the current statement
+   * are kept, so memory does not grow with the length of the stream beyond what the handler
+   * keeps. The handler can stop the parse before any statement, the rest of the stream is
+   * then not read. Returns false when it finds a lexical or syntax error; parse then gives
+   * the errors.
+   */
+  public static boolean parseStatements(Source source, CharStream stream, StatementHandler handler) {
+    return parseStatements(source, stream, handler, null);
+  }
+
+  /** Like parseStatements(source, stream, handler), but can be cancelled, see parse. */
+  public static boolean parseStatements(Source source, CharStream stream, StatementHandler handler,
+                                        Cancellation cancellation) {
+    babel17Lexer lexer = new babel17Lexer(stream);
+    StatementTokenStream tokens = new StatementTokenStream(cancellable(lexer, cancellation));
+    babel17Parser parser = new babel17Parser(tokens);
+    ParseException pe = new ParseException();
+    Parser p = new Parser(source, tokens, pe);
+    p.cancellation = cancellation;
+    try {
+      skipSeparators(tokens);
+      while (tokens.LA(1) != Token.EOF) {
+        Cancellation.check(cancellation);
+        int start = ((CommonToken) tokens.LT(1)).getStartIndex();
+        if (!handler.more(start)) return !lexer.errorDuringLexing;
+        CommonTree tree = (CommonTree) parser.statement().getTree();
+        if (lexer.errorDuringLexing || parser.errorDuringParsing || tree == null) return false;
+        int next = tokens.LA(1);
+        if (next != Token.EOF && next != babel17Parser.NL && next != babel17Parser.SC) return false;
+        Node n = p.toNode(tree);
+        if (pe.countMessages() > 0) return false;
+        n.distributeLocation();
+        int stop = ((CommonToken) tokens.LT(-1)).getStopIndex();
+        tokens.release();
+        handler.statement(n, start, stop);
+        skipSeparators(tokens);
+      }
+    } catch (RecognitionException e) {
+      return false;
+    }
+    return !lexer.errorDuringLexing;
+  }
+
+  private static TokenSource cancellable(final TokenSource tokenSource, final Cancellation cancellation) {
+    if (cancellation == null) return tokenSource;
+    return new TokenSource() {
+      public Token nextToken() {
+        cancellation.check();
+        return tokenSource.nextToken();
+      }
+      public String getSourceName() {
+        return tokenSource.getSourceName();
+      }
+    };
+  }
+
+  private static void skipSeparators(TokenStream tokens) {
+    int t = tokens.LA(1);
+    while (t == babel17Parser.NL || t == babel17Parser.SC) {
+      tokens.consume();
+      t = tokens.LA(1);
+    }
+  }
 }
@@ -0,0 +1,164 @@
+package com.babel17.interpreter.parser;
+
+import org.antlr.runtime.*;
+import java.util.*;
+
+/**
+ * A token stream that reads its tokens from the lexer only when the parser looks at them,
+ * and that forgets the tokens before the current one on release. It behaves like
+ * CommonTokenStream otherwise: the tokens keep the indices they would have there, and
+ * tokens that are not on the default channel are skipped.
+ */
+final class StatementTokenStream implements TokenStream {
+
+  private final TokenSource tokenSource;
+  // the tokens from index offset on that have been read so far
+  private final ArrayList<Token> tokens = new ArrayList<Token>();
+  private int offset = 0;
+  private boolean eof = false;
+  private int p = -1;
+  private int lastMarker;
+
+  StatementTokenStream(TokenSource tokenSource) {
+    this.tokenSource = tokenSource;
+  }
+
+  // reads tokens until the token at index i is buffered or the lexer is done
+  private boolean sync(int i) {
+    while (!eof && i >= offset + tokens.size()) {
+      Token t = tokenSource.nextToken();
+      if (t == null || t.getType() == CharStream.EOF) {
+        eof = true;
+      } else {
+        t.setTokenIndex(offset + tokens.size());
+        tokens.add(t);
+      }
+    }
+    return i < offset + tokens.size();
+  }
+
+  private int skipOffTokenChannels(int i) {
+    while (sync(i) && tokens.get(i - offset).getChannel() != Token.DEFAULT_CHANNEL) {
+      i++;
+    }
+    return i;
+  }
+
+  private void start() {
+    if (p == -1) {
+      p = skipOffTokenChannels(0);
+    }
+  }
+
+  /**
+   * Forgets the tokens before the current one. The parser must not go back to them,
+   * so this is only called between two rules, when all marks have been rewound.
+   */
+  void release() {
+    start();
+    int n = Math.min(p, offset + tokens.size()) - offset;
+    if (n > 0) {
+      tokens.subList(0, n).clear();
+      offset += n;
+    }
+  }
+
+  /** Reads the rest of the tokens from the lexer, so that it reports all lexical errors. */
+  void fill() {
+    sync(Integer.MAX_VALUE);
+  }
+
+  public void consume() {
+    start();
+    if (sync(p)) {
+      p = skipOffTokenChannels(p + 1);
+    }
+  }
+
+  public Token LT(int k) {
+    start();
+    if (k == 0) return null;
+    if (k < 0) return LB(-k);
+    int i = p;
+    for (int n = 1; n < k; n++) {
+      i = skipOffTokenChannels(i + 1);
+    }
+    if (!sync(i)) return Token.EOF_TOKEN;
+    return tokens.get(i - offset);
+  }
+
+  private Token LB(int k) {
+    int i = p;
+    for (int n = 0; n < k; n++) {
+      i--;
+      while (i >= offset && tokens.get(i - offset).getChannel() != Token.DEFAULT_CHANNEL) {
+        i--;
+      }
+    }
+    if (i < offset) return null;
+    return tokens.get(i - offset);
+  }
+
+  public Token get(int i) {
+    if (i < offset || !sync(i)) {
+      throw new IndexOutOfBoundsException("token " + i + " is not buffered");
+    }
+    return tokens.get(i - offset);
+  }
+
+  public int LA(int i) {
+    return LT(i).getType();
+  }
+
+  public int mark() {
+    start();
+    lastMarker = index();
+    return lastMarker;
+  }
+
+  public void release(int marker) {
+  }
+
+  public int index() {
+    return p;
+  }
+
+  public void rewind(int marker) {
+    seek(marker);
+  }
+
+  public void rewind() {
+    seek(lastMarker);
+  }
+
+  public void seek(int index) {
+    p = index;
+  }
+
+  public int size() {
+    return offset + tokens.size();
+  }
+
+  public TokenSource getTokenSource() {
+    return tokenSource;
+  }
+
+  public String getSourceName() {
+    return tokenSource.getSourceName();
+  }
+
+  public String toString(int start, int stop) {
+    if (start < 0 || stop < 0) return null;
+    StringBuilder b = new StringBuilder();
+    for (int i = Math.max(start, offset); i <= stop && sync(i); i++) {
+      b.append(tokens.get(i - offset).getText());
+    }
+    return b.toString();
+  }
+
+  public String toString(Token start, Token stop) {
+    if (start == null || stop == null) return null;
+    return toString(start.getTokenIndex(), stop.getTokenIndex());
+  }
+
+}
@@ -12,8 +12,7 @@ public final class Definition {
 
   public Definition(MemoizationType memoType, List<CaseExpr> cases) {
     this.memoType = memoType;
-    this.cases = new ArrayList(cases.size());
-    Collections.copy(this.cases, cases);
+    this.cases = new ArrayList<CaseExpr>(cases);
     body = null;
   }
 
@@ -3,11 +3,23 @@ package com.babel17.interpreter.program;
 public final class ExprCompare extends Expr {
 
   public ExprCompare(int result, Expr expr1, Expr expr2) {
+    this(result, 1 << result, expr1, expr2);
+  }
+
+  private ExprCompare(int result, int results, Expr expr1, Expr expr2) {
     this.result = result;
+    this.results = results;
     this.expr1 = expr1;
     this.expr2 = expr2;
   }
 
+  // the comparison holds if comparing the values gives one of the results
+  public static ExprCompare anyOf(int[] results, Expr expr1, Expr expr2) {
+    int mask = 0;
+    for (int r : results) mask |= 1 << r;
+    return new ExprCompare(results[0], mask, expr1, expr2);
+  }
+
   public int kind() {
     return KIND_COMPARE;
   }
@@ -16,6 +28,16 @@ public final class ExprCompare extends Expr {
     return result;
   }
 
+  public boolean holds(int compareResult) {
+    return (results & (1 << compareResult)) != 0;
+  }
+
+  // whether comparing unrelated values is a dynamic exception, which it is for all
+  // comparisons except == and <>
+  public boolean needsRelated() {
+    return results != (1 << 3) && (results & 1) == 0;
+  }
+
   public Expr expr1() {
     return expr1;
   }
@@ -25,6 +47,7 @@ public final class ExprCompare extends Expr {
   }
 
   private int result;
+  private int results;
   private Expr expr1, expr2;
 
 }
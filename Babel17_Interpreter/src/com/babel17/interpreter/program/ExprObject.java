@@ -21,8 +21,7 @@ public final class ExprObject extends Expr {
 
   public ExprObject(Statement body, List<MessageIndex> messages) {
     this.body = body;
-    this.messages = new ArrayList(messages.size());
-    Collections.copy(this.messages, messages);
+    this.messages = new ArrayList<MessageIndex>(messages);
   }
 
   public int kind() {
@@ -6,8 +6,7 @@ public final class PatternSplit extends Pattern {
   
   public PatternSplit(String message, List<Pattern> patterns) {
     this.message = message.toLowerCase();
-    this.patterns = new ArrayList(patterns.size());
-    Collections.copy(this.patterns, patterns);
+    this.patterns = new ArrayList<Pattern>(patterns);
   }
 
   public int countPatterns() {
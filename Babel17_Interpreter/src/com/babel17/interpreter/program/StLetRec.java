@@ -6,8 +6,7 @@ public class StLetRec extends Statement {
 
   public StLetRec(List<Definition> defs, Statement next) {
     super(next);
-    this.definitions = new ArrayList(defs.size());
-    Collections.copy(this.definitions, defs);
+    this.definitions = new ArrayList<Definition>(defs);
   }
   
   public Definition definition(int i) {
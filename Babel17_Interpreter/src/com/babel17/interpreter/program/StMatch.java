@@ -7,8 +7,7 @@ public final class StMatch extends ControlStatement {
   public StMatch(Expr value, List<CaseStatement> cases, Statement next) {
     super(next);
     this.value = value;
-    this.cases = new ArrayList(cases.size());
-    Collections.copy(this.cases, cases);
+    this.cases = new ArrayList<CaseStatement>(cases);
   }
 
   public Expr value() {
@@ -4,9 +4,11 @@ public final class StVal extends Statement {
   
   public StVal(int[] assignments, Pattern pattern, Expr body, Statement next) {
     super(next);
-    this.assignments = new int[assignments.length];
-    for (int i=0; i<assignments.length; i++)
-      this.assignments[i] = assignments[i];
+    if (assignments != null) {
+      this.assignments = new int[assignments.length];
+      for (int i=0; i<assignments.length; i++)
+        this.assignments[i] = assignments[i];
+    }
     this.pattern = pattern;
     this.body = body;
   }
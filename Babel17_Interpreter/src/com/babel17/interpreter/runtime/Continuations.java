@@ -7,9 +7,11 @@ import java.util.*;
 public final class Continuations {
   
   public static Continuation defaultContinuation() {
-    return new Default();
+    return DEFAULT;
   }
 
+  private final static Continuation DEFAULT = new Default();
+
   private final static class Default implements Continuation {
     public EvalResult apply(Value v) {
       return EvalResult.createFinalResult(v);
@@ -18,16 +20,26 @@ public final class Continuations {
 
   public final static class SendMessage implements Continuation {
 
-    public SendMessage(String message, Continuation c) {
+    public SendMessage(Evaluator e, String message, Continuation c) {
+      this.e = e;
+      init(message, c);
+    }
+
+    void init(String message, Continuation c) {
       this.message = message;
       this.c = c;
     }
 
     public EvalResult apply(Value v) {
+      Continuation c = this.c;
+      String message = this.message;
+      e.release(this);
       return c.apply(v.sendMessage(message));
     }
-    private final String message;
-    private final Continuation c;
+    private final Evaluator e;
+    private String message;
+    private Continuation c;
+    SendMessage nextFree;
 
   }
 
@@ -53,6 +65,10 @@ public final class Continuations {
 
     public Apply(Evaluator e, Environment env, Expr operand, Continuation c) {
       this.e = e;
+      init(env, operand, c);
+    }
+
+    void init(Environment env, Expr operand, Continuation c) {
       this.operand = operand;
       this.c = c;
       this.env = env;
@@ -60,21 +76,76 @@ public final class Continuations {
     }
 
     public EvalResult apply(Value v) {
-      if (f != null) return f.apply(e, c, v);
-      if (v instanceof ExceptionValue)
+      if (f != null) {
+        Value f = this.f;
+        Continuation c = this.c;
+        e.release(this);
+        return f.apply(e, c, v);
+      }
+      if (v instanceof ExceptionValue) {
+        Continuation c = this.c;
+        e.release(this);
         return c.apply(((ExceptionValue) v).toDynamic());
+      }
       f = v;
       return e.eval(env, this, operand);
     }
 
     private final Evaluator e;
-    private final Environment env;
-    private final Continuation c;
-    private final Expr operand;
+    private Environment env;
+    private Continuation c;
+    private Expr operand;
     private Value f;
+    Apply nextFree;
     
   }
 
+  // applies a binary operator, ExprApply(ExprSendMessage(receiver, message), operand);
+  // on integers the operator is applied directly, without creating the function that
+  // sending the message gives
+  public final static class Binary implements Continuation {
+
+    public Binary(Evaluator e, Environment env, String message, Expr operand, Continuation c) {
+      this.e = e;
+      init(env, message, operand, c);
+    }
+
+    void init(Environment env, String message, Expr operand, Continuation c) {
+      this.env = env;
+      this.message = message;
+      this.operand = operand;
+      this.c = c;
+      this.receiver = null;
+    }
+
+    public EvalResult apply(Value v) {
+      if (receiver != null) {
+        IntegerValue receiver = this.receiver;
+        String message = this.message;
+        Continuation c = this.c;
+        e.release(this);
+        return c.apply(receiver.operate(message, v));
+      }
+      if (v instanceof IntegerValue && IntegerValue.isOperator(message)) {
+        receiver = (IntegerValue) v;
+        return e.eval(env, this, operand);
+      }
+      Apply k = e.apply(env, operand, c);
+      String message = this.message;
+      e.release(this);
+      return k.apply(v.sendMessage(message));
+    }
+
+    private final Evaluator e;
+    private Environment env;
+    private String message;
+    private Expr operand;
+    private Continuation c;
+    private IntegerValue receiver;
+    Binary nextFree;
+
+  }
+
   public static abstract class NeedsOnlyClosedCollector implements StateContinuation {
 
     public abstract Continuation needsOnlyClosedCollector();
@@ -157,7 +228,7 @@ public final class Continuations {
     public EvalResult apply(Value collector) {
       if (collector instanceof ExceptionValue) {
         ExceptionValue p = (ExceptionValue) collector;
-        return EvalResult.createFinalResult(new State(env, p.toDynamic()));
+        return c.apply(new State(env, p.toDynamic()));
       }
       return e.eval(new State(env, collector), c, next);
     }
@@ -167,12 +238,20 @@ public final class Continuations {
 
     public Val(Evaluator e, State state, StateContinuation c, StVal stval) {
       this.e = e;
+      init(state, c, stval);
+    }
+
+    void init(State state, StateContinuation c, StVal stval) {
       this.state = state;
       this.c = c;
       this.stval = stval;
     }
 
     public EvalResult apply(Value v) {
+      State state = this.state;
+      StateContinuation c = this.c;
+      StVal stval = this.stval;
+      e.release(this);
       Environment env = state.environment();
       int oldsize = env.size();
       MatchResult m = e.match(state.environment(), stval.pattern(), v);
@@ -184,19 +263,15 @@ public final class Continuations {
           env.pop(env.size() - oldsize);
           return c.apply(new State(env, DynamicException.noMatch()));
       }
-      if (stval.assign()) {
-        int count = stval.countAssignments();
-        for (int i = 0; i < count; i++) {
-          env.updateValue(oldsize - i, env.getValue(stval.assignment(i)));
-        }
-        env.pop(env.size() - oldsize);
-      }
+      if (stval.assign())
+        e.assign(env, oldsize, stval);
       return e.eval(state, c, stval.nextStatement());
     }
-    private Evaluator e;
+    private final Evaluator e;
     private State state;
     private StateContinuation c;
     private StVal stval;
+    Val nextFree;
   }
 
   public final static class With
@@ -260,13 +335,8 @@ public final class Continuations {
           env.pop(env.size() - oldsize);
           return c.apply(new State(env, DynamicException.noMatch()));
       }
-      if (stval.assign()) {
-        int count = stval.countAssignments();
-        for (int i = 0; i < count; i++) {
-          env.updateValue(oldsize - i, env.getValue(stval.assignment(i)));
-        }
-        env.pop(env.size() - oldsize);
-      }
+      if (stval.assign())
+        e.assign(env, oldsize, stval);
       return e.eval(state, c, stval.nextStatement());
     }
     private Evaluator e;
@@ -314,9 +384,16 @@ public final class Continuations {
         return c.apply(after);
       }
       state = after;
-      return e.eval(state.environment(), this, w.condition());
+      // bounce back to the trampoline so that the stack does not grow with each iteration
+      return bounce;
     }
 
+    private final EvalResult bounce = new EvalResult.Lambda() {
+      public EvalResult evaluate() {
+        return e.eval(state.environment(), While.this, w.condition());
+      }
+    };
+
     public Continuation needsOnlyClosedCollector() {
       return null;
     }
@@ -497,14 +574,16 @@ public final class Continuations {
   public final static class Obj implements StateContinuation {
 
     private ExprObject expr;
+    private Continuation c;
 
-    public Obj(ExprObject expr) {
+    public Obj(ExprObject expr, Continuation c) {
       this.expr = expr;
+      this.c = c;
     }
 
     public EvalResult apply(State state) {
       if (state.collector() instanceof DynamicException)
-        return EvalResult.createFinalResult(state.collector());
+        return c.apply(state.collector());
       ObjectValue obj = new ObjectValue();
       int count = expr.countMessages();
       Environment env = state.environment();
@@ -513,7 +592,7 @@ public final class Continuations {
         obj.put(mi.message(), env.getValue(mi.index()));
       }
       obj.seal();
-      return EvalResult.createFinalResult(obj);
+      return c.apply(obj);
     }
 
     public Continuation needsOnlyClosedCollector() {
@@ -524,14 +603,19 @@ public final class Continuations {
 
   public final static class Compare implements Continuation {
 
+    private final Evaluator e;
     private ExprCompare compare;
-    private Evaluator e;
     private Environment env;
     private Continuation c;
     private Value v1;
+    Compare nextFree;
 
     public Compare(Evaluator e, Environment env, Continuation c, ExprCompare compare) {
       this.e = e;
+      init(env, c, compare);
+    }
+
+    void init(Environment env, Continuation c, ExprCompare compare) {
       this.env = env;
       this.c = c;
       this.compare = compare;
@@ -540,11 +624,17 @@ public final class Continuations {
 
     public EvalResult apply(Value v) {
       if (v1 != null) {
+        Value v1 = this.v1;
+        Continuation c = this.c;
+        ExprCompare compare = this.compare;
+        e.release(this);
         try {
-          boolean b = compare.result() == v1.compareWithOtherValue(e, v);
-          return c.apply(BooleanValue.create(b));
+          int r = v1.compareWithOtherValue(e, v);
+          if (r == 0 && compare.needsRelated())
+            return c.apply(DynamicException.unrelated());
+          return c.apply(BooleanValue.create(compare.holds(r)));
         } catch (CompareException x) {
-          return EvalResult.createFinalResult(x.exception());
+          return c.apply(x.exception());
         }
       } else {
         v1 = v;
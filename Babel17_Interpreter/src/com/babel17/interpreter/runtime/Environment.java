@@ -2,23 +2,67 @@ package com.babel17.interpreter.runtime;
 
 import com.babel17.interpreter.values.Value;
 
+// A stack of values which is addressed from the top: getValue(0) is the value
+// that has been pushed last.
+// freeze() does not copy; instead the frozen environment and this environment
+// share their array until one of them is modified.
 public final class Environment {
+
+  public Environment() {
+    this(new Value[INITIAL_CAPACITY], 0, false);
+  }
+
+  private Environment(Value[] values, int size, boolean shared) {
+    this.values = values;
+    this.size = size;
+    this.shared = shared;
+  }
+
   public Value getValue(int index) {
-    throw new RuntimeException("not implemented");
+    return values[size - 1 - index];
   }
+
   public int size() {
-    throw new RuntimeException("not implemented");
+    return size;
   }
+
   public void pushValue(Value v) {
-    throw new RuntimeException("not implemented");
+    if (shared || size == values.length) copy(size + 1);
+    values[size++] = v;
   }
+
   public void pop(int numValues) {
-    throw new RuntimeException("not implemented");
+    int newsize = size - numValues;
+    if (!shared) {
+      for (int i = newsize; i < size; i++) values[i] = null;
+    }
+    size = newsize;
   }
+
   public void updateValue(int index, Value v) {
-    throw new RuntimeException("not implemented");    
+    if (shared) copy(size);
+    values[size - 1 - index] = v;
   }
+
   public Environment freeze() {
-    throw new RuntimeException("not implemented");
+    shared = true;
+    return new Environment(values, size, true);
+  }
+
+  private void copy(int capacity) {
+    int n = values.length;
+    if (n < INITIAL_CAPACITY) n = INITIAL_CAPACITY;
+    while (n < capacity) n = 2 * n;
+    Value[] a = new Value[n];
+    System.arraycopy(values, 0, a, 0, size);
+    values = a;
+    shared = false;
   }
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Value[] values;
+  private int size;
+  private boolean shared;
+
 }
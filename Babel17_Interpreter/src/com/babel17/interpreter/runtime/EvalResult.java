@@ -8,28 +8,37 @@ public abstract class EvalResult {
   public abstract EvalResult evaluate();
 
   public Object trampoline() {
-    Object v = null;
     EvalResult e = this;
-    do {
-      v = e.finalResult();
+    while (!(e instanceof FinalResult))
       e = e.evaluate();
-    } while (v == null);
-    return v;
+    return ((FinalResult) e).take();
   }
 
+  // There is one FinalResult per thread which serves as result register:
+  // a final result is always consumed by the trampoline right after it has
+  // been created, before any other evaluation can take place on this thread.
   private static final class FinalResult extends EvalResult {
-    FinalResult(Object value) {
-      this.value = value;
-    }
     public Object finalResult() {
       return value;
     }
     public EvalResult evaluate() {
       return this;
     }
+    Object take() {
+      Object v = value;
+      value = null;
+      return v;
+    }
     private Object value;
   }
 
+  private static final ThreadLocal<FinalResult> register =
+          new ThreadLocal<FinalResult>() {
+    protected FinalResult initialValue() {
+      return new FinalResult();
+    }
+  };
+
   public abstract static class Lambda extends EvalResult {
     protected Lambda() {
     }
@@ -39,7 +48,9 @@ public abstract class EvalResult {
   }
 
   public static EvalResult createFinalResult(Object v) {
-    return new FinalResult(v);
+    FinalResult r = register.get();
+    r.value = v;
+    return r;
   }
   
 }
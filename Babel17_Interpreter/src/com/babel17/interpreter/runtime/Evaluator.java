@@ -8,6 +8,107 @@ public final class Evaluator {
   public Evaluator() {
   }
 
+  // The continuations below are applied a fixed number of times. After their
+  // last application they are put back onto these free lists, so that a loop
+  // does not allocate new continuations in each iteration.
+  // An Evaluator must therefore not be shared between threads; it belongs to
+  // the thread that evaluates with it first, and confined() fails on any
+  // other thread.
+
+  private Thread owner = null;
+
+  private void confined() {
+    Thread t = Thread.currentThread();
+    if (owner != t) {
+      if (owner != null)
+        throw new IllegalStateException("Evaluator of "+owner.getName()+
+                " used by "+t.getName());
+      owner = t;
+    }
+  }
+
+  private Continuations.Val freeVal = null;
+  private Continuations.SendMessage freeSendMessage = null;
+  private Continuations.Apply freeApply = null;
+  private Continuations.Compare freeCompare = null;
+  private Continuations.Binary freeBinary = null;
+
+  Continuations.Val val(State state, StateContinuation c, StVal stval) {
+    confined();
+    Continuations.Val k = freeVal;
+    if (k == null) return new Continuations.Val(this, state, c, stval);
+    freeVal = k.nextFree;
+    k.init(state, c, stval);
+    return k;
+  }
+
+  void release(Continuations.Val k) {
+    k.init(null, null, null);
+    k.nextFree = freeVal;
+    freeVal = k;
+  }
+
+  Continuations.SendMessage sendMessage(String message, Continuation c) {
+    confined();
+    Continuations.SendMessage k = freeSendMessage;
+    if (k == null) return new Continuations.SendMessage(this, message, c);
+    freeSendMessage = k.nextFree;
+    k.init(message, c);
+    return k;
+  }
+
+  void release(Continuations.SendMessage k) {
+    k.init(null, null);
+    k.nextFree = freeSendMessage;
+    freeSendMessage = k;
+  }
+
+  Continuations.Apply apply(Environment env, Expr operand, Continuation c) {
+    confined();
+    Continuations.Apply k = freeApply;
+    if (k == null) return new Continuations.Apply(this, env, operand, c);
+    freeApply = k.nextFree;
+    k.init(env, operand, c);
+    return k;
+  }
+
+  void release(Continuations.Apply k) {
+    k.init(null, null, null);
+    k.nextFree = freeApply;
+    freeApply = k;
+  }
+
+  Continuations.Compare compare(Environment env, Continuation c, ExprCompare comp) {
+    confined();
+    Continuations.Compare k = freeCompare;
+    if (k == null) return new Continuations.Compare(this, env, c, comp);
+    freeCompare = k.nextFree;
+    k.init(env, c, comp);
+    return k;
+  }
+
+  void release(Continuations.Compare k) {
+    k.init(null, null, null);
+    k.nextFree = freeCompare;
+    freeCompare = k;
+  }
+
+  Continuations.Binary binary(Environment env, String message, Expr operand,
+          Continuation c) {
+    confined();
+    Continuations.Binary k = freeBinary;
+    if (k == null) return new Continuations.Binary(this, env, message, operand, c);
+    freeBinary = k.nextFree;
+    k.init(env, message, operand, c);
+    return k;
+  }
+
+  void release(Continuations.Binary k) {
+    k.init(null, null, null, null);
+    k.nextFree = freeBinary;
+    freeBinary = k;
+  }
+
   // match accumulates the matched variables in env
   // in case the match fails, the environment is restored to its original state
   public MatchResult match(Environment env, Pattern p, Value v) {
@@ -45,7 +146,7 @@ public final class Evaluator {
         MatchResult m = match(env, pif.pattern(), v);
         if (m.status() == MatchResult.STATUS_SUCCESS) {
           Value result = (Value) eval(env, Continuations.defaultContinuation(),
-                  pif.condition()).finalResult();
+                  pif.condition()).trampoline();
           result = result.force();
           if (result instanceof BooleanValue) {
             BooleanValue b = (BooleanValue) result;
@@ -155,6 +256,18 @@ public final class Evaluator {
     }
   }
 
+  // After the pattern of an assignment has pushed its k values onto env,
+  // the i-th of these values is written to the variable with index
+  // stval.assignment(i), relative to the environment before the match.
+  // Then the k values are popped again.
+  public void assign(Environment env, int oldsize, StVal stval) {
+    int k = env.size() - oldsize;
+    int count = stval.countAssignments();
+    for (int i = 0; i < count; i++)
+      env.updateValue(stval.assignment(i) + k, env.getValue(k - 1 - i));
+    env.pop(k);
+  }
+
   public EvalResult eval(State state, StateContinuation c, Statement statement) {
     if (statement == null) return c.apply(state);
     switch (statement.kind()) {
@@ -184,7 +297,7 @@ public final class Evaluator {
       case Program.KIND_VAL: {
         StVal val = (StVal) statement;
         return eval(state.environment(),
-                new Continuations.Val(this, state, c, val),
+                val(state, c, val),
                 val.body());
       }
       case Program.KIND_VAL_WITH: {
@@ -252,11 +365,10 @@ public final class Evaluator {
       }
       case Program.KIND_SEND_MESSAGE: {
         ExprSendMessage expr = (ExprSendMessage) p;
-        return eval(env, new Continuations.SendMessage(
-                    expr.message(), c), expr.receiver());
+        return eval(env, sendMessage(expr.message(), c), expr.receiver());
       }
       case Program.KIND_VALUE:
-        return EvalResult.createFinalResult(((ExprValue)p).value());
+        return c.apply(((ExprValue)p).value());
       case Program.KIND_CONSTR: {
         ExprConstr expr = (ExprConstr) p;
         return eval(env, new Continuations.Constr(expr.name(), c),
@@ -264,7 +376,12 @@ public final class Evaluator {
       }
       case Program.KIND_APPLY: {
         ExprApply expr = (ExprApply) p;
-        return eval(env, new Continuations.Apply(this, env, expr.operand(), c),
+        if (expr.operator().kind() == Program.KIND_SEND_MESSAGE) {
+          ExprSendMessage send = (ExprSendMessage) expr.operator();
+          return eval(env, binary(env, send.message(), expr.operand(), c),
+                  send.receiver());
+        }
+        return eval(env, apply(env, expr.operand(), c),
                 expr.operator());
       }
       case Program.KIND_WITH: {
@@ -274,18 +391,18 @@ public final class Evaluator {
       }
       case Program.KIND_LAMBDA: {
         ExprLambda lambda = (ExprLambda) p;
-        return EvalResult.createFinalResult(new LambdaFunction(env.freeze(),
+        return c.apply(new LambdaFunction(env.freeze(),
                 lambda.definition()));
       }
       case Program.KIND_OBJECT: {
         ExprObject obj = (ExprObject) p;
         Value dummyCollector = new BlockValue();
         return eval(new State(env.freeze(), dummyCollector),
-             new Continuations.Obj(obj), obj.body());
+             new Continuations.Obj(obj, c), obj.body());
       }
       case Program.KIND_COMPARE: {
         ExprCompare comp = (ExprCompare) p;
-        return eval(env, new Continuations.Compare(this, env, c, comp),
+        return eval(env, compare(env, c, comp),
                 comp.expr1());
       }
       default:
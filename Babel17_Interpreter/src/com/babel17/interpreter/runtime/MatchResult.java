@@ -8,12 +8,16 @@ public final class MatchResult {
   public final static int STATUS_FAIL = 1;
   public final static int STATUS_EXCEPTION = 2;
 
+  // successful and failed matches carry no exception and are shared
+  private final static MatchResult SUCCESS = new MatchResult(STATUS_SUCCESS);
+  private final static MatchResult FAIL = new MatchResult(STATUS_FAIL);
+
   public static MatchResult success() {
-    return new MatchResult(STATUS_SUCCESS);
+    return SUCCESS;
   }
 
   public static MatchResult fail() {
-    return new MatchResult(STATUS_FAIL);
+    return FAIL;
   }
 
   public static MatchResult exception(DynamicException e) {
@@ -1,9 +1,48 @@
 package com.babel17.interpreter.values;
 
+import java.util.*;
+
+// The collector of a block: a block without yield evaluates to (),
+// a block which yields exactly once evaluates to the yielded value,
+// and otherwise it evaluates to the vector of all yielded values.
 public final class BlockValue extends CollectionValue {
 
+  public BlockValue() {
+    this(new ArrayList<Value>(), 0);
+  }
+
+  private BlockValue(ArrayList<Value> buffer, int count) {
+    this.buffer = buffer;
+    this.count = count;
+  }
+
   public boolean empty() {
-    throw new RuntimeException("not implemented");
+    return count == 0;
+  }
+
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  public int size() {
+    return count;
   }
 
+  public Value sendMessage(String message) {
+    if (message.equals(COLLECTOR_ADD)) {
+      return new NativeFunction() {
+        public Value apply(Value v) {
+          return new BlockValue(append(buffer, count, v), count + 1);
+        }
+      };
+    } else if (message.equals(COLLECTOR_CLOSE)) {
+      if (count == 1) return buffer.get(0);
+      return VectorValue.fromList(buffer, count);
+    } else
+      return super.sendMessage(message);
+  }
+
+  private final ArrayList<Value> buffer;
+  private final int count;
+
 }
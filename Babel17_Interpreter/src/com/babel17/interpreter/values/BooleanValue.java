@@ -1,5 +1,7 @@
 package com.babel17.interpreter.values;
 
+import com.babel17.interpreter.runtime.Evaluator;
+
 public final class BooleanValue extends Value {
 
   public final static BooleanValue TRUE =
@@ -20,6 +22,18 @@ public final class BooleanValue extends Value {
     return value;
   }
 
+  public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
+    x = x.force();
+    if (x instanceof BooleanValue)
+      return !value || ((BooleanValue) x).value;
+    else
+      return false;
+  }
+
+  public String toString() {
+    return value ? "true" : "false";
+  }
+
   private boolean value;
 
 }
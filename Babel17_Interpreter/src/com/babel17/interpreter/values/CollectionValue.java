@@ -1,11 +1,37 @@
 package com.babel17.interpreter.values;
 
+import java.util.*;
+
 public abstract class CollectionValue extends Value {
 
-  public boolean isEmpty()
-  { throw new RuntimeException("not implemented"); }
-  
-  public int size()
-  { throw new RuntimeException("not implemented"); }
+  public abstract boolean isEmpty();
+
+  public abstract int size();
+
+  // Collectors are persistent, but adding to a collector should not copy all of
+  // its elements. Therefore several collectors share one append-only buffer;
+  // a collector owns the first count elements of the buffer and may append in
+  // place as long as nobody else has appended beyond count.
+  static ArrayList<Value> append(ArrayList<Value> buffer, int count, Value v) {
+    if (buffer.size() != count) {
+      ArrayList<Value> b = new ArrayList<Value>(count + 1);
+      b.addAll(buffer.subList(0, count));
+      buffer = b;
+    }
+    buffer.add(v);
+    return buffer;
+  }
+
+  // lexicographic comparison of the first n1 elements of a1 with the first n2 elements of a2
+  static boolean lessThanOrEqual(Value[] a1, int o1, int n1,
+          Value[] a2, int o2, int n2) throws CompareException {
+    int n = n1 < n2 ? n1 : n2;
+    for (int i = 0; i < n; i++) {
+      int c = a1[o1 + i].compareWithOtherValue(null, a2[o2 + i]);
+      if (c == 1) return true;
+      if (c != 3) return false;
+    }
+    return n1 <= n2;
+  }
 
 }
@@ -0,0 +1,77 @@
+package com.babel17.interpreter.values;
+
+import java.util.*;
+
+// The collector which is used when yielding into a list, vector, set or map.
+final class Collector extends Value {
+
+  static final int KIND_LIST = 0;
+  static final int KIND_VECTOR = 1;
+  static final int KIND_SET = 2;
+  static final int KIND_MAP = 3;
+
+  Collector(int kind, Value[] elements) {
+    this(kind, new ArrayList<Value>(Arrays.asList(elements)), elements.length);
+  }
+
+  private Collector(int kind, ArrayList<Value> buffer, int count) {
+    this.kind = kind;
+    this.buffer = buffer;
+    this.count = count;
+  }
+
+  public Value sendMessage(String message) {
+    if (message.equals(COLLECTOR_ADD)) {
+      return new NativeFunction() {
+        public Value apply(Value v) {
+          return add(v);
+        }
+      };
+    } else if (message.equals(COLLECTOR_CLOSE)) {
+      return close();
+    } else
+      return super.sendMessage(message);
+  }
+
+  private Value add(Value v) {
+    if (kind == KIND_MAP) {
+      v = v.force();
+      if (v instanceof ExceptionValue)
+        return ((ExceptionValue) v).toDynamic();
+      if (!(v instanceof VectorValue) || ((VectorValue) v).size() != 2)
+        return DynamicException.illegalArgument();
+    }
+    return new Collector(kind, CollectionValue.append(buffer, count, v), count + 1);
+  }
+
+  private Value close() {
+    switch (kind) {
+      case KIND_LIST: {
+        ListValue l = ListValue.EMPTY;
+        for (int i = count - 1; i >= 0; i--) l = l.cons(buffer.get(i));
+        return l;
+      }
+      case KIND_VECTOR:
+        return VectorValue.fromList(buffer, count);
+      case KIND_SET:
+        try {
+          return SetValue.fromArray(buffer.toArray(new Value[buffer.size()]), count);
+        } catch (ValueOrder.Unrelated x) {
+          return x.exception();
+        }
+      case KIND_MAP:
+        try {
+          return MapValue.fromEntries(buffer.toArray(new Value[buffer.size()]), count);
+        } catch (ValueOrder.Unrelated x) {
+          return x.exception();
+        }
+      default:
+        throw new RuntimeException("unknown kind of collector: "+kind);
+    }
+  }
+
+  private final int kind;
+  private final ArrayList<Value> buffer;
+  private final int count;
+
+}
@@ -1,5 +1,7 @@
 package com.babel17.interpreter.values;
 
+import com.babel17.interpreter.runtime.Evaluator;
+
 public final class ConstructorValue extends Value{
 
   public final static String NAME_SOME = "SOME";
@@ -38,6 +40,21 @@ public final class ConstructorValue extends Value{
     return value;
   }
 
+  public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
+    x = x.force();
+    if (!(x instanceof ConstructorValue)) return false;
+    ConstructorValue c = (ConstructorValue) x;
+    int n = name.compareTo(c.name);
+    if (n != 0) return n < 0;
+    return value.lessThanOrEqualOtherValue(e, c.value);
+  }
+
+  public String toString() {
+    if (value instanceof VectorValue && ((VectorValue) value).isEmpty())
+      return name;
+    return name + " " + value;
+  }
+
   private String name;
   private Value value;
 
@@ -49,6 +49,10 @@ public final class DynamicException extends ExceptionValue {
     return new DynamicException(new ConstructorValue("NOMATCH"));
   }
 
+  public static DynamicException unrelated() {
+    return new DynamicException(new ConstructorValue("UNRELATED"));
+  }
+
 
   public DynamicException(Value v) {
     value = v;
@@ -1,17 +1,251 @@
 package com.babel17.interpreter.values;
 
+import com.babel17.interpreter.runtime.Evaluator;
 import java.math.*;
 
 public final class IntegerValue extends Value {
 
+  private final static int CACHE_LOW = -128;
+  private final static int CACHE_HIGH = 1024;
+  private final static IntegerValue[] cache = new IntegerValue[CACHE_HIGH - CACHE_LOW + 1];
+
+  static {
+    for (int i = CACHE_LOW; i <= CACHE_HIGH; i++)
+      cache[i - CACHE_LOW] = new IntegerValue(i, null);
+  }
+
+  public final static IntegerValue ZERO = fromLong(0);
+  public final static IntegerValue ONE = fromLong(1);
+
   public static IntegerValue fromBigInteger(BigInteger b) {
-    return new IntegerValue(b);
+    if (b.bitLength() < 64) return fromLong(b.longValue());
+    return new IntegerValue(0, b);
+  }
+
+  public static IntegerValue fromLong(long l) {
+    if (l >= CACHE_LOW && l <= CACHE_HIGH) return cache[(int) (l - CACHE_LOW)];
+    return new IntegerValue(l, null);
+  }
+
+  private IntegerValue(long small, BigInteger big) {
+    this.small = small;
+    this.big = big;
+  }
+
+  public BigInteger value() {
+    return big != null ? big : BigInteger.valueOf(small);
+  }
+
+  public boolean isSmall() {
+    return big == null;
+  }
+
+  public Value sendMessage(String message) {
+    if (message.equals(SYNTACTIC_UMINUS)) {
+      if (big == null && small != Long.MIN_VALUE) return fromLong(-small);
+      return fromBigInteger(value().negate());
+    }
+    int op = operator(message);
+    if (op < 0) return DynamicException.unknownMessage(message);
+    return new Operator(op);
+  }
+
+  public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
+    x = x.force();
+    if (x instanceof IntegerValue) {
+      IntegerValue w = (IntegerValue) x;
+      if (big == null && w.big == null) return small <= w.small;
+      return value().compareTo(w.value()) <= 0;
+    } else
+      return false;
+  }
+
+  // the representation is normalized, equal integers are either both small or both big
+  public boolean equals(Object o) {
+    if (!(o instanceof IntegerValue)) return false;
+    IntegerValue w = (IntegerValue) o;
+    if (big == null) return w.big == null && small == w.small;
+    return big.equals(w.big);
+  }
+
+  public int hashCode() {
+    if (big == null) return (int) (small ^ (small >>> 32));
+    return big.hashCode();
+  }
+
+  public String toString() {
+    if (big == null) return Long.toString(small);
+    return big.toString();
+  }
+
+  private static final int OP_PLUS = 0;
+  private static final int OP_MINUS = 1;
+  private static final int OP_TIMES = 2;
+  private static final int OP_DIV = 3;
+  private static final int OP_MOD = 4;
+  private static final int OP_POW = 5;
+  private static final int OP_TO = 6;
+  private static final int OP_DOWNTO = 7;
+
+  private static int operator(String message) {
+    if (message.equals(SYNTACTIC_PLUS)) return OP_PLUS;
+    if (message.equals(SYNTACTIC_MINUS)) return OP_MINUS;
+    if (message.equals(SYNTACTIC_TIMES)) return OP_TIMES;
+    if (message.equals(SYNTACTIC_DIV)) return OP_DIV;
+    if (message.equals(SYNTACTIC_MOD)) return OP_MOD;
+    if (message.equals(SYNTACTIC_POW)) return OP_POW;
+    if (message.equals(SYNTACTIC_TO)) return OP_TO;
+    if (message.equals(SYNTACTIC_DOWNTO)) return OP_DOWNTO;
+    return -1;
+  }
+
+  // euclidean division: the remainder is never negative
+  private static BigInteger[] euclid(BigInteger D, BigInteger d) {
+    BigInteger[] qr = D.divideAndRemainder(d);
+    if (qr[1].signum() < 0) {
+      if (d.signum() > 0) {
+        qr[0] = qr[0].subtract(BigInteger.ONE);
+        qr[1] = qr[1].add(d);
+      } else {
+        qr[0] = qr[0].add(BigInteger.ONE);
+        qr[1] = qr[1].subtract(d);
+      }
+    }
+    return qr;
+  }
+
+  private static Value range(BigInteger from, BigInteger to, int step) {
+    ListValue list = ListValue.EMPTY;
+    BigInteger delta = BigInteger.valueOf(step);
+    if (from.compareTo(to) * step > 0) return list;
+    for (BigInteger i = to; ; i = i.subtract(delta)) {
+      list = list.cons(fromBigInteger(i));
+      if (i.equals(from)) return list;
+    }
+  }
+
+  private static Value range(long from, long to, int step) {
+    ListValue list = ListValue.EMPTY;
+    if (step > 0 ? from > to : from < to) return list;
+    for (long i = to; ; i -= step) {
+      list = list.cons(fromLong(i));
+      if (i == from) return list;
+    }
+  }
+
+  // the operations on two small integers that do not overflow, or null
+
+  private static IntegerValue add(long a, long b) {
+    long r = a + b;
+    if (((a ^ r) & (b ^ r)) < 0) return null;
+    return fromLong(r);
+  }
+
+  private static IntegerValue subtract(long a, long b) {
+    long r = a - b;
+    if (((a ^ b) & (a ^ r)) < 0) return null;
+    return fromLong(r);
+  }
+
+  private static final long HALF = 1L << 31;
+
+  private static IntegerValue multiply(long a, long b) {
+    long r = a * b;
+    if ((a < HALF && a > -HALF && b < HALF && b > -HALF) || a == 0 ||
+        (r / a == b && !(a == -1 && b == Long.MIN_VALUE)))
+      return fromLong(r);
+    return null;
+  }
+
+  private static IntegerValue smallOp(int op, long a, long b) {
+    switch (op) {
+      case OP_PLUS: return add(a, b);
+      case OP_MINUS: return subtract(a, b);
+      case OP_TIMES: return multiply(a, b);
+      case OP_DIV:
+        if (a == Long.MIN_VALUE) return null;
+        long q = a / b;
+        if (a % b >= 0) return fromLong(q);
+        return fromLong(b > 0 ? q - 1 : q + 1);
+      case OP_MOD:
+        long r = a % b;
+        if (r >= 0) return fromLong(r);
+        if (b > 0) return fromLong(r + b);
+        if (b == Long.MIN_VALUE) return null;
+        return fromLong(r - b);
+      default: return null;
+    }
+  }
+
+  private final class Operator extends NativeFunction {
+
+    Operator(int op) {
+      this.op = op;
+    }
+
+    public Value apply(Value v) {
+      return operate(op, v);
+    }
+
+    private final int op;
+
+  }
+
+  // true if the message is one of the binary operators on integers
+  public static boolean isOperator(String message) {
+    return operator(message) >= 0;
+  }
+
+  /* The result of the binary operator for this and v; the same as sending the message and
+   * applying the result to v, without creating the function in between. */
+  public Value operate(String message, Value v) {
+    return operate(operator(message), v);
   }
 
-  private IntegerValue(BigInteger b) {
-    this.value = b;
+  private Value operate(int op, Value v) {
+    v = v.force();
+    if (v instanceof ExceptionValue)
+      return ((ExceptionValue) v).toDynamic();
+    if (!(v instanceof IntegerValue))
+      return DynamicException.illegalArgument();
+    IntegerValue x = (IntegerValue) v;
+    if (big == null && x.big == null) {
+      if (x.small == 0 && (op == OP_DIV || op == OP_MOD))
+        return DynamicException.outOfDomain();
+      if (op == OP_TO) return range(small, x.small, 1);
+      if (op == OP_DOWNTO) return range(small, x.small, -1);
+      IntegerValue r = smallOp(op, small, x.small);
+      if (r != null) return r;
+    }
+    BigInteger value = value();
+    BigInteger w = x.value();
+    switch (op) {
+      case OP_PLUS: return fromBigInteger(value.add(w));
+      case OP_MINUS: return fromBigInteger(value.subtract(w));
+      case OP_TIMES: return fromBigInteger(value.multiply(w));
+      case OP_DIV:
+        if (w.signum() == 0) return DynamicException.outOfDomain();
+        return fromBigInteger(euclid(value, w)[0]);
+      case OP_MOD:
+        if (w.signum() == 0) return DynamicException.outOfDomain();
+        return fromBigInteger(euclid(value, w)[1]);
+      case OP_POW:
+        if (w.signum() < 0 || (value.signum() == 0 && w.signum() == 0))
+          return DynamicException.outOfDomain();
+        if (w.bitLength() > 31) {
+          if (value.abs().equals(BigInteger.ONE))
+            return fromBigInteger(value.pow(w.testBit(0) ? 1 : 2));
+          return DynamicException.outOfDomain();
+        }
+        return fromBigInteger(value.pow(w.intValue()));
+      case OP_TO: return range(value, w, 1);
+      case OP_DOWNTO: return range(value, w, -1);
+      default: throw new RuntimeException("unknown operator: "+op);
+    }
   }
 
-  private BigInteger value;
+  // integers that fit into a long are kept in small, big is null then
+  private final long small;
+  private final BigInteger big;
 
 }
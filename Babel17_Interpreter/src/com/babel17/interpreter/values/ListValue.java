@@ -1,5 +1,106 @@
 package com.babel17.interpreter.values;
 
+import com.babel17.interpreter.runtime.Evaluator;
+
 public final class ListValue extends SequenceValue {
 
+  public final static ListValue EMPTY = new ListValue(null, null, 0);
+
+  public static ListValue fromArray(Value[] values) {
+    ListValue l = EMPTY;
+    for (int i = values.length - 1; i >= 0; i--) l = l.cons(values[i]);
+    return l;
+  }
+
+  private ListValue(Value head, ListValue tail, int size) {
+    this.head = head;
+    this.tail = tail;
+    this.size = size;
+  }
+
+  public ListValue cons(Value v) {
+    return new ListValue(v, this, size + 1);
+  }
+
+  public Value head() {
+    return head;
+  }
+
+  public ListValue tail() {
+    return tail;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Value getValueAt(int index) {
+    ListValue l = this;
+    for (int i = 0; i < index; i++) l = l.tail;
+    return l.head;
+  }
+
+  public Value split(Evaluator e, String message, int num_pieces) {
+    if (message.equals(SPLIT_CONS)) {
+      if (num_pieces != 2 || size == 0) return null;
+      return VectorValue.pair(head, tail);
+    } else if (message.equals(SPLIT_LIST)) {
+      if (size != num_pieces) return null;
+      return this;
+    } else
+      return super.split(e, message, num_pieces);
+  }
+
+  public Value sendMessage(String message) {
+    if (message.equals(ITERATE)) {
+      if (size == 0) return VectorValue.EMPTY;
+      return VectorValue.pair(head, tail);
+    } else if (message.equals(COLLECTOR_ADD) || message.equals(COLLECTOR_CLOSE)) {
+      return new Collector(Collector.KIND_LIST, toArray()).sendMessage(message);
+    } else
+      return super.sendMessage(message);
+  }
+
+  public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
+    x = x.force();
+    if (!(x instanceof ListValue)) return false;
+    ListValue l1 = this;
+    ListValue l2 = (ListValue) x;
+    while (l1.size > 0 && l2.size > 0) {
+      int c = l1.head.compareWithOtherValue(e, l2.head);
+      if (c == 1) return true;
+      if (c != 3) return false;
+      l1 = l1.tail;
+      l2 = l2.tail;
+    }
+    return l1.size == 0;
+  }
+
+  public Value[] toArray() {
+    Value[] a = new Value[size];
+    ListValue l = this;
+    for (int i = 0; i < size; i++) {
+      a[i] = l.head;
+      l = l.tail;
+    }
+    return a;
+  }
+
+  public String toString() {
+    StringBuilder b = new StringBuilder("[");
+    for (ListValue l = this; l.size > 0; l = l.tail) {
+      if (l != this) b.append(",");
+      b.append(l.head);
+    }
+    return b.append("]").toString();
+  }
+
+  private final Value head;
+  private final ListValue tail;
+  private final int size;
+
 }
@@ -1,5 +1,108 @@
 package com.babel17.interpreter.values;
 
+import com.babel17.interpreter.runtime.Evaluator;
+import java.util.*;
+
+// A map is stored as an array of (key, value) pairs which is sorted by the keys.
 public final class MapValue extends CollectionValue {
 
+  public final static MapValue EMPTY = new MapValue(new VectorValue[0], 0, 0);
+
+  // every element of entries must be a pair (key, value); throws ValueOrder.Unrelated
+  // if two of the keys are unrelated
+  static MapValue fromEntries(Value[] entries, int count) {
+    if (count == 0) return EMPTY;
+    Value[] s = ValueOrder.sortUnique(entries, count, KEY_ORDER);
+    VectorValue[] e = new VectorValue[s.length];
+    System.arraycopy(s, 0, e, 0, s.length);
+    return new MapValue(e, 0, e.length);
+  }
+
+  private MapValue(VectorValue[] entries, int offset, int length) {
+    this.entries = entries;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public boolean isEmpty() {
+    return length == 0;
+  }
+
+  public int size() {
+    return length;
+  }
+
+  // returns null if key is not in the map, or if it is unrelated to its keys
+  public Value get(Value key) {
+    int lo = offset;
+    int hi = offset + length - 1;
+    try {
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        int c = ValueOrder.INSTANCE.compare(entries[mid].getValueAt(0), key);
+        if (c < 0) lo = mid + 1;
+        else if (c > 0) hi = mid - 1;
+        else return entries[mid].getValueAt(1);
+      }
+    } catch (ValueOrder.Unrelated x) {
+    }
+    return null;
+  }
+
+  public Value sendMessage(String message) {
+    if (message.equals(ITERATE)) {
+      if (length == 0) return VectorValue.EMPTY;
+      return VectorValue.pair(entries[offset],
+              new MapValue(entries, offset + 1, length - 1));
+    } else if (message.equals(COLLECTOR_ADD) || message.equals(COLLECTOR_CLOSE)) {
+      return new Collector(Collector.KIND_MAP, toArray()).sendMessage(message);
+    } else
+      return super.sendMessage(message);
+  }
+
+  // maps are compared by size first, then by their keys, and then by their values
+  public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
+    x = x.force();
+    if (!(x instanceof MapValue)) return false;
+    MapValue m = (MapValue) x;
+    if (length != m.length) return length < m.length;
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < length; i++) {
+        int c = entries[offset + i].getValueAt(pass).compareWithOtherValue(e,
+                m.entries[m.offset + i].getValueAt(pass));
+        if (c == 1) return true;
+        if (c != 3) return false;
+      }
+    }
+    return true;
+  }
+
+  public Value[] toArray() {
+    Value[] a = new Value[length];
+    System.arraycopy(entries, offset, a, 0, length);
+    return a;
+  }
+
+  public String toString() {
+    StringBuilder b = new StringBuilder("{");
+    for (int i = 0; i < length; i++) {
+      if (i > 0) b.append(",");
+      VectorValue entry = entries[offset + i];
+      b.append(entry.getValueAt(0)).append(" => ").append(entry.getValueAt(1));
+    }
+    if (length == 0) b.append("->");
+    return b.append("}").toString();
+  }
+
+  private final static Comparator<Value> KEY_ORDER = new Comparator<Value>() {
+    public int compare(Value a, Value b) {
+      return ValueOrder.INSTANCE.compare(((VectorValue) a).getValueAt(0),
+              ((VectorValue) b).getValueAt(0));
+    }
+  };
+
+  private final VectorValue[] entries;
+  private final int offset;
+  private final int length;
+
 }
@@ -2,8 +2,13 @@ package com.babel17.interpreter.values;
 
 public abstract class SequenceValue extends CollectionValue {
 
-  public Value getValueAt(int index)
-    { throw new RuntimeException("not implemented"); }
-
+  public abstract Value getValueAt(int index);
+
+  public Value[] toArray() {
+    int n = size();
+    Value[] a = new Value[n];
+    for (int i = 0; i < n; i++) a[i] = getValueAt(i);
+    return a;
+  }
 
 }
@@ -1,5 +1,90 @@
 package com.babel17.interpreter.values;
 
+import com.babel17.interpreter.runtime.Evaluator;
+
 public final class SetValue extends CollectionValue {
 
+  public final static SetValue EMPTY = new SetValue(new Value[0], 0, 0);
+
+  // throws ValueOrder.Unrelated if two of the values are unrelated
+  public static SetValue fromArray(Value[] values) {
+    return fromArray(values, values.length);
+  }
+
+  static SetValue fromArray(Value[] values, int count) {
+    if (count == 0) return EMPTY;
+    Value[] s = ValueOrder.sortUnique(values, count, ValueOrder.INSTANCE);
+    return new SetValue(s, 0, s.length);
+  }
+
+  private SetValue(Value[] elements, int offset, int length) {
+    this.elements = elements;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public boolean isEmpty() {
+    return length == 0;
+  }
+
+  public int size() {
+    return length;
+  }
+
+  // a value which is unrelated to the elements is not contained
+  public boolean contains(Value v) {
+    int lo = offset;
+    int hi = offset + length - 1;
+    try {
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        int c = ValueOrder.INSTANCE.compare(elements[mid], v);
+        if (c < 0) lo = mid + 1;
+        else if (c > 0) hi = mid - 1;
+        else return true;
+      }
+    } catch (ValueOrder.Unrelated x) {
+    }
+    return false;
+  }
+
+  public Value sendMessage(String message) {
+    if (message.equals(ITERATE)) {
+      if (length == 0) return VectorValue.EMPTY;
+      return VectorValue.pair(elements[offset],
+              new SetValue(elements, offset + 1, length - 1));
+    } else if (message.equals(COLLECTOR_ADD) || message.equals(COLLECTOR_CLOSE)) {
+      return new Collector(Collector.KIND_SET, toArray()).sendMessage(message);
+    } else
+      return super.sendMessage(message);
+  }
+
+  // sets are compared by size first, and then element by element
+  public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
+    x = x.force();
+    if (!(x instanceof SetValue)) return false;
+    SetValue s = (SetValue) x;
+    if (length != s.length) return length < s.length;
+    return lessThanOrEqual(elements, offset, length, s.elements, s.offset, s.length);
+  }
+
+  public Value[] toArray() {
+    Value[] a = new Value[length];
+    System.arraycopy(elements, offset, a, 0, length);
+    return a;
+  }
+
+  public String toString() {
+    StringBuilder b = new StringBuilder("{");
+    for (int i = 0; i < length; i++) {
+      if (i > 0) b.append(",");
+      b.append(elements[offset + i]);
+    }
+    return b.append("}").toString();
+  }
+
+  private final Value[] elements;
+  private final int offset;
+  private final int length;
+
 }
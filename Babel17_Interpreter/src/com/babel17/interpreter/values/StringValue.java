@@ -1,5 +1,7 @@
 package com.babel17.interpreter.values;
 
+import com.babel17.interpreter.runtime.Evaluator;
+
 public final class StringValue extends Value {
 
   public static StringValue fromString(String s) {
@@ -10,6 +12,22 @@ public final class StringValue extends Value {
     this.value = s;
   }
 
+  public String value() {
+    return value;
+  }
+
+  public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
+    x = x.force();
+    if (x instanceof StringValue)
+      return value.compareTo(((StringValue) x).value) <= 0;
+    else
+      return false;
+  }
+
+  public String toString() {
+    return "\"" + value + "\"";
+  }
+
   private String value;
 
 }
@@ -28,6 +28,10 @@ public abstract class Value {
 
   public final static String ITERATE = "iterate";
 
+  public final static String SPLIT_VECTOR = "vector";
+  public final static String SPLIT_LIST = "list";
+  public final static String SPLIT_CONS = "cons";
+
   // split implies a forcing
   // a return of null means that this value cannot be split
   public Value split(Evaluator e, String message, int num_pieces) {
@@ -41,7 +45,7 @@ public abstract class Value {
 
   // implies forcing
   public EvalResult apply(Evaluator e, Continuation c, Value v)  {
-    return EvalResult.createFinalResult(DynamicException.invalidOperator(this));
+    return c.apply(DynamicException.invalidOperator(this));
   }
 
   // implies forcing
@@ -61,8 +65,9 @@ public abstract class Value {
     return result;
   }
 
+  // values without an order, like functions, are related to no value, not even to themselves
   public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
-    throw new RuntimeException("no <= comparison implemented");
+    return false;
   }
 
 }
@@ -0,0 +1,67 @@
+package com.babel17.interpreter.values;
+
+import java.util.*;
+
+// The order on values which is used to store the elements of sets and the keys
+// of maps. Comparing two values which are unrelated with respect to <= throws
+// Unrelated, which carries the dynamic exception of the comparison.
+final class ValueOrder implements Comparator<Value> {
+
+  public final static ValueOrder INSTANCE = new ValueOrder();
+
+  private ValueOrder() {
+  }
+
+  static final class Unrelated extends RuntimeException {
+
+    Unrelated(DynamicException e) {
+      super(null, null, false, false);
+      this.e = e;
+    }
+
+    DynamicException exception() {
+      return e;
+    }
+
+    private final DynamicException e;
+
+    private static final long serialVersionUID = 1L;
+
+  }
+
+  public int compare(Value a, Value b) {
+    a = a.force();
+    b = b.force();
+    int c;
+    try {
+      c = a.compareWithOtherValue(null, b);
+    } catch (CompareException e) {
+      throw new Unrelated(e.exception());
+    }
+    switch (c) {
+      case 1: return -1;
+      case 2: return 1;
+      case 3: return 0;
+      default: throw new Unrelated(DynamicException.unrelated());
+    }
+  }
+
+  // sorts the first count elements of a and removes duplicates, the last one wins
+  static Value[] sortUnique(Value[] a, int count, Comparator<Value> order) {
+    Value[] s = new Value[count];
+    System.arraycopy(a, 0, s, 0, count);
+    Arrays.sort(s, order);
+    int n = 0;
+    for (int i = 0; i < count; i++) {
+      if (n > 0 && order.compare(s[n-1], s[i]) == 0)
+        s[n-1] = s[i];
+      else
+        s[n++] = s[i];
+    }
+    if (n == count) return s;
+    Value[] u = new Value[n];
+    System.arraycopy(s, 0, u, 0, n);
+    return u;
+  }
+
+}
@@ -1,7 +1,86 @@
 package com.babel17.interpreter.values;
 
+import com.babel17.interpreter.runtime.Evaluator;
+import java.util.*;
+
 public final class VectorValue extends SequenceValue {
 
-  public final static VectorValue EMPTY = new VectorValue();
+  public final static VectorValue EMPTY = new VectorValue(new Value[0], 0, 0);
+
+  public static VectorValue fromArray(Value[] values) {
+    if (values.length == 0) return EMPTY;
+    return new VectorValue(values.clone(), 0, values.length);
+  }
+
+  public static VectorValue pair(Value a, Value b) {
+    return new VectorValue(new Value[] {a, b}, 0, 2);
+  }
+
+  static VectorValue fromList(List<Value> values, int count) {
+    if (count == 0) return EMPTY;
+    Value[] a = new Value[count];
+    for (int i = 0; i < count; i++) a[i] = values.get(i);
+    return new VectorValue(a, 0, count);
+  }
+
+  private VectorValue(Value[] values, int offset, int length) {
+    this.values = values;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public boolean isEmpty() {
+    return length == 0;
+  }
+
+  public int size() {
+    return length;
+  }
+
+  public Value getValueAt(int index) {
+    return values[offset + index];
+  }
+
+  public Value split(Evaluator e, String message, int num_pieces) {
+    if (message.equals(SPLIT_VECTOR) && length == num_pieces) return this;
+    return super.split(e, message, num_pieces);
+  }
+
+  public Value sendMessage(String message) {
+    if (message.equals(ITERATE)) {
+      if (length == 0) return EMPTY;
+      return pair(values[offset], new VectorValue(values, offset + 1, length - 1));
+    } else if (message.equals(COLLECTOR_ADD) || message.equals(COLLECTOR_CLOSE)) {
+      return new Collector(Collector.KIND_VECTOR, toArray()).sendMessage(message);
+    } else
+      return super.sendMessage(message);
+  }
+
+  public boolean lessThanOrEqualOtherValue(Evaluator e, Value x) throws CompareException {
+    x = x.force();
+    if (!(x instanceof VectorValue)) return false;
+    VectorValue v = (VectorValue) x;
+    return lessThanOrEqual(values, offset, length, v.values, v.offset, v.length);
+  }
+
+  public Value[] toArray() {
+    Value[] a = new Value[length];
+    System.arraycopy(values, offset, a, 0, length);
+    return a;
+  }
+
+  public String toString() {
+    StringBuilder b = new StringBuilder("(");
+    for (int i = 0; i < length; i++) {
+      if (i > 0) b.append(",");
+      b.append(values[offset + i]);
+    }
+    if (length == 1) b.append(",");
+    return b.append(")").toString();
+  }
+
+  private final Value[] values;
+  private final int offset;
+  private final int length;
 
 }
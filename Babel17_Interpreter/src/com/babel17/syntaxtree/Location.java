@@ -2,7 +2,7 @@ package com.babel17.syntaxtree;
 
 import java.util.Comparator;
 
-public final class Location {
+public final class Location implements java.io.Serializable {
 
   public static class CascadingComparator implements Comparator<Location> {
     public int compare(Location a, Location b) {
@@ -2,24 +2,28 @@ package com.babel17.syntaxtree;
 
 import java.util.*;
 
+/**
+ * An immutable list of nodes. The nodes are kept in an array, a list is a slice of it,
+ * so length, get and tail take constant time. Lists that are built element by element
+ * should be collected in a java.util.List first and then turned into a NodeList as a whole;
+ * cons copies the list.
+ */
 public class NodeList implements Iterable<Node> {
-  
-  private NodeList next;
-  private Node node;
-
-  private static class Iter implements Iterator<Node> {
-    NodeList list;
-    Iter(NodeList list) {
-      this.list = list;
-    }
+
+  private static final Node[] NO_NODES = new Node[0];
+
+  private final Node[] nodes;
+  private final int start;
+  private final int end;
+
+  private class Iter implements Iterator<Node> {
+    int i = start;
     public boolean hasNext() {
-      return !list.empty();
+      return i < end;
     }
     public Node next() {
-      if (list.empty()) throw new NoSuchElementException();
-      Node n = list.head();
-      list = list.tail();
-      return n;
+      if (i >= end) throw new NoSuchElementException();
+      return nodes[i++];
     }
     public void remove() {
       throw new UnsupportedOperationException();
@@ -27,60 +31,69 @@ public class NodeList implements Iterable<Node> {
   }
 
   public NodeList() {
-    next = null;
-    node = null;
+    this(NO_NODES, 0, 0);
+  }
+
+  public NodeList(List<? extends Node> nodes) {
+    this(nodes.toArray(new Node[nodes.size()]), 0, nodes.size());
+    for (Node n : this.nodes)
+      if (n == null) throw new IllegalArgumentException();
+  }
+
+  private NodeList(Node[] nodes, int start, int end) {
+    this.nodes = nodes;
+    this.start = start;
+    this.end = end;
   }
 
   public Node head() {
-    if (node == null) throw new RuntimeException("empty list has no head");
-    return node;
+    if (start == end) throw new RuntimeException("empty list has no head");
+    return nodes[start];
   }
 
   public int length() {
-    if (next == null) return 0;
-    else return next.length()+1;
+    return end - start;
   }
 
   public Node get(int index) {
-    if (index <= 0) {
-      if (node != null) return node;
-      else throw new RuntimeException("index is out of bounds");
-    } else
-      return next.get(index-1);
+    if (index < 0 || index >= end - start) throw new RuntimeException("index is out of bounds");
+    return nodes[start + index];
   }
 
   public NodeList tail() {
-    if (node == null) throw new RuntimeException("empty list has no tail");
-    return next;
+    if (start == end) throw new RuntimeException("empty list has no tail");
+    return new NodeList(nodes, start + 1, end);
   }
 
   public boolean empty() {
-    return node == null;
+    return start == end;
   }
 
   public NodeList cons(Node node) {
     if (node == null) throw new IllegalArgumentException();
-    NodeList l = new NodeList();
-    l.node = node;
-    l.next = this;
-    return l;
+    Node[] a = new Node[end - start + 1];
+    a[0] = node;
+    System.arraycopy(nodes, start, a, 1, end - start);
+    return new NodeList(a, 0, a.length);
   }
 
   public NodeList append(NodeList l) {
-    for (Node n : this.reverse()) {
-      l = l.cons(n);
-    }
-    return l;
+    if (l.empty()) return this;
+    if (empty()) return l;
+    Node[] a = new Node[length() + l.length()];
+    System.arraycopy(nodes, start, a, 0, length());
+    System.arraycopy(l.nodes, l.start, a, length(), l.length());
+    return new NodeList(a, 0, a.length);
   }
 
   public NodeList reverse() {
-    NodeList l = new NodeList();
-    for (Node n : this) l = l.cons(n);
-    return l;
+    Node[] a = new Node[end - start];
+    for (int i = 0; i < a.length; i++) a[i] = nodes[end - 1 - i];
+    return new NodeList(a, 0, a.length);
   }
 
   public Iterator<Node> iterator() {
-    return new Iter(this);
+    return new Iter();
   }
 
   public Location location() {
@@ -106,10 +119,10 @@ public class NodeList implements Iterable<Node> {
   }
 
   public String toString() {
-      String s = "";
+      StringBuilder s = new StringBuilder();
       for (Node n : this) {
-        s = s + n;
-        s = s + ",";
+        s.append(n);
+        s.append(",");
       }
       return "NodeList("+s+")";
   }
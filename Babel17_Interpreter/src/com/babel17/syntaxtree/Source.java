@@ -2,7 +2,7 @@ package com.babel17.syntaxtree;
 
 import java.io.File;
 
-public class Source implements Comparable<Source> {
+public class Source implements Comparable<Source>, java.io.Serializable {
 
     public final static Source system = new Source("");
 
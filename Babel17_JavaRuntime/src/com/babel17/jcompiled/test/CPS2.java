@@ -40,7 +40,7 @@ public class CPS2 {
             if (n == 0) return c.apply(false);
             else return even(n-1, c);
         } catch (StackOverflowError x) {
-            return new Unwind() {
+            throw new Unwind() {
                 public Object compute() {
                     return odd(n, c);
                 }
@@ -2,6 +2,8 @@ package com.babel17.jcompiled.test;
 
 public class CPS3 {
 
+    public static int maxDepth = 100;
+
     public static class Thunk {
         final Object r;
         final boolean isDelayed;
@@ -31,7 +33,7 @@ public class CPS3 {
     }
 
     public static Thunk even(final int n, final Continuation c, final int depth) {
-        if (depth >= 100) {
+        if (depth >= maxDepth) {
             return new Thunk() {
                 public Thunk compute() {
                     return even(n, c, 0);
@@ -43,7 +45,7 @@ public class CPS3 {
     }
 
     public static Thunk odd(final int n, final Continuation c, final int depth) {
-        if (depth >= 100) {
+        if (depth >= maxDepth) {
             return new Thunk() {
                 public Thunk compute() {
                     return odd(n, c, 0);
@@ -0,0 +1,63 @@
+package com.babel17.jcompiled.test;
+
+/**
+ * Compares the stack-safe mutual recursion of CPS (catching StackOverflowError),
+ * CPS2 (unwinding with an exception) and CPS3 (counting the depth before
+ * returning a Thunk) on even/odd. CPS3 is run with several maximal depths;
+ * depth 1 means that every call bounces through the trampoline.
+ *
+ * Usage: CallStrategies [n [repetitions]], by default n = 10^8.
+ */
+public class CallStrategies {
+
+    static abstract class Run {
+        final String name;
+        Run(String name) {
+            this.name = name;
+        }
+        abstract Object run(int n);
+    }
+
+    static void measure(Run r, int n, int repetitions) {
+        r.run(n / 100);
+        long best = Long.MAX_VALUE;
+        Object result = null;
+        for (int i = 0; i < repetitions; i++) {
+            long time1 = System.currentTimeMillis();
+            result = r.run(n);
+            long time2 = System.currentTimeMillis();
+            if (time2 - time1 < best) best = time2 - time1;
+        }
+        System.out.println(r.name+": time = "+best+", result = "+result);
+    }
+
+    public static void main(String args[]) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        measure(new Run("CPS") {
+            Object run(int n) {
+                return CPS.even(n, new CPS.Continuation()).force();
+            }
+        }, n, repetitions);
+        measure(new Run("CPS2") {
+            Object run(final int n) {
+                CPS2.Unwind w = new CPS2.Unwind() {
+                    public Object compute() {
+                        return CPS2.even(n, new CPS2.Continuation());
+                    }
+                };
+                return w.force();
+            }
+        }, n, repetitions);
+        int[] depths = {1, 10, 100, 1000};
+        for (final int depth : depths) {
+            measure(new Run("CPS3, depth "+depth) {
+                Object run(int n) {
+                    CPS3.maxDepth = depth;
+                    return CPS3.even(n, new CPS3.Continuation(), 0).force();
+                }
+            }, n, repetitions);
+        }
+    }
+
+}
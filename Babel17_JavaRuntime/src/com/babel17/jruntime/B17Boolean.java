@@ -1,4 +1,39 @@
 package com.babel17.jruntime;
 
-public abstract class B17Boolean extends B17Value {
+public final class B17Boolean extends B17Value {
+
+    public final static B17Boolean TRUE = new B17Boolean(true);
+    public final static B17Boolean FALSE = new B17Boolean(false);
+
+    private final boolean value;
+
+    private B17Boolean(boolean value) {
+        this.value = value;
+    }
+
+    public static B17Boolean make(boolean b) {
+        return b ? TRUE : FALSE;
+    }
+
+    public static boolean isTrue(B17Value v) {
+        return v == TRUE;
+    }
+
+    public int compareTo(B17Value v) {
+        if (!(v instanceof B17Boolean)) return COMPARE_UNRELATED;
+        boolean w = ((B17Boolean) v).value;
+        if (value == w) return COMPARE_EQUAL;
+        return value ? COMPARE_GREATER : COMPARE_LESS;
+    }
+
+    public static B17Value not(B17Value v) {
+        if (v == TRUE) return FALSE;
+        if (v == FALSE) return TRUE;
+        return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+    }
+
+    public String stringDescr(boolean brackets) {
+        return value ? "true" : "false";
+    }
+
 }
@@ -18,4 +18,27 @@ public class B17CExpr extends B17Value {
         return new B17CExpr(constructor.toUpperCase(), B17Object.nil);
     }
 
+    // constructor must already be in upper case
+    public static boolean matches(B17Value v, String constructor) {
+        return v instanceof B17CExpr && ((B17CExpr) v).constructor.equals(constructor);
+    }
+
+    public B17Value param() {
+        return param;
+    }
+
+    public int compareTo(B17Value v) {
+        if (!(v instanceof B17CExpr)) return COMPARE_UNRELATED;
+        B17CExpr w = (B17CExpr) v;
+        int c = constructor.compareTo(w.constructor);
+        if (c < 0) return COMPARE_LESS;
+        if (c > 0) return COMPARE_GREATER;
+        return param.compareTo(w.param);
+    }
+
+    public String stringDescr(boolean brackets) {
+        if (param == B17Object.nil) return constructor;
+        return mkBrackets(brackets, constructor + " " + param.stringDescr(true));
+    }
+
 }
@@ -0,0 +1,93 @@
+package com.babel17.jruntime;
+
+import java.math.BigInteger;
+
+// Vectors, lists, sets and maps. They answer the collection messages which the naive
+// interpreter implements natively, with the same results.
+public abstract class B17Collection extends B17Value {
+
+    public abstract int size();
+
+    // the i-th element, 0 <= i < size()
+    abstract B17Value at(int i);
+
+    // the position of the element which is equal to v, or -1
+    abstract int indexOf(B17Value v);
+
+    // the collection of the first n elements, 0 <= n <= size()
+    abstract B17Value take(int n);
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private static B17Value domainError() {
+        return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+    }
+
+    // n clamped to [-1, Integer.MAX_VALUE], so that big integers keep their meaning
+    private static int clamp(BigInteger n) {
+        if (n.signum() < 0) return -1;
+        return n.bitLength() < 32 ? n.intValue() : Integer.MAX_VALUE;
+    }
+
+    // the element at index v, or DOMAINERROR
+    B17Value atIndex(B17Value v) {
+        if (!(v instanceof B17Integer)) return domainError();
+        int i = clamp(((B17Integer) v).value());
+        if (i < 0 || i >= size()) return domainError();
+        return at(i);
+    }
+
+    public B17Value send(Message m) {
+        String s = m.get();
+        if (s.equals("size")) return B17Integer.make(size());
+        if (s.equals("isempty")) return B17Boolean.make(isEmpty());
+        if (s.equals("head")) return isEmpty() ? domainError() : at(0);
+        if (s.equals("tail")) return isEmpty() ? domainError() : drop(1);
+        if (s.equals("contains")) {
+            return new B17NativeFunction() {
+                public B17Value compute(B17Value v) {
+                    return B17Boolean.make(indexOf(v) >= 0);
+                }
+            };
+        }
+        if (s.equals("indexof")) {
+            return new B17NativeFunction() {
+                public B17Value compute(B17Value v) {
+                    return B17Integer.make(indexOf(v));
+                }
+            };
+        }
+        if (s.equals("atindex")) {
+            return new B17NativeFunction() {
+                public B17Value compute(B17Value v) {
+                    return atIndex(v);
+                }
+            };
+        }
+        if (s.equals("take")) {
+            return new B17NativeFunction() {
+                public B17Value compute(B17Value v) {
+                    if (!(v instanceof B17Integer))
+                        return B17DynamicException.make(B17DynamicException.UNRELATED);
+                    return take(Math.max(0, Math.min(clamp(((B17Integer) v).value()), size())));
+                }
+            };
+        }
+        if (s.equals("drop")) {
+            return new B17NativeFunction() {
+                public B17Value compute(B17Value v) {
+                    if (!(v instanceof B17Integer))
+                        return B17DynamicException.make(B17DynamicException.UNRELATED);
+                    int n = clamp(((B17Integer) v).value());
+                    if (n <= 0) return B17Collection.this;
+                    if (n > size()) return domainError();
+                    return B17Collection.this.drop(n);
+                }
+            };
+        }
+        return super.send(m);
+    }
+
+}
@@ -1,9 +1,14 @@
 package com.babel17.jruntime;
 
+// A dynamic exception propagates through message sends and applications.
 public class B17DynamicException extends B17Value {
 
     public final static String APPLYERROR = "APPLYERROR";
     public final static String INVALIDMESSAGE = "INVALIDMESSAGE";
+    public final static String DOMAINERROR = "DOMAINERROR";
+    public final static String UNRELATED = "UNRELATED";
+    public final static String NOMATCH = "NOMATCH";
+    public final static String INVALIDITERATOR = "INVALIDITERATOR";
 
     private final B17Value param;
 
@@ -11,6 +16,11 @@ public class B17DynamicException extends B17Value {
         this.param = param;
     }
 
+    // the exception which "exception param" raises
+    public static B17DynamicException make(B17Value param) {
+        return new B17DynamicException(param);
+    }
+
     public static B17DynamicException make(String exceptionName) {
         return new B17DynamicException(B17CExpr.make(exceptionName));
     }
@@ -19,5 +29,20 @@ public class B17DynamicException extends B17Value {
         return new B17DynamicException(B17CExpr.make(exceptionName, param));
     }
 
+    public B17Value param() {
+        return param;
+    }
+
+    public B17Value send(Message m) {
+        return this;
+    }
+
+    public Thunk apply(B17Value v, Continuation c, int depth) {
+        return c.apply(this, depth);
+    }
+
+    public String stringDescr(boolean brackets) {
+        return param.stringDescr(brackets);
+    }
 
 }
@@ -2,6 +2,15 @@ package com.babel17.jruntime;
 
 public abstract class B17Function extends B17Value {
 
-    public abstract B17Value apply(B17Value v, Continuation c);
+    public abstract Thunk apply(B17Value v, Continuation c, int depth);
+
+    // functions are related to no value, not even to themselves
+    public int compareTo(B17Value v) {
+        return COMPARE_UNRELATED;
+    }
+
+    public String stringDescr(boolean brackets) {
+        return "_function";
+    }
 
 }
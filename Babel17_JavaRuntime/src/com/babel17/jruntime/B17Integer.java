@@ -1,4 +1,118 @@
 package com.babel17.jruntime;
 
-public abstract class B17Integer extends B17Value {
+import java.math.BigInteger;
+
+public final class B17Integer extends B17Value {
+
+    private final BigInteger value;
+
+    private B17Integer(BigInteger value) {
+        this.value = value;
+    }
+
+    public static B17Integer make(long l) {
+        return new B17Integer(BigInteger.valueOf(l));
+    }
+
+    public static B17Integer make(String s) {
+        return new B17Integer(new BigInteger(s));
+    }
+
+    public BigInteger value() {
+        return value;
+    }
+
+    private final static int PLUS = 0;
+    private final static int MINUS = 1;
+    private final static int TIMES = 2;
+    private final static int DIV = 3;
+    private final static int MOD = 4;
+    private final static int POW = 5;
+    private final static int TO = 6;
+    private final static int DOWNTO = 7;
+
+    private static B17Value domainError() {
+        return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+    }
+
+    // euclidean division: the remainder is never negative
+    private static BigInteger[] euclid(BigInteger D, BigInteger d) {
+        BigInteger[] qr = D.divideAndRemainder(d);
+        if (qr[1].signum() < 0) {
+            if (d.signum() > 0) {
+                qr[0] = qr[0].subtract(BigInteger.ONE);
+                qr[1] = qr[1].add(d);
+            } else {
+                qr[0] = qr[0].add(BigInteger.ONE);
+                qr[1] = qr[1].subtract(d);
+            }
+        }
+        return qr;
+    }
+
+    private static B17List range(BigInteger from, BigInteger to, int step) {
+        B17List list = B17List.EMPTY;
+        BigInteger delta = BigInteger.valueOf(step);
+        if (from.compareTo(to) * step > 0) return list;
+        for (BigInteger i = to; ; i = i.subtract(delta)) {
+            list = B17List.cons(new B17Integer(i), list);
+            if (i.equals(from)) return list;
+        }
+    }
+
+    private B17Value operator(final int op) {
+        return new B17NativeFunction() {
+            public B17Value compute(B17Value v) {
+                if (!(v instanceof B17Integer)) return domainError();
+                BigInteger w = ((B17Integer) v).value;
+                switch (op) {
+                    case PLUS: return new B17Integer(value.add(w));
+                    case MINUS: return new B17Integer(value.subtract(w));
+                    case TIMES: return new B17Integer(value.multiply(w));
+                    case DIV:
+                        if (w.signum() == 0) return domainError();
+                        return new B17Integer(euclid(value, w)[0]);
+                    case MOD:
+                        if (w.signum() == 0) return domainError();
+                        return new B17Integer(euclid(value, w)[1]);
+                    case POW:
+                        if (w.signum() < 0 || (value.signum() == 0 && w.signum() == 0))
+                            return domainError();
+                        if (w.bitLength() > 31) {
+                            if (value.abs().equals(BigInteger.ONE))
+                                return new B17Integer(value.pow(w.testBit(0) ? 1 : 2));
+                            return domainError();
+                        }
+                        return new B17Integer(value.pow(w.intValue()));
+                    case TO: return range(value, w, 1);
+                    default: return range(value, w, -1);
+                }
+            }
+        };
+    }
+
+    public B17Value send(Message m) {
+        String s = m.get();
+        if (s.equals("plus_")) return operator(PLUS);
+        if (s.equals("minus_")) return operator(MINUS);
+        if (s.equals("times_")) return operator(TIMES);
+        if (s.equals("div_")) return operator(DIV);
+        if (s.equals("mod_")) return operator(MOD);
+        if (s.equals("pow_")) return operator(POW);
+        if (s.equals("to_")) return operator(TO);
+        if (s.equals("downto_")) return operator(DOWNTO);
+        if (s.equals("uminus_")) return new B17Integer(value.negate());
+        return super.send(m);
+    }
+
+    public int compareTo(B17Value v) {
+        if (!(v instanceof B17Integer)) return COMPARE_UNRELATED;
+        int c = value.compareTo(((B17Integer) v).value);
+        return c < 0 ? COMPARE_LESS : (c > 0 ? COMPARE_GREATER : COMPARE_EQUAL);
+    }
+
+    public String stringDescr(boolean brackets) {
+        return value.toString();
+    }
+
 }
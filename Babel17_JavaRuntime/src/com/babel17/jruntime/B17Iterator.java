@@ -0,0 +1,39 @@
+package com.babel17.jruntime;
+
+// An immutable cursor over the elements of a collection, the result of
+// B17Value.iterate. Compiled for-loops pass it from one iteration to the next.
+public abstract class B17Iterator extends B17Value {
+
+    public abstract boolean isEmpty();
+    public abstract B17Value head();
+    public abstract B17Iterator tail();
+
+    static B17Iterator make(B17Value[] elements, int index) {
+        return new ArrayIterator(elements, index);
+    }
+
+    private final static class ArrayIterator extends B17Iterator {
+
+        private final B17Value[] elements;
+        private final int index;
+
+        ArrayIterator(B17Value[] elements, int index) {
+            this.elements = elements;
+            this.index = index;
+        }
+
+        public boolean isEmpty() {
+            return index >= elements.length;
+        }
+
+        public B17Value head() {
+            return elements[index];
+        }
+
+        public B17Iterator tail() {
+            return new ArrayIterator(elements, index + 1);
+        }
+
+    }
+
+}
@@ -1,4 +1,162 @@
 package com.babel17.jruntime;
 
-public abstract class B17List extends B17Value {
+import java.util.ArrayList;
+
+public final class B17List extends B17Collection {
+
+    public final static B17List EMPTY = new B17List(null, null);
+
+    private final B17Value head;
+    private final B17List tail;
+
+    private B17List(B17Value head, B17List tail) {
+        this.head = head;
+        this.tail = tail;
+    }
+
+    public static B17List make(B17Value... elements) {
+        B17List list = EMPTY;
+        for (int i = elements.length - 1; i >= 0; i--)
+            list = new B17List(elements[i], list);
+        return list;
+    }
+
+    // a tail which is not a list is treated as a list with a single element
+    public static B17List cons(B17Value head, B17Value tail) {
+        if (tail instanceof B17List) return new B17List(head, (B17List) tail);
+        return new B17List(head, new B17List(tail, EMPTY));
+    }
+
+    // does v denote a list with exactly (or at least, if exact is false) size elements?
+    public static boolean matches(B17Value v, int size, boolean exact) {
+        if (!(v instanceof B17List)) return false;
+        B17List list = (B17List) v;
+        for (int i = 0; i < size; i++) {
+            if (list == EMPTY) return false;
+            list = list.tail;
+        }
+        return !exact || list == EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    public int size() {
+        int n = 0;
+        for (B17List list = this; list != EMPTY; list = list.tail) n++;
+        return n;
+    }
+
+    B17Value at(int i) {
+        return elementAt(i);
+    }
+
+    int indexOf(B17Value v) {
+        int i = 0;
+        for (B17List list = this; list != EMPTY; list = list.tail, i++)
+            if (isEqual(list.head, v)) return i;
+        return -1;
+    }
+
+    B17Value take(int n) {
+        B17Value[] first = new B17Value[n];
+        B17List list = this;
+        for (int i = 0; i < n; i++, list = list.tail) first[i] = list.head;
+        return make(first);
+    }
+
+    public Thunk apply(B17Value v, Continuation c, int depth) {
+        return c.apply(atIndex(v), depth);
+    }
+
+    public B17Value head() {
+        return head;
+    }
+
+    public B17List tail() {
+        return tail;
+    }
+
+    public B17Value elementAt(int i) {
+        B17List list = this;
+        for (; i > 0 && list != EMPTY; i--) list = list.tail;
+        if (list == EMPTY) return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+        return list.head;
+    }
+
+    public B17Value drop(int i) {
+        B17List list = this;
+        for (; i > 0 && list != EMPTY; i--) list = list.tail;
+        return list;
+    }
+
+    public B17Value iterate() {
+        return new ListIterator(this);
+    }
+
+    public Collector collector() {
+        return new ListCollector(this);
+    }
+
+    public int compareTo(B17Value v) {
+        if (!(v instanceof B17List)) return COMPARE_UNRELATED;
+        B17List a = this;
+        B17List b = (B17List) v;
+        while (a != EMPTY && b != EMPTY) {
+            int c = a.head.compareTo(b.head);
+            if (c != COMPARE_EQUAL) return c;
+            a = a.tail;
+            b = b.tail;
+        }
+        if (a == b) return COMPARE_EQUAL;
+        return a == EMPTY ? COMPARE_LESS : COMPARE_GREATER;
+    }
+
+    public String stringDescr(boolean brackets) {
+        if (this == EMPTY) return "[]";
+        return mkBrackets(brackets, head.stringDescr(true) + "::" + tail.stringDescr(true));
+    }
+
+    private final static class ListIterator extends B17Iterator {
+
+        private final B17List list;
+
+        ListIterator(B17List list) {
+            this.list = list;
+        }
+
+        public boolean isEmpty() {
+            return list == EMPTY;
+        }
+
+        public B17Value head() {
+            return list.head;
+        }
+
+        public B17Iterator tail() {
+            return new ListIterator(list.tail);
+        }
+
+    }
+
+    private final static class ListCollector implements Collector {
+
+        private final ArrayList<B17Value> values = new ArrayList<B17Value>();
+
+        ListCollector(B17List list) {
+            for (; list != EMPTY; list = list.tail) values.add(list.head);
+        }
+
+        public B17DynamicException add(B17Value value) {
+            values.add(value);
+            return null;
+        }
+
+        public B17Value close() {
+            return make(values.toArray(new B17Value[values.size()]));
+        }
+
+    }
+
 }
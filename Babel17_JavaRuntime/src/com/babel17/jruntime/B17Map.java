@@ -1,4 +1,142 @@
 package com.babel17.jruntime;
 
-public abstract class B17Map extends B17Value {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+public final class B17Map extends B17Collection {
+
+    public final static B17Map EMPTY = new B17Map(new B17Value[0], new B17Value[0]);
+
+    // keys are sorted and unique, values[i] belongs to keys[i]
+    private final B17Value[] keys;
+    private final B17Value[] values;
+
+    private B17Map(B17Value[] keys, B17Value[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    // keysAndValues alternates keys and values; a later key replaces an earlier one.
+    // Returns a map, or the dynamic exception UNRELATED if two keys are unrelated.
+    public static B17Value make(B17Value... keysAndValues) {
+        TreeMap<B17Value, B17Value> sorted = B17Set.newTreeMap();
+        try {
+            for (int i = 0; i + 1 < keysAndValues.length; i += 2)
+                sorted.put(keysAndValues[i], keysAndValues[i + 1]);
+        } catch (B17Set.UnrelatedException e) {
+            return B17DynamicException.make(B17DynamicException.UNRELATED);
+        }
+        int n = sorted.size();
+        return new B17Map(sorted.keySet().toArray(new B17Value[n]),
+                sorted.values().toArray(new B17Value[n]));
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    // the (key, value) pair at index i
+    B17Value at(int i) {
+        return B17Vector.make(keys[i], values[i]);
+    }
+
+    // v is found if it is a (key, value) pair of the map
+    int indexOf(B17Value v) {
+        if (!B17Vector.matches(v, 2, true)) return -1;
+        B17Vector pair = (B17Vector) v;
+        int i = B17Set.search(keys, pair.get(0));
+        return i >= 0 && isEqual(values[i], pair.get(1)) ? i : -1;
+    }
+
+    B17Value take(int n) {
+        return new B17Map(Arrays.copyOfRange(keys, 0, n), Arrays.copyOfRange(values, 0, n));
+    }
+
+    public B17Value drop(int i) {
+        int n = Math.min(i, keys.length);
+        return new B17Map(Arrays.copyOfRange(keys, n, keys.length),
+                Arrays.copyOfRange(values, n, values.length));
+    }
+
+    // the value of the key v, or DOMAINERROR
+    public Thunk apply(B17Value v, Continuation c, int depth) {
+        int i = B17Set.search(keys, v);
+        if (i < 0) return c.apply(B17DynamicException.make(B17DynamicException.DOMAINERROR), depth);
+        return c.apply(values[i], depth);
+    }
+
+    public B17Value send(Message m) {
+        if (m.get().equals("containskey")) {
+            return new B17NativeFunction() {
+                public B17Value compute(B17Value v) {
+                    return B17Boolean.make(B17Set.search(keys, v) >= 0);
+                }
+            };
+        }
+        return super.send(m);
+    }
+
+    // iterates over the (key, value) pairs of the map
+    public B17Value iterate() {
+        B17Value[] pairs = new B17Value[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            pairs[i] = B17Vector.make(keys[i], values[i]);
+        return B17Iterator.make(pairs, 0);
+    }
+
+    public Collector collector() {
+        return new MapCollector(this);
+    }
+
+    public int compareTo(B17Value v) {
+        if (!(v instanceof B17Map)) return COMPARE_UNRELATED;
+        B17Map m = (B17Map) v;
+        if (keys.length != m.keys.length)
+            return keys.length < m.keys.length ? COMPARE_LESS : COMPARE_GREATER;
+        int c = B17Set.compareArrays(keys, m.keys);
+        if (c != COMPARE_EQUAL) return c;
+        return B17Set.compareArrays(values, m.values);
+    }
+
+    public String stringDescr(boolean brackets) {
+        StringBuilder s = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) s.append(',');
+            s.append(keys[i].stringDescr(false)).append("->").append(values[i].stringDescr(false));
+        }
+        return s.append('}').toString();
+    }
+
+    // collects (key, value) pairs
+    private final static class MapCollector implements Collector {
+
+        private final ArrayList<B17Value> keysAndValues = new ArrayList<B17Value>();
+        private B17DynamicException error = null;
+
+        MapCollector(B17Map map) {
+            for (int i = 0; i < map.keys.length; i++) {
+                keysAndValues.add(map.keys[i]);
+                keysAndValues.add(map.values[i]);
+            }
+        }
+
+        public B17DynamicException add(B17Value value) {
+            if (B17Vector.matches(value, 2, true)) {
+                B17Vector pair = (B17Vector) value;
+                keysAndValues.add(pair.get(0));
+                keysAndValues.add(pair.get(1));
+                return null;
+            }
+            if (error == null) error = B17DynamicException.make(B17DynamicException.DOMAINERROR);
+            return error;
+        }
+
+        public B17Value close() {
+            if (error != null) return error;
+            return make(keysAndValues.toArray(new B17Value[keysAndValues.size()]));
+        }
+
+    }
+
 }
@@ -0,0 +1,13 @@
+package com.babel17.jruntime;
+
+// A function which computes its result without calling other Babel-17 code.
+public abstract class B17NativeFunction extends B17Function {
+
+    public abstract B17Value compute(B17Value v);
+
+    public Thunk apply(B17Value v, Continuation c, int depth) {
+        if (v instanceof B17DynamicException) return c.apply(v, depth);
+        return c.apply(compute(v), depth);
+    }
+
+}
@@ -4,4 +4,8 @@ public class B17Object extends B17Value {
 
     public final static B17Object nil = new B17Object();
 
+    public String stringDescr(boolean brackets) {
+        return this == nil ? "nil" : "_object";
+    }
+
 }
@@ -1,4 +1,133 @@
 package com.babel17.jruntime;
 
-public abstract class B17Set extends B17Value {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeMap;
+
+public final class B17Set extends B17Collection {
+
+    public final static B17Set EMPTY = new B17Set(new B17Value[0]);
+
+    // sorted, without duplicates
+    private final B17Value[] elements;
+
+    private B17Set(B17Value[] elements) {
+        this.elements = elements;
+    }
+
+    // returns a set, or the dynamic exception UNRELATED if two elements are unrelated
+    public static B17Value make(B17Value... elements) {
+        TreeMap<B17Value, B17Value> sorted = newTreeMap();
+        try {
+            for (B17Value v : elements) sorted.put(v, v);
+        } catch (UnrelatedException e) {
+            return B17DynamicException.make(B17DynamicException.UNRELATED);
+        }
+        return new B17Set(sorted.keySet().toArray(new B17Value[sorted.size()]));
+    }
+
+    final static class UnrelatedException extends RuntimeException {
+    }
+
+    private final static Comparator<B17Value> ORDER = new Comparator<B17Value>() {
+        public int compare(B17Value a, B17Value b) {
+            int c = a.compareTo(b);
+            if (c == COMPARE_UNRELATED) throw new UnrelatedException();
+            return c;
+        }
+    };
+
+    // a TreeMap whose comparator throws UnrelatedException for unrelated keys
+    static TreeMap<B17Value, B17Value> newTreeMap() {
+        return new TreeMap<B17Value, B17Value>(ORDER);
+    }
+
+    // lexicographic comparison of two sorted arrays of the same length
+    static int compareArrays(B17Value[] a, B17Value[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int c = a[i].compareTo(b[i]);
+            if (c != COMPARE_EQUAL) return c;
+        }
+        return COMPARE_EQUAL;
+    }
+
+    public int size() {
+        return elements.length;
+    }
+
+    // the position of v in a sorted array, or -1; unrelated values are not found
+    static int search(B17Value[] sorted, B17Value v) {
+        try {
+            int i = Arrays.binarySearch(sorted, v, ORDER);
+            return i < 0 ? -1 : i;
+        } catch (UnrelatedException e) {
+            return -1;
+        }
+    }
+
+    B17Value at(int i) {
+        return elements[i];
+    }
+
+    int indexOf(B17Value v) {
+        return search(elements, v);
+    }
+
+    B17Value take(int n) {
+        return new B17Set(Arrays.copyOfRange(elements, 0, n));
+    }
+
+    public B17Value drop(int i) {
+        return new B17Set(Arrays.copyOfRange(elements, Math.min(i, elements.length), elements.length));
+    }
+
+    public Thunk apply(B17Value v, Continuation c, int depth) {
+        return c.apply(B17Boolean.make(indexOf(v) >= 0), depth);
+    }
+
+    public B17Value iterate() {
+        return B17Iterator.make(elements, 0);
+    }
+
+    public Collector collector() {
+        return new SetCollector(this);
+    }
+
+    public int compareTo(B17Value v) {
+        if (!(v instanceof B17Set)) return COMPARE_UNRELATED;
+        B17Value[] w = ((B17Set) v).elements;
+        if (elements.length != w.length)
+            return elements.length < w.length ? COMPARE_LESS : COMPARE_GREATER;
+        return compareArrays(elements, w);
+    }
+
+    public String stringDescr(boolean brackets) {
+        StringBuilder s = new StringBuilder("{");
+        for (int i = 0; i < elements.length; i++) {
+            if (i > 0) s.append(',');
+            s.append(elements[i].stringDescr(false));
+        }
+        return s.append('}').toString();
+    }
+
+    private final static class SetCollector implements Collector {
+
+        private final ArrayList<B17Value> values = new ArrayList<B17Value>();
+
+        SetCollector(B17Set set) {
+            for (B17Value v : set.elements) values.add(v);
+        }
+
+        public B17DynamicException add(B17Value value) {
+            values.add(value);
+            return null;
+        }
+
+        public B17Value close() {
+            return make(values.toArray(new B17Value[values.size()]));
+        }
+
+    }
+
 }
@@ -8,4 +8,59 @@ public final class B17String extends B17Value {
         this.value = value;
     }
 
+    public static B17String make(String value) {
+        return new B17String(value);
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public B17Value send(Message m) {
+        if (m.get().equals("plus_")) {
+            return new B17NativeFunction() {
+                public B17Value compute(B17Value v) {
+                    if (!(v instanceof B17String))
+                        return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+                    return new B17String(value + ((B17String) v).value);
+                }
+            };
+        }
+        return super.send(m);
+    }
+
+    // iterates over the code points of the string
+    public B17Value iterate() {
+        B17Value[] chars = new B17Value[value.codePointCount(0, value.length())];
+        int i = 0;
+        int k = 0;
+        while (i < value.length()) {
+            int count = Character.charCount(value.codePointAt(i));
+            chars[k++] = new B17String(value.substring(i, i + count));
+            i += count;
+        }
+        return B17Iterator.make(chars, 0);
+    }
+
+    public int compareTo(B17Value v) {
+        if (!(v instanceof B17String)) return COMPARE_UNRELATED;
+        int c = value.compareTo(((B17String) v).value);
+        return c < 0 ? COMPARE_LESS : (c > 0 ? COMPARE_GREATER : COMPARE_EQUAL);
+    }
+
+    public String stringDescr(boolean brackets) {
+        StringBuilder s = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': s.append("\\\\"); break;
+                case '"': s.append("\\\""); break;
+                case '\n': s.append("\\n"); break;
+                case '\r': s.append("\\r"); break;
+                default: s.append(c);
+            }
+        }
+        return s.append('"').toString();
+    }
+
 }
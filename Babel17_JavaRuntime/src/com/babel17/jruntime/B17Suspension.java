@@ -2,6 +2,6 @@ package com.babel17.jruntime;
 
 public abstract class B17Suspension extends B17Value {
 
-    public abstract B17Value apply(Continuation c);
+    public abstract Thunk apply(Continuation c, int depth);
 
 }
@@ -1,17 +1,99 @@
 package com.babel17.jruntime;
 
 public class B17Value {
+
+    public final static int COMPARE_LESS = -1;
+    public final static int COMPARE_EQUAL = 0;
+    public final static int COMPARE_GREATER = 1;
+    public final static int COMPARE_UNRELATED = 2;
+
+    // the naive interpreter might answer messages the runtime does not know via its system
+    // library, so they abort the program
     public B17Value send(Message m) {
-        return B17DynamicException.make(B17DynamicException.INVALIDMESSAGE,
-                new B17String(m.get()));
+        throw new Unsupported("the message '" + m.get() + "' of " + getClass().getSimpleName());
+    }
+    public Thunk apply(B17Value v, Continuation c, int depth) {
+        return c.apply(B17DynamicException.make(B17DynamicException.APPLYERROR), depth);
+    }
+    public Thunk sendApply(Message m, B17Value v, Continuation c, int depth) {
+        return send(m).apply(v, c, depth);
+    }
+    public Thunk force(Continuation continuation, int depth) {
+        return continuation.apply(this, depth);
+    }
+    // returns COMPARE_LESS, COMPARE_EQUAL, COMPARE_GREATER or COMPARE_UNRELATED
+    public int compareTo(B17Value v) {
+        return this == v ? COMPARE_EQUAL : COMPARE_UNRELATED;
+    }
+    // returns a B17Iterator over the elements of this value, or a dynamic exception
+    public B17Value iterate() {
+        return B17DynamicException.make(B17DynamicException.INVALIDITERATOR);
+    }
+    // the collector of "with this : ..."; it starts with the elements of this value
+    public Collector collector() {
+        return new InvalidCollector();
+    }
+    // the i-th element and the elements after the i-th element of a vector or list
+    public B17Value elementAt(int i) {
+        return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+    }
+    public B17Value drop(int i) {
+        return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+    }
+    // the same format as the naive interpreter; brackets are needed when the
+    // value is part of a constructor or cons expression
+    public String stringDescr(boolean brackets) {
+        return "_value";
     }
-    public B17Value apply(B17Value v, Continuation c) {
-        return B17DynamicException.make(B17DynamicException.APPLYERROR);
+    public String toString() {
+        return stringDescr(false);
     }
-    public B17Value sendApply(Message m, B17Value v, Continuation c) {
-        return send(m).apply(v, c);
+
+    static String mkBrackets(boolean brackets, String s) {
+        return brackets ? "(" + s + ")" : s;
+    }
+
+    private static B17Value compare(B17Value a, B17Value b, boolean lt, boolean eq, boolean gt) {
+        if (a instanceof B17DynamicException) return a;
+        if (b instanceof B17DynamicException) return b;
+        switch (a.compareTo(b)) {
+            case COMPARE_LESS: return B17Boolean.make(lt);
+            case COMPARE_EQUAL: return B17Boolean.make(eq);
+            case COMPARE_GREATER: return B17Boolean.make(gt);
+            default:
+                if (lt == gt) return B17Boolean.make(lt);
+                return B17DynamicException.make(B17DynamicException.UNRELATED);
+        }
+    }
+    public static B17Value equal(B17Value a, B17Value b) {
+        return compare(a, b, false, true, false);
+    }
+    public static B17Value unequal(B17Value a, B17Value b) {
+        return compare(a, b, true, false, true);
+    }
+    public static B17Value less(B17Value a, B17Value b) {
+        return compare(a, b, true, false, false);
     }
-    public B17Value force(Continuation continuation) {
-        return continuation.apply(this);
+    public static B17Value lessEq(B17Value a, B17Value b) {
+        return compare(a, b, true, true, false);
+    }
+    public static B17Value greater(B17Value a, B17Value b) {
+        return compare(a, b, false, false, true);
+    }
+    public static B17Value greaterEq(B17Value a, B17Value b) {
+        return compare(a, b, false, true, true);
+    }
+    // used by pattern matching, never fails
+    public static boolean isEqual(B17Value a, B17Value b) {
+        return a.compareTo(b) == COMPARE_EQUAL;
+    }
+
+    private final static class InvalidCollector implements Collector {
+        public B17DynamicException add(B17Value value) {
+            return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+        }
+        public B17Value close() {
+            return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+        }
     }
 }
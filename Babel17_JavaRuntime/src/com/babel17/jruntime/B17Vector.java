@@ -1,4 +1,116 @@
 package com.babel17.jruntime;
 
-public abstract class B17Vector extends B17Value {
+import java.util.ArrayList;
+
+public final class B17Vector extends B17Collection {
+
+    public final static B17Vector EMPTY = new B17Vector(new B17Value[0]);
+
+    private final B17Value[] elements;
+
+    private B17Vector(B17Value[] elements) {
+        this.elements = elements;
+    }
+
+    public static B17Vector make(B17Value... elements) {
+        return new B17Vector(elements.clone());
+    }
+
+    // does v denote a vector with exactly (or at least, if exact is false) size elements?
+    public static boolean matches(B17Value v, int size, boolean exact) {
+        if (!(v instanceof B17Vector)) return false;
+        int n = ((B17Vector) v).elements.length;
+        return exact ? n == size : n >= size;
+    }
+
+    public int size() {
+        return elements.length;
+    }
+
+    public B17Value get(int i) {
+        return elements[i];
+    }
+
+    B17Value at(int i) {
+        return elements[i];
+    }
+
+    int indexOf(B17Value v) {
+        for (int i = 0; i < elements.length; i++)
+            if (isEqual(elements[i], v)) return i;
+        return -1;
+    }
+
+    B17Value take(int n) {
+        B17Value[] first = new B17Value[n];
+        System.arraycopy(elements, 0, first, 0, n);
+        return new B17Vector(first);
+    }
+
+    public Thunk apply(B17Value v, Continuation c, int depth) {
+        return c.apply(atIndex(v), depth);
+    }
+
+    public B17Value elementAt(int i) {
+        if (i < 0 || i >= elements.length)
+            return B17DynamicException.make(B17DynamicException.DOMAINERROR);
+        return elements[i];
+    }
+
+    public B17Value drop(int i) {
+        if (i >= elements.length) return EMPTY;
+        B17Value[] rest = new B17Value[elements.length - i];
+        System.arraycopy(elements, i, rest, 0, rest.length);
+        return new B17Vector(rest);
+    }
+
+    public B17Value iterate() {
+        return B17Iterator.make(elements, 0);
+    }
+
+    public Collector collector() {
+        return new VectorCollector(this);
+    }
+
+    public int compareTo(B17Value v) {
+        if (!(v instanceof B17Vector)) return COMPARE_UNRELATED;
+        B17Value[] w = ((B17Vector) v).elements;
+        for (int i = 0; i < elements.length; i++) {
+            if (i >= w.length) return COMPARE_GREATER;
+            int c = elements[i].compareTo(w[i]);
+            if (c != COMPARE_EQUAL) return c;
+        }
+        return elements.length == w.length ? COMPARE_EQUAL : COMPARE_LESS;
+    }
+
+    public String stringDescr(boolean brackets) {
+        if (elements.length == 0) return "()";
+        if (elements.length == 1) return "(" + elements[0].stringDescr(false) + ",)";
+        StringBuilder s = new StringBuilder("(");
+        for (int i = 0; i < elements.length; i++) {
+            if (i > 0) s.append(',');
+            s.append(elements[i].stringDescr(false));
+        }
+        return s.append(')').toString();
+    }
+
+    private final static class VectorCollector implements Collector {
+
+        private final ArrayList<B17Value> values = new ArrayList<B17Value>();
+
+        VectorCollector(B17Vector vector) {
+            for (B17Value v : vector.elements) values.add(v);
+        }
+
+        public B17DynamicException add(B17Value value) {
+            values.add(value);
+            return null;
+        }
+
+        public B17Value close() {
+            return new B17Vector(values.toArray(new B17Value[values.size()]));
+        }
+
+    }
+
 }
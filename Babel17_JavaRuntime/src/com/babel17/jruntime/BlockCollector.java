@@ -0,0 +1,24 @@
+package com.babel17.jruntime;
+
+import java.util.ArrayList;
+
+// Collects the values yielded by a block: no value yields nil, a single value
+// yields that value, and several values yield a vector.
+public final class BlockCollector implements Collector {
+
+    private final ArrayList<B17Value> values = new ArrayList<B17Value>();
+
+    public B17DynamicException add(B17Value value) {
+        values.add(value);
+        return null;
+    }
+
+    public B17Value close() {
+        switch (values.size()) {
+            case 0: return B17Object.nil;
+            case 1: return values.get(0);
+            default: return B17Vector.make(values.toArray(new B17Value[values.size()]));
+        }
+    }
+
+}
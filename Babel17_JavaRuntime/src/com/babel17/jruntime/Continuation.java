@@ -2,5 +2,6 @@ package com.babel17.jruntime;
 
 public interface Continuation {
 
-    public B17Value apply(B17Value value);
+    // depth counts the direct calls since the last bounce through a Thunk
+    public Thunk apply(B17Value value, int depth);
 }
@@ -0,0 +1,14 @@
+package com.babel17.jruntime;
+
+// Thrown when a compiled program needs something the runtime does not implement, for
+// example a message which the naive interpreter answers via its system library. The
+// program is aborted instead of computing a value the interpreter would not compute.
+public final class Unsupported extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public Unsupported(String reason) {
+        super(reason);
+    }
+
+}
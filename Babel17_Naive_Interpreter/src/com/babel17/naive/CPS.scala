@@ -41,6 +41,29 @@ object CPS {
   case class PrimException(param : PrimExp) extends PrimExp
   case class PrimNot(pexp : PrimExp) extends PrimExp
   case class PrimCompare(a : PrimExp, b : PrimExp, op : Program.CompareOp) extends PrimExp
+  // the dynamic exception with the given constructor
+  case class PrimError(constr : String) extends PrimExp
+
+  // tests, they never evaluate to a dynamic exception
+  case class PrimIsException(pexp : PrimExp) extends PrimExp
+  case class PrimIsEqual(a : PrimExp, b : PrimExp) extends PrimExp
+  // exact is false if the vector / list may have more than size elements
+  case class PrimIsVector(pexp : PrimExp, size : Int, exact : Boolean) extends PrimExp
+  case class PrimIsList(pexp : PrimExp, size : Int, exact : Boolean) extends PrimExp
+  case class PrimIsConstr(pexp : PrimExp, constr : String) extends PrimExp
+
+  // destructuring of values which have passed the corresponding test
+  case class PrimElementAt(pexp : PrimExp, index : Int) extends PrimExp
+  case class PrimDrop(pexp : PrimExp, index : Int) extends PrimExp
+  case class PrimDestruct(pexp : PrimExp) extends PrimExp
+  // the value of a dynamic exception
+  case class PrimExceptionParam(pexp : PrimExp) extends PrimExp
+
+  // iterators are immutable cursors which are passed from one loop iteration to the next
+  case class PrimIterate(coll : PrimExp) extends PrimExp
+  case class PrimIterEmpty(it : PrimExp) extends PrimExp
+  case class PrimIterHead(it : PrimExp) extends PrimExp
+  case class PrimIterTail(it : PrimExp) extends PrimExp
 
   case class Defs(Def : List[Def], cexp : ContExp) extends ContExp
   case class Suspension(id : Var, memotype : Program.MemoType,
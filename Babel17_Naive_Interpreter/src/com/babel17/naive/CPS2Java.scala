@@ -1,50 +1,335 @@
 package com.babel17.naive
 
-class CPS2Java {
+import scala.collection.immutable.SortedMap
+import scala.collection.immutable.SortedSet
+
+object CPS2Java {
+
+  /* How the generated code calls functions and continuations. Every generated
+   * function, suspension and continuation takes the number of directly nested
+   * calls as its last argument "depth" and returns a com.babel17.jruntime.Thunk.
+   */
+  abstract class CallStrategy
+  // plain Java calls; deep recursion overflows the Java stack
+  case class DirectCalls extends CallStrategy
+  // every call returns to the trampoline in Thunk.force before it is executed
+  case class Trampoline extends CallStrategy
+  // calls are direct until maxDepth calls are nested, then the next call
+  // bounces through a Thunk and starts again at depth 0
+  case class DepthCounted(maxDepth : Int) extends CallStrategy
+
+  val defaultCallStrategy : CallStrategy = DepthCounted(100)
+
+  // parses "direct", "trampoline" or "depth:N"
+  def parseCallStrategy(s : String) : Option[CallStrategy] = {
+    if (s == "direct") Some(DirectCalls())
+    else if (s == "trampoline") Some(Trampoline())
+    else if (s.startsWith("depth:")) {
+      try {
+        val n = s.substring(6).toInt
+        if (n > 0) Some(DepthCounted(n)) else None
+      } catch {
+        case e : NumberFormatException => None
+      }
+    } else None
+  }
+
+}
+
+class CPS2Java(strategy : CPS2Java.CallStrategy) {
+
+  import CPS2Java._
+
+  def this() = this(CPS2Java.defaultCallStrategy)
 
   case class Unsupported(reason : String) extends Exception
 
-  def genC(printer : Printer, s : String) {
-    printer.space()
-    printer.print(s)
-    printer.space()
+  // variables which denote a Continuation
+  private var continuations : SortedSet[String] = SortedSet()
+  // variables which denote a B17Suspension
+  private var suspensions : SortedSet[String] = SortedSet()
+  // every continuation is generated as a method;
+  // maps it to the prefix which is needed to call it
+  private var jumps : SortedMap[String, String] = SortedMap()
+  private var messages : SortedSet[String] = SortedSet()
+  private var defsCounter : Int = 0
+
+  def messageField(m : String) : String = {
+    messages = messages + m
+    "m_" + m.replaceAll("[^A-Za-z0-9_]", "_")
+  }
+
+  def genString(s : String) : String = {
+    val b = new StringBuilder("\"")
+    for (c <- s) {
+      c match {
+        case '\\' => b.append("\\\\")
+        case '"' => b.append("\\\"")
+        case '\n' => b.append("\\n")
+        case '\r' => b.append("\\r")
+        case '\t' => b.append("\\t")
+        case c =>
+          if (c >= ' ' && c < 127) b.append(c)
+          else b.append("\\" + "u%04x".format(c.toInt))
+      }
+    }
+    b.append("\"")
+    b.toString
   }
 
-  def genVar(printer : Printer, v : CPS.Var) {
-    genC(printer, v.name)
+  def genExprs(pexps : List[CPS.PrimExp]) : String = pexps.map(genExpr _).mkString(", ")
+
+  // the Java boolean expression for a condition
+  def genCondition(pexp : CPS.PrimExp) : String = {
+    pexp match {
+      case CPS.PrimIsException(p) => genExpr(p)+" instanceof B17DynamicException"
+      case CPS.PrimIsEqual(a, b) => "B17Value.isEqual("+genExpr(a)+", "+genExpr(b)+")"
+      case CPS.PrimIsVector(p, size, exact) => "B17Vector.matches("+genExpr(p)+", "+size+", "+exact+")"
+      case CPS.PrimIsList(p, size, exact) => "B17List.matches("+genExpr(p)+", "+size+", "+exact+")"
+      case CPS.PrimIsConstr(p, c) => "B17CExpr.matches("+genExpr(p)+", "+genString(c)+")"
+      case CPS.PrimIterEmpty(it) => "((B17Iterator) "+genExpr(it)+").isEmpty()"
+      case _ => "B17Boolean.isTrue("+genExpr(pexp)+")"
+    }
   }
 
-  def genExpr(printer : Printer, pexp : CPS.PrimExp) {
+  def genExpr(pexp : CPS.PrimExp) : String = {
     pexp match {
-      case CPS.PrimVar(v) => genVar(printer,v)
-      case CPS.PrimBool(b) => genC(printer, if (b) "true" else "false")
-      case CPS.PrimInt(i) => genC(printer, if (i >= 0) ""+i else "("+i+")")
+      case CPS.PrimVar(v) => v.name
+      case CPS.PrimBool(b) => if (b) "B17Boolean.TRUE" else "B17Boolean.FALSE"
+      case CPS.PrimInt(i) =>
+        if (i.bitLength < 64) "B17Integer.make("+i+"L)"
+        else "B17Integer.make(\""+i+"\")"
+      case CPS.PrimString(s) => "B17String.make("+genString(s)+")"
+      case CPS.PrimCompare(a, b, op) =>
+        val f = op match {
+          case Program.EQUAL() => "equal"
+          case Program.UNEQUAL() => "unequal"
+          case Program.LESS() => "less"
+          case Program.LESS_EQ() => "lessEq"
+          case Program.GREATER() => "greater"
+          case Program.GREATER_EQ() => "greaterEq"
+        }
+        "B17Value."+f+"("+genExpr(a)+", "+genExpr(b)+")"
+      case CPS.PrimObject(List(), None) => "B17Object.nil"
+      case CPS.PrimConstr(c, p) => "B17CExpr.make("+genString(c)+", "+genExpr(p)+")"
+      case CPS.PrimVector(elems) => "B17Vector.make("+genExprs(elems)+")"
+      case CPS.PrimList(elems) => "B17List.make("+genExprs(elems)+")"
+      case CPS.PrimSet(elems) => "B17Set.make("+genExprs(elems)+")"
+      case CPS.PrimMap(elems) =>
+        "B17Map.make("+genExprs(elems.flatMap(kv => List(kv._1, kv._2)))+")"
+      case CPS.PrimCons(h, t) => "B17List.cons("+genExpr(h)+", "+genExpr(t)+")"
+      case CPS.PrimNot(p) => "B17Boolean.not("+genExpr(p)+")"
+      case CPS.PrimError(c) => "B17DynamicException.make("+genString(c)+")"
+      case CPS.PrimException(p) => "B17DynamicException.make("+genExpr(p)+")"
+      case CPS.PrimElementAt(p, i) => genExpr(p)+".elementAt("+i+")"
+      case CPS.PrimDrop(p, i) => genExpr(p)+".drop("+i+")"
+      case CPS.PrimDestruct(p) => "((B17CExpr) "+genExpr(p)+").param()"
+      case CPS.PrimExceptionParam(p) => "((B17DynamicException) "+genExpr(p)+").param()"
+      case CPS.PrimIterate(p) => genExpr(p)+".iterate()"
+      case CPS.PrimIterHead(it) => "((B17Iterator) "+genExpr(it)+").head()"
+      case CPS.PrimIterTail(it) => "((B17Iterator) "+genExpr(it)+").tail()"
+      case CPS.PrimIsException(_) | CPS.PrimIsEqual(_, _) | CPS.PrimIsVector(_, _, _) |
+           CPS.PrimIsList(_, _, _) | CPS.PrimIsConstr(_, _) | CPS.PrimIterEmpty(_) =>
+        "B17Boolean.make("+genCondition(pexp)+")"
       case _ =>
         throw new Unsupported("cannot generate expr for: "+pexp)
     }
+  }
 
+  def depthArg : String = {
+    strategy match {
+      case DirectCalls() => "depth"
+      case _ => "depth + 1"
+    }
+  }
+
+  // restart is the call which continues the computation at depth 0
+  def genEntryCheck(printer : Printer, restart : String) {
+    val maxDepth = strategy match {
+      case DirectCalls() => return
+      case Trampoline() => 1
+      case DepthCounted(n) => n
+    }
+    printer.println("if (depth >= "+maxDepth+") return new Thunk() {")
+    printer.addIndent
+    printer.println("protected Thunk compute() { return "+restart+"; }")
+    printer.subIndent
+    printer.println("};")
+  }
+
+  def genReturn(printer : Printer, call : String) {
+    printer.println("return "+call+";")
+  }
+
+  def genApply(printer : Printer, f : CPS.PrimExp, m : Option[CPS.Message],
+               args : List[CPS.PrimExp])
+  {
+    val as = args.map(genExpr _)
+    m match {
+      case Some(CPS.Message(m)) =>
+        val mf = messageField(m)
+        as match {
+          case List(g, k) =>
+            genReturn(printer, genExpr(f)+".sendApply("+mf+", "+g+", "+k+", "+depthArg+")")
+          case List(k) =>
+            genReturn(printer, k+".apply("+genExpr(f)+".send("+mf+"), "+depthArg+")")
+          case _ =>
+            throw new Unsupported("cannot generate message send: "+f+"."+m+as)
+        }
+      case None =>
+        val call = f match {
+          case CPS.PrimVar(v) if jumps.contains(v.name) =>
+            jumps(v.name)+v.name+"("+(as ++ List(depthArg)).mkString(", ")+")"
+          case CPS.PrimVar(v) if continuations.contains(v.name) && as.length == 1 =>
+            v.name+".apply("+as(0)+", "+depthArg+")"
+          case CPS.PrimVar(v) if suspensions.contains(v.name) && as.length == 1 =>
+            v.name+".apply("+as(0)+", "+depthArg+")"
+          case _ if as.length == 2 =>
+            genExpr(f)+".apply("+as(0)+", "+as(1)+", "+depthArg+")"
+          case _ =>
+            throw new Unsupported("cannot generate application: "+f+as)
+        }
+        genReturn(printer, call)
+    }
+  }
+
+  def genDefs(printer : Printer, defs : List[CPS.Def]) {
+    defsCounter = defsCounter + 1
+    val className = "Defs"+defsCounter
+    val instance = "defs"+defsCounter
+    var aliases : List[(String, String)] = List()
+    for (d <- defs) {
+      d match {
+        case CPS.Suspension(id, _, _, _) => suspensions = suspensions + id.name
+        case CPS.Continuation(id, args, _) =>
+          jumps = jumps + (id.name -> "")
+          if (args.length == 1) continuations = continuations + id.name
+        case _ =>
+      }
+    }
+    printer.println("final class "+className+" {")
+    printer.addIndent
+    for (d <- defs) {
+      d match {
+        case CPS.Function(id, _, arg, k, body) =>
+          continuations = continuations + k.name
+          aliases = ("B17Function", id.name) :: aliases
+          printer.println("final B17Function "+id+" = new B17Function() {")
+          printer.addIndent
+          printer.println("public Thunk apply(final B17Value "+arg+", final Continuation "+k+", final int depth) {")
+          printer.addIndent
+          genEntryCheck(printer, "apply("+arg+", "+k+", 0)")
+          genBody(printer, body)
+          printer.subIndent
+          printer.println("}")
+          printer.subIndent
+          printer.println("};")
+        case CPS.Suspension(id, _, k, body) =>
+          continuations = continuations + k.name
+          aliases = ("B17Suspension", id.name) :: aliases
+          printer.println("final B17Suspension "+id+" = new B17Suspension() {")
+          printer.addIndent
+          printer.println("public Thunk apply(final Continuation "+k+", final int depth) {")
+          printer.addIndent
+          genEntryCheck(printer, "apply("+k+", 0)")
+          genBody(printer, body)
+          printer.subIndent
+          printer.println("}")
+          printer.subIndent
+          printer.println("};")
+        case CPS.Continuation(id, args, body) =>
+          val params = args.map(a => "final B17Value "+a) ++ List("final int depth")
+          printer.println("Thunk "+id+"("+params.mkString(", ")+") {")
+          printer.addIndent
+          genEntryCheck(printer, id+"("+(args.map(_.name) ++ List("0")).mkString(", ")+")")
+          genBody(printer, body)
+          printer.subIndent
+          printer.println("}")
+          if (args.length == 1) {
+            aliases = ("Continuation", id.name) :: aliases
+            printer.println("final Continuation "+id+" = new Continuation() {")
+            printer.addIndent
+            printer.println("public Thunk apply(final B17Value x, final int depth) { return "+id+"(x, depth); }")
+            printer.subIndent
+            printer.println("};")
+          }
+      }
+    }
+    printer.subIndent
+    printer.println("}")
+    printer.println("final "+className+" "+instance+" = new "+className+"();")
+    for ((ty, id) <- aliases.reverse)
+      printer.println("final "+ty+" "+id+" = "+instance+"."+id+";")
+    for (d <- defs) {
+      d match {
+        case CPS.Continuation(id, _, _) => jumps = jumps + (id.name -> (instance+"."))
+        case _ =>
+      }
+    }
   }
 
   def genBody(printer : Printer, cexp : CPS.ContExp) {
     cexp match {
+      case p : CPS.PrimExp =>
+        genReturn(printer, "new Thunk("+genExpr(p)+")")
       case CPS.Val(v, exp, cont) =>
-        printer.print("final B17Value ")
-        genVar(printer, v)
-        printer.print(" = ")
-        genExpr(printer,exp)
-        printer.print(";")
-        printer.break
+        printer.println("final B17Value "+v+" = "+genExpr(exp)+";")
         genBody(printer, cont)
       case CPS.Defs(defs, cont) =>
-        for (d <- defs) {
-
-        }
-        printer.break
+        genDefs(printer, defs)
+        genBody(printer, cont)
+      case CPS.Apply(f, m, args) =>
+        genApply(printer, f, m, args)
+      case CPS.If(cond, yes, no) =>
+        printer.println("if ("+genCondition(cond)+") {")
+        printer.addIndent
+        genBody(printer, yes)
+        printer.subIndent
+        printer.println("} else {")
+        printer.addIndent
+        genBody(printer, no)
+        printer.subIndent
+        printer.println("}")
+      case CPS.WithBegin(None, coll, cont) =>
+        printer.println("final Collector "+coll+" = new BlockCollector();")
+        genBody(printer, cont)
+      case CPS.WithBegin(Some(c), coll, cont) =>
+        printer.println("final Collector "+coll+" = "+genExpr(c)+".collector();")
+        genBody(printer, cont)
+      case CPS.WithEnd(coll, closed, cont) =>
+        printer.println("final B17Value "+closed+" = "+coll+".close();")
+        genBody(printer, cont)
+      case CPS.Yield(coll, p, cont) =>
+        printer.println(coll+".add("+genExpr(p)+");")
         genBody(printer, cont)
       case _ =>
         throw new Unsupported("cannot generate body for: "+cexp)
-
     }
   }
 
-}
\ No newline at end of file
+  // generates a class with a static method run() which evaluates cexp
+  def genClass(printer : Printer, className : String, cexp : CPS.ContExp) {
+    printer.println("import com.babel17.jruntime.*;")
+    printer.println("")
+    printer.println("public final class "+className+" {")
+    printer.println("")
+    printer.addIndent
+    printer.println("public static B17Value run() {")
+    printer.addIndent
+    printer.println("return program(0).force();")
+    printer.subIndent
+    printer.println("}")
+    printer.println("")
+    printer.println("private static Thunk program(final int depth) {")
+    printer.addIndent
+    genBody(printer, cexp)
+    printer.subIndent
+    printer.println("}")
+    printer.println("")
+    for (m <- messages)
+      printer.println("private final static Message "+messageField(m)+" = Message.make(\""+m+"\");")
+    printer.subIndent
+    printer.println("}")
+  }
+
+}
@@ -0,0 +1,690 @@
+package com.babel17.naive
+
+import Program._
+import Values._
+import Evaluator._
+
+/* The closure-compilation tier of the evaluator. It is not a compiler to JVM bytecode:
+ * this tree has no bytecode library, so the branches of a hot function are compiled into a
+ * tree of code objects, closures which the JIT of the JVM inlines well. Each closure counts
+ * its invocations on the function expression it was created from, separately for each
+ * evaluator. Once that function is hot, its branches are compiled. The tree resolves
+ * patterns, identifiers and the shape of the body once, so the evaluator does not dispatch
+ * on the AST for each call. Arithmetic and comparisons on small integers run on unboxed
+ * longs, see Code.evalSmall. Everything the compiler does not know is evaluated by the
+ * evaluator as before. */
+object ClosureCompiler {
+
+  val THRESHOLD = 100
+
+  // the integer messages which have a fast path on small integers, besides
+  // IntegerValue.OP_PLUS, OP_MINUS and OP_TIMES
+  val OP_DIV = 3
+  val OP_MOD = 4
+
+  def integerOp(message : String) : Int = {
+    message match {
+      case MESSAGE_DIV => OP_DIV
+      case MESSAGE_MOD => OP_MOD
+      case m => IntegerValue.arithmeticOp(m)
+    }
+  }
+
+  private val HALF : Long = 1L << 31
+
+  // a value which Code.evalSmall computed, but which is not a small integer
+  final class NotSmall(val value : Value) extends Throwable with scala.util.control.ControlThrowable
+
+  // the invocations of a function by one evaluator, and its compiled code once it is hot
+  class Tier(val evaluator : Evaluator) {
+    val invocations = new java.util.concurrent.atomic.AtomicInteger(0)
+    @volatile var compiled : ClosureCompiler#CompiledFunction = null
+  }
+
+  private final class FunctionKey(val fun : SEFun) {
+    override def equals(o : Any) : Boolean = {
+      o match {
+        case k : FunctionKey => k.fun eq fun
+        case _ => false
+      }
+    }
+    override def hashCode : Int = System.identityHashCode(fun)
+  }
+
+  // the tiers of the functions an evaluator has called
+  class Tiers(evaluator : Evaluator) {
+    private val tiers = new java.util.concurrent.ConcurrentHashMap[FunctionKey, Tier]()
+    def get(fun : SEFun) : Tier = {
+      val key = new FunctionKey(fun)
+      val t = tiers.get(key)
+      if (t != null) return t
+      val newTier = new Tier(evaluator)
+      val old = tiers.putIfAbsent(key, newTier)
+      if (old != null) old else newTier
+    }
+  }
+
+  /* The function keeps the tier of the evaluator which called it last, further evaluators
+   * find theirs in Evaluator.closureTiers. The thread whose call makes the function hot
+   * compiles it; other threads go on with the evaluator until the code is there. */
+  def compiled(evaluator : Evaluator, fun : SEFun) : ClosureCompiler#CompiledFunction = {
+    var t = fun.tier
+    if (t == null || (t.evaluator ne evaluator)) {
+      t = evaluator.closureTiers.get(fun)
+      fun.tier = t
+    }
+    val c = t.compiled
+    if (c != null) return c
+    if (t.invocations.incrementAndGet() != THRESHOLD) return null
+    val f = new ClosureCompiler(evaluator).compileFunction(fun.branches)
+    t.compiled = f
+    f
+  }
+
+  def statementTrace(st : Statement) : StackTraceElement = {
+    if (st.stackTraceElement != null) st.stackTraceElement
+    else StackTraceElement(st.location, "statement")
+  }
+
+}
+
+class ClosureCompiler(val evaluator : Evaluator) {
+
+  import ClosureCompiler._
+
+  class CompiledBranch(val pattern : PatternCode, val body : ExpressionCode, val ty : Type)
+
+  class CompiledFunction(branches : Array[CompiledBranch]) {
+    def evaluator : Evaluator = ClosureCompiler.this.evaluator
+    def apply(env : SimpleEnvironment, v : Value) : Value = {
+      evaluator.checkCancel()
+      val e = env.thaw
+      var i = 0
+      while (i < branches.length) {
+        val b = branches(i)
+        b.pattern.matches(e, v) match {
+          case NoMatch() =>
+          case MatchX(x) => return x
+          case DoesMatch(newEnv) =>
+            return convertType(b.body.run(newEnv), b.ty)
+        }
+        i = i + 1
+      }
+      domainError()
+    }
+  }
+
+  def compileFunction(branches : List[(Pattern, Expression, Type)]) : CompiledFunction = {
+    new CompiledFunction(branches.map(b =>
+      new CompiledBranch(compilePattern(b._1), compileExpression(b._2), b._3)).toArray)
+  }
+
+  // patterns
+
+  abstract class PatternCode {
+    def matches(env : Environment, v : Value) : MatchResult
+  }
+
+  class PIdCode(slot : Int) extends PatternCode {
+    def matches(env : Environment, v : Value) : MatchResult = {
+      if (v.isDynamicException) NoMatch()
+      else DoesMatch(env.bind(slot, v))
+    }
+  }
+
+  class PAnyCode extends PatternCode {
+    def matches(env : Environment, v : Value) : MatchResult = {
+      if (v.isDynamicException) NoMatch()
+      else DoesMatch(env)
+    }
+  }
+
+  class PIntCode(i : IntegerValue) extends PatternCode {
+    def matches(env : Environment, v : Value) : MatchResult = {
+      v match {
+        case j : IntegerValue => return if (i == j) DoesMatch(env) else NoMatch()
+        case _ =>
+      }
+      if (v.isDynamicException) return NoMatch()
+      v.typeConvert(true, TYPE_INT) match {
+        case j : IntegerValue =>
+          if (i == j) DoesMatch(env)
+          else NoMatch()
+        case _ => NoMatch()
+      }
+    }
+  }
+
+  class PatternFallback(pat : Pattern) extends PatternCode {
+    def matches(env : Environment, v : Value) : MatchResult = {
+      evaluator.matchPattern(env, pat, v, false)
+    }
+  }
+
+  def compilePattern(pat : Pattern) : PatternCode = {
+    pat match {
+      case p : PId => new PIdCode(p.slot)
+      case PAny() => new PAnyCode()
+      case PInt(i) => new PIntCode(IntegerValue(i))
+      case _ => new PatternFallback(pat)
+    }
+  }
+
+  // expressions
+
+  abstract class ExpressionCode {
+    def run(env : Environment) : Value
+  }
+
+  class ESimpleCode(se : Code) extends ExpressionCode {
+    def run(env : Environment) : Value = se.eval(env.freeze())
+  }
+
+  class EBlockCode(block : BlockCode) extends ExpressionCode {
+    def run(env : Environment) : Value = {
+      block.run(env, new DefaultCollector()).collect_close()
+    }
+  }
+
+  class ExpressionFallback(expr : Expression) extends ExpressionCode {
+    def run(env : Environment) : Value = evaluator.evalExpression(env, expr)
+  }
+
+  def compileExpression(expr : Expression) : ExpressionCode = {
+    expr match {
+      case ESimple(se) => new ESimpleCode(compileSE(se))
+      case EBlock(block) =>
+        compileValueBlock(block) match {
+          case Some(code) => code
+          case None => new EBlockCode(compileBlock(block))
+        }
+      case _ => new ExpressionFallback(expr)
+    }
+  }
+
+  // Blocks which end in a single yield on every path, possibly after some plain value
+  // definitions, deliver the yielded value directly instead of going through a collector.
+
+  class ValueBlockCode(vals : List[(Int, ExpressionCode, StackTraceElement)],
+                       result : ExpressionCode) extends ExpressionCode {
+    def run(env : Environment) : Value = {
+      var l = vals
+      while (!l.isEmpty) {
+        val (slot, expr, ste) = l.head
+        val v = expr.run(env)
+        if (v.isDynamicException) {
+          val x = v.asDynamicException
+          x.addToStackTrace(ste)
+          return x
+        }
+        env.bind(slot, v)
+        l = l.tail
+      }
+      result.run(env)
+    }
+  }
+
+  class YieldValueCode(expr : ExpressionCode, ste : StackTraceElement) extends ExpressionCode {
+    def run(env : Environment) : Value = {
+      val v = expr.run(env)
+      if (v.isDynamicException) {
+        val x = v.asDynamicException
+        x.addToStackTrace(ste)
+        x
+      } else v
+    }
+  }
+
+  class IfValueCode(cond : Code, yes : ExpressionCode, no : ExpressionCode,
+                    ste : StackTraceElement) extends ExpressionCode {
+    def run(env : Environment) : Value = {
+      val x = cond.eval(env.freeze) match {
+        case x : ExceptionValue => x.asDynamicException()
+        case BooleanValue(b) =>
+          val v = if (b) yes.run(env) else no.run(env)
+          if (v.isDynamicException) v.asDynamicException
+          else return v
+        case _ => domainError()
+      }
+      x.addToStackTrace(ste)
+      x
+    }
+  }
+
+  def compileValueBlock(block : Block) : Option[ExpressionCode] = {
+    var vals : List[(Int, ExpressionCode, StackTraceElement)] = List()
+    var statements = block.statements
+    while (!statements.isEmpty && !statements.tail.isEmpty) {
+      statements.head match {
+        case st @ SVal(p : PId, e) =>
+          vals = (p.slot, compileExpression(e), statementTrace(st)) :: vals
+        case _ => return None
+      }
+      statements = statements.tail
+    }
+    val result = statements match {
+      case List(st @ SYield(e)) =>
+        new YieldValueCode(compileExpression(e), statementTrace(st))
+      case List(st @ SIf(cond, yes, no)) =>
+        (compileValueBlock(yes), compileValueBlock(no)) match {
+          case (Some(y), Some(n)) => new IfValueCode(compileSE(cond), y, n, statementTrace(st))
+          case _ => return None
+        }
+      case _ => return None
+    }
+    if (vals.isEmpty) Some(result)
+    else Some(new ValueBlockCode(vals.reverse, result))
+  }
+
+  // statements
+
+  class BlockCode(statements : List[StatementCode]) {
+    def run(env : Environment, coll : Collector) : BlockResult = {
+      var e = env
+      var c = coll
+      var l = statements
+      while (!l.isEmpty) {
+        l.head.run(e, c) match {
+          case StatementCollector(newEnv, newColl) =>
+            e = newEnv
+            c = newColl
+          case StatementException(x) =>
+            return BlockException(x)
+        }
+        l = l.tail
+      }
+      BlockCollector(e, c)
+    }
+  }
+
+  def compileBlock(block : Block) : BlockCode = {
+    new BlockCode(block.statements.map(compileStatement _))
+  }
+
+  abstract class StatementCode(st : Statement) {
+    val ste = statementTrace(st)
+    def run(env : Environment, coll : Collector) : StatementResult = {
+      evaluator.checkCancel()
+      val u = run_(env, coll)
+      u match {
+        case StatementException(ex) =>
+          ex.addToStackTrace(ste)
+          u
+        case _ => u
+      }
+    }
+    def run_(env : Environment, coll : Collector) : StatementResult
+  }
+
+  class SValCode(st : Statement, slot : Int, expr : ExpressionCode) extends StatementCode(st) {
+    def run_(env : Environment, coll : Collector) : StatementResult = {
+      val e = expr.run(env)
+      if (e.isDynamicException) StatementException(e.asDynamicException)
+      else StatementCollector(env.bind(slot, e), coll)
+    }
+  }
+
+  class SYieldCode(st : Statement, expr : ExpressionCode) extends StatementCode(st) {
+    def run_(env : Environment, coll : Collector) : StatementResult = {
+      val e = expr.run(env)
+      if (e.isDynamicException) StatementException(e.asDynamicException)
+      else {
+        val c = coll.collect_add(e)
+        if (c != null && c.isDynamicException) StatementException(c.asInstanceOf[ExceptionValue])
+        else StatementCollector(env, coll)
+      }
+    }
+  }
+
+  class SIfCode(st : Statement, cond : Code, yes : BlockCode, no : BlockCode) extends StatementCode(st) {
+    def run_(env : Environment, coll : Collector) : StatementResult = {
+      cond.eval(env.freeze) match {
+        case x : ExceptionValue => StatementException(x.asDynamicException())
+        case BooleanValue(b) =>
+          (if (b) yes.run(env, coll) else no.run(env, coll)) match {
+            case BlockException(de) => StatementException(de)
+            case BlockCollector(_, c) => StatementCollector(env, c)
+          }
+        case _ => StatementException(domainError())
+      }
+    }
+  }
+
+  class StatementFallback(st : Statement) extends StatementCode(st) {
+    override def run(env : Environment, coll : Collector) : StatementResult = {
+      evaluator.evalStatement(env, coll, st)
+    }
+    def run_(env : Environment, coll : Collector) : StatementResult = null
+  }
+
+  def compileStatement(st : Statement) : StatementCode = {
+    st match {
+      case SVal(p : PId, e) => new SValCode(st, p.slot, compileExpression(e))
+      case SYield(e) => new SYieldCode(st, compileExpression(e))
+      case SIf(cond, yes, no) => new SIfCode(st, compileSE(cond), compileBlock(yes), compileBlock(no))
+      case _ => new StatementFallback(st)
+    }
+  }
+
+  // simple expressions
+
+  abstract class Code {
+    def eval(env : SimpleEnvironment) : Value
+    // the value if it is a small integer; any other value is thrown as NotSmall. Either way
+    // the expression is evaluated once, so arithmetic falls back to the evaluator's way
+    // with the values it already has.
+    def evalSmall(env : SimpleEnvironment) : Long = {
+      eval(env) match {
+        case i : IntegerValue if i.isSmall => i.small
+        case v => throw new NotSmall(v)
+      }
+    }
+  }
+
+  class Traced(code : Code, ste : StackTraceElement) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      val u = code.eval(env)
+      if (u.isDynamicException) u.asDynamicException.addToStackTrace(ste)
+      u
+    }
+    override def evalSmall(env : SimpleEnvironment) : Long = {
+      try {
+        code.evalSmall(env)
+      } catch {
+        case n : NotSmall =>
+          if (n.value.isDynamicException) n.value.asDynamicException.addToStackTrace(ste)
+          throw n
+      }
+    }
+  }
+
+  class Fallback(se : SimpleExpression) extends Code {
+    def eval(env : SimpleEnvironment) : Value = evaluator.evalSE(env, se)
+  }
+
+  class Constant(v : Value) extends Code {
+    def eval(env : SimpleEnvironment) : Value = v
+  }
+
+  class SmallConstant(l : Long) extends Code {
+    val v = IntegerValue.fromLong(l)
+    def eval(env : SimpleEnvironment) : Value = v
+    override def evalSmall(env : SimpleEnvironment) : Long = l
+  }
+
+  class LocalId(se : SEId) extends Code {
+    val depth = se.depth
+    val slot = se.slot
+    def eval(env : SimpleEnvironment) : Value = {
+      env.lookup(depth, slot) match {
+        case null => evaluator.evalModule(Path(List(se.id)))
+        case ev : EnvironmentValue => ev.onLookup()
+        case x => x
+      }
+    }
+  }
+
+  class Send(target : Code, message : Id) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      val v = target.eval(env).sendMessage(message)
+      if (v == null) dynamicException(CONSTRUCTOR_INVALIDMESSAGE, StringValue(message.name))
+      else v
+    }
+  }
+
+  class Apply(fexpr : Code, gexpr : Code) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      val f = fexpr.eval(env)
+      if (f.isDynamicException) f
+      else apply(f, gexpr.eval(env))
+    }
+  }
+
+  def apply(f : Value, g : Value) : Value = {
+    if (g.isDynamicException) g
+    else {
+      val h = f.extractFunctionValue()
+      if (h.isDynamicException) h
+      else h.asInstanceOf[FunctionValue].apply(g)
+    }
+  }
+
+  /* u + g, u - g, u * g, u div g and u mod g on small integers are computed on longs,
+   * and nested operations pass their results on unboxed. If an operand or the result is
+   * not a small integer, the operation is done the evaluator's way with the operands
+   * evaluated so far: integers are added, subtracted or multiplied right away, which the
+   * native functions that integers return for these messages would do as well, anything
+   * else is sent the message. */
+  class ArithmeticApply(send : TracedSend, target : Code, op : Int, gexpr : Code) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      try {
+        IntegerValue.fromLong(evalSmall(env))
+      } catch {
+        case n : NotSmall => n.value
+      }
+    }
+    override def evalSmall(env : SimpleEnvironment) : Long = {
+      val u = try {
+        target.evalSmall(env)
+      } catch {
+        case n : NotSmall => throw new NotSmall(general(n.value, env))
+      }
+      val w = try {
+        gexpr.evalSmall(env)
+      } catch {
+        case n : NotSmall => throw new NotSmall(second(IntegerValue.fromLong(u), n.value))
+      }
+      op match {
+        case IntegerValue.OP_PLUS =>
+          val r = u + w
+          if (((u ^ r) & (w ^ r)) >= 0) return r
+        case IntegerValue.OP_MINUS =>
+          val r = u - w
+          if (((u ^ w) & (u ^ r)) >= 0) return r
+        case IntegerValue.OP_TIMES =>
+          val r = u * w
+          if ((u < HALF && u > -HALF && w < HALF && w > -HALF) || u == 0 ||
+              (r / u == w && !(u == -1 && w == Long.MinValue)))
+            return r
+        case OP_DIV =>
+          if (w != 0 && u != Long.MinValue) {
+            val q = u / w
+            val r = u % w
+            return if (r >= 0) q else if (w > 0) q - 1 else q + 1
+          }
+        case _ =>
+          if (w != 0 && w != Long.MinValue) {
+            val r = u % w
+            return if (r >= 0) r else if (w > 0) r + w else r - w
+          }
+      }
+      throw new NotSmall(second(IntegerValue.fromLong(u), IntegerValue.fromLong(w)))
+    }
+    // u is not a small integer, g is not evaluated yet
+    private def general(u : Value, env : SimpleEnvironment) : Value = {
+      u match {
+        case u : IntegerValue => second(u, gexpr.eval(env))
+        case u =>
+          val f = send.sent(u)
+          if (f.isDynamicException) f
+          else apply(f, gexpr.eval(env))
+      }
+    }
+    private def second(u : IntegerValue, g : Value) : Value = {
+      g match {
+        case w : IntegerValue if op <= IntegerValue.OP_TIMES => u.arithmetic(op, w)
+        case g => apply(u.sendMessage(send.message), g)
+      }
+    }
+  }
+
+  class TracedSend(target : Code, val message : Id, ste : StackTraceElement) extends Code {
+    def sent(u : Value) : Value = {
+      val v = u.sendMessage(message)
+      if (v == null) {
+        val x = dynamicException(CONSTRUCTOR_INVALIDMESSAGE, StringValue(message.name))
+        if (ste != null) x.addToStackTrace(ste)
+        x
+      } else {
+        if (v.isDynamicException && ste != null) v.asDynamicException.addToStackTrace(ste)
+        v
+      }
+    }
+    def eval(env : SimpleEnvironment) : Value = sent(target.eval(env))
+  }
+
+  class Compare(operands : Array[Code], operators : Array[CompareOp]) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      var firstOperand = operands(0).eval(env)
+      if (firstOperand.isDynamicException) return firstOperand
+      var i = 0
+      while (i < operators.length) {
+        val secondOperand = operands(i + 1).eval(env)
+        if (secondOperand.isDynamicException) return secondOperand
+        evaluator.compareValuesByOp(operators(i), firstOperand, secondOperand) match {
+          case Some(true) =>
+          case Some(false) => return BooleanValue(false)
+          case None => return dynamicException(CONSTRUCTOR_UNRELATED)
+        }
+        firstOperand = secondOperand
+        i = i + 1
+      }
+      BooleanValue(true)
+    }
+  }
+
+  // a comparison of two small integers compares longs
+  class SmallCompare(a : Code, operator : CompareOp, b : Code) extends Code {
+    val holds : (Long, Long) => Boolean = operator match {
+      case EQUAL() => _ == _
+      case UNEQUAL() => _ != _
+      case LESS() => _ < _
+      case LESS_EQ() => _ <= _
+      case GREATER() => _ > _
+      case GREATER_EQ() => _ >= _
+    }
+    def eval(env : SimpleEnvironment) : Value = {
+      val x = try {
+        a.evalSmall(env)
+      } catch {
+        case n : NotSmall =>
+          if (n.value.isDynamicException) return n.value
+          return general(n.value, b.eval(env))
+      }
+      val y = try {
+        b.evalSmall(env)
+      } catch {
+        case n : NotSmall => return general(IntegerValue.fromLong(x), n.value)
+      }
+      BooleanValue(holds(x, y))
+    }
+    private def general(u : Value, v : Value) : Value = {
+      if (v.isDynamicException) return v
+      evaluator.compareValuesByOp(operator, u, v) match {
+        case Some(b) => BooleanValue(b)
+        case None => dynamicException(CONSTRUCTOR_UNRELATED)
+      }
+    }
+  }
+
+  class Not(u : Code) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      u.eval(env) match {
+        case BooleanValue(b) => BooleanValue(!b)
+        case x => if (x.isException) x.asDynamicException else domainError()
+      }
+    }
+  }
+
+  class AndOr(isAnd : Boolean, u : Code, v : Code) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      u.eval(env) match {
+        case BooleanValue(a) =>
+          if (a != isAnd) BooleanValue(a)
+          else v.eval(env) match {
+            case BooleanValue(b) => BooleanValue(b)
+            case x => if (x.isException) x.asDynamicException else domainError()
+          }
+        case x =>
+          if (x.isException) x.asDynamicException else domainError()
+      }
+    }
+  }
+
+  class Cons(u : Code, v : Code) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      val xu = u.eval(env)
+      if (xu.isDynamicException) return xu
+      val xv = v.eval(env)
+      if (xv.isDynamicException) return xv
+      ConsListValue(xu, xv)
+    }
+  }
+
+  class Construct(constr : Constr, u : Code) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      val v = u.eval(env)
+      if (v.isDynamicException) v
+      else ConstructorValue(constr, v)
+    }
+  }
+
+  class Vector(elems : Array[Code]) extends Code {
+    def eval(env : SimpleEnvironment) : Value = {
+      val v : Array[Value] = new Array(elems.length)
+      var i = 0
+      while (i < elems.length) {
+        val x = elems(i).eval(env)
+        if (x.isDynamicException) return x
+        v(i) = x
+        i = i + 1
+      }
+      VectorValue(v)
+    }
+  }
+
+  class Nested(expr : ExpressionCode) extends Code {
+    def eval(env : SimpleEnvironment) : Value = expr.run(env.thaw)
+  }
+
+  def compileSE(se : SimpleExpression) : Code = {
+    compileSE_(se) match {
+      case code : Fallback => code
+      case code =>
+        if (se.stackTraceElement == null) code
+        else new Traced(code, se.stackTraceElement)
+    }
+  }
+
+  def compileSE_(se : SimpleExpression) : Code = {
+    se match {
+      case se : SEId if se.depth >= 0 => new LocalId(se)
+      case SEInt(u) =>
+        val i = IntegerValue(u)
+        if (i.isSmall) new SmallConstant(i.small) else new Constant(i)
+      case SEBool(b) => new Constant(BooleanValue(b))
+      case SEString(u) => new Constant(StringValue(u))
+      case SEApply(s @ SEMessageSend(u, m), g) =>
+        val target = compileSE(u)
+        val send = new TracedSend(target, m, s.stackTraceElement)
+        val op = integerOp(m.name)
+        if (op >= 0) new ArithmeticApply(send, target, op, compileSE(g))
+        else new Apply(send, compileSE(g))
+      case SEApply(f, g) => new Apply(compileSE(f), compileSE(g))
+      case SEMessageSend(u, m) => new Send(compileSE(u), m)
+      case SECompare(List(a, b), List(operator)) =>
+        new SmallCompare(compileSE(a), operator, compileSE(b))
+      case SECompare(operands, operators) =>
+        new Compare(operands.map(compileSE _).toArray, operators.toArray)
+      case SENot(u) => new Not(compileSE(u))
+      case SEAnd(u, v) => new AndOr(true, compileSE(u), compileSE(v))
+      case SEOr(u, v) => new AndOr(false, compileSE(u), compileSE(v))
+      case SECons(u, v) => new Cons(compileSE(u), compileSE(v))
+      case SEConstr(c, u) => new Construct(c, compileSE(u))
+      case SEVector(l) => new Vector(l.map(compileSE _).toArray)
+      case SEExpr(e) => new Nested(compileExpression(e))
+      case _ => new Fallback(se)
+    }
+  }
+
+}
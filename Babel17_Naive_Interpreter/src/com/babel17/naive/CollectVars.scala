@@ -90,9 +90,10 @@ object CollectVars {
         var assignedVars = SortedSet[Id]()
         for (s <- statements) {
           collectVars(s)
-          freeVars = freeVars ++ ((s.freeVars -- introducedVars) -- assignedVars)
+          // filter the sets of the statement, they are small compared to those of the block
+          freeVars = freeVars ++ s.freeVars.filter(v => !introducedVars.contains(v) && !assignedVars.contains(v))
           introducedVars = introducedVars ++ s.introducedVars
-          assignedVars = assignedVars ++ (s.assignedVars -- introducedVars)
+          assignedVars = assignedVars ++ s.assignedVars.filterNot(introducedVars.contains _)
         } 
         term.freeVars = freeVars -- defVars
         term.assignedVars = assignedVars -- defVars
@@ -0,0 +1,72 @@
+package com.babel17.naive
+
+import java.util.concurrent._
+import Values.ConcurrentValue
+
+/* The concurrent values that were started while a module was loaded, including the
+ * concurrent values they started in turn. Loading a module only returns when all of
+ * them have finished. Scopes are only used if each concurrent value runs on its own
+ * thread, see EvaluationOptions.threadPerConcurrent. */
+class ConcurrencyScope(val outer : ConcurrencyScope) {
+
+  private val values = new ConcurrentLinkedQueue[ConcurrentValue]()
+
+  def add(c : ConcurrentValue) {
+    values.add(c)
+  }
+
+  // values that are added while waiting are waited for, too
+  def join() {
+    var c = values.poll()
+    while (c != null) {
+      c.await()
+      c = values.poll()
+    }
+  }
+
+}
+
+object ConcurrencyScope {
+
+  private val current = new ThreadLocal[ConcurrencyScope]()
+
+  def get : ConcurrencyScope = current.get
+
+  def set(scope : ConcurrencyScope) {
+    current.set(scope)
+  }
+
+  def open() : ConcurrencyScope = {
+    val scope = new ConcurrencyScope(current.get)
+    current.set(scope)
+    scope
+  }
+
+  def close(scope : ConcurrencyScope) {
+    try {
+      scope.join()
+    } finally {
+      current.set(scope.outer)
+    }
+  }
+
+  /* Starts a new thread for each task. These are virtual threads if the JVM has them, so
+   * blocking in native calls does not tie up a platform thread; otherwise they are
+   * daemon threads of an unbounded pool. */
+  def newExecutor() : ExecutorService = {
+    try {
+      val m = classOf[Executors].getMethod("newVirtualThreadPerTaskExecutor")
+      m.invoke(null).asInstanceOf[ExecutorService]
+    } catch {
+      case _ : Exception =>
+        Executors.newCachedThreadPool(new ThreadFactory {
+          def newThread(r : Runnable) : Thread = {
+            val t = new Thread(r)
+            t.setDaemon(true)
+            t
+          }
+        })
+    }
+  }
+
+}
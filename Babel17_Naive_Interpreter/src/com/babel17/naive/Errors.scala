@@ -2,6 +2,7 @@ package com.babel17.naive
 
 import com.babel17.interpreter.parser.ErrorMessage
 import com.babel17.interpreter.parser.Parser
+import com.babel17.interpreter.parser.Cancellation
 import com.babel17.syntaxtree.Location
 import com.babel17.syntaxtree.Source
 
@@ -54,6 +55,7 @@ class ErrorProducer {
 
   var errors : List[ErrorMessage] = List.empty
   var source : Source = null
+  var cancellation : Cancellation = null
 
   def error (loc : com.babel17.syntaxtree.Location, msg : String) = {
     var l = loc;
@@ -62,6 +64,11 @@ class ErrorProducer {
     //println("at "+loc+": "+msg)
   }
 
+  // stops the work with Cancellation.Cancelled if it has been cancelled
+  def checkCancel() {
+    Cancellation.check(cancellation)
+  }
+
   def throwInternalError (loc : com.babel17.syntaxtree.Location, msg : String) = {
     throw new RuntimeException("at "+loc+": "+msg)
   }
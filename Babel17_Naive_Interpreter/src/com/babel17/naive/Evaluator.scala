@@ -5,6 +5,10 @@ import Values._
 import scala.collection.immutable.SortedSet
 import scala.collection.immutable.SortedMap
 import java.util.concurrent._
+import scala.concurrent.forkjoin.ForkJoinPool
+import scala.concurrent.forkjoin.ForkJoinTask
+import scala.concurrent.forkjoin.ForkJoinWorkerThread
+import scala.concurrent.forkjoin.RecursiveAction
 import com.babel17.syntaxtree.Source
 
 
@@ -15,79 +19,140 @@ object Evaluator {
     }
   }
   
-  case class ValueRef(var value : Value);
-  
-
   val ID_THIS = Id("this")
 
-  case class SimpleEnvironment(nonlinear : SortedMap[Id, Value]) {
+  // the number of forked tasks a worker may have queued before it stops forking
+  val SURPLUS_TASKS = 3
+
+  // for loops over fewer elements are not split up
+  val PARALLEL_FOR_MIN = 16
+
+  /* A worker of the pool of an evaluator. chunk is the chunk of a parallel for loop the
+   * worker evaluates, or null; once the chunk is abandoned, checkCancel stops its
+   * evaluation with ChunkAbandoned. */
+  final class Worker(pool : ForkJoinPool) extends ForkJoinWorkerThread(pool) {
+    var chunk : Evaluator#ForChunk = null
+  }
+
+  val workerFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory {
+    def newThread(pool : ForkJoinPool) : ForkJoinWorkerThread = new Worker(pool)
+  }
+
+  object ChunkAbandoned extends Exception with scala.util.control.ControlThrowable
+
+  // evaluates body outside of any chunk, for tasks that a worker may run while it waits
+  def detached[T](body : => T) : T = {
+    Thread.currentThread match {
+      case w : Worker =>
+        val outer = w.chunk
+        w.chunk = null
+        try {
+          body
+        } finally {
+          w.chunk = outer
+        }
+      case _ => body
+    }
+  }
+
+  /* Identifiers are addressed by the (depth, slot) pairs computed by ResolveSlots.
+   * A SimpleEnvironment is a frame whose slots do not change anymore, chained to
+   * the frames of the enclosing scopes; thawing it opens a new frame on top. */
+  class SimpleEnvironment(val parent : SimpleEnvironment, val slots : Array[Value], val thisValue : Value) {
     def thaw () : Environment = {
-      Environment(nonlinear, SortedMap())
+      new Environment(this)
+    }
+    def slotValue(slot : Int) : Value = {
+      if (slot < slots.length) slots(slot) else null
     }
-    def lookup(id : Id) : Value = {
-      nonlinear(id)
+    def lookup(depth : Int, slot : Int) : Value = {
+      var e = this
+      var d = depth
+      while (d > 0) {
+        e = e.parent
+        d = d - 1
+      }
+      e.slotValue(slot)
+    }
+    def lookupThis() : Value = {
+      var e = this
+      while (e != null) {
+        if (e.thisValue != null) return e.thisValue
+        e = e.parent
+      }
+      throw new java.util.NoSuchElementException("this")
     }
+    def capture() : SimpleEnvironment = this
     def setThis(_this : Value) : SimpleEnvironment = {
       if (_this != null)
-        SimpleEnvironment(nonlinear + (ID_THIS -> _this))
+        new SimpleEnvironment(parent, slots, _this)
       else
         this
     }
-    def replace(r : SortedMap[Id, Value]) : SimpleEnvironment = {
-      SimpleEnvironment(nonlinear ++ r)
+    def replace(r : SortedMap[Id, Value], messageSlots : SortedMap[Id, Int]) : SimpleEnvironment = {
+      var size = slots.length
+      for ((m, _) <- r) size = size.max(messageSlots(m) + 1)
+      val s = new Array[Value](size)
+      Array.copy(slots, 0, s, 0, slots.length)
+      for ((m, v) <- r) s(messageSlots(m)) = v
+      new SimpleEnvironment(parent, s, thisValue)
     }
   }
-  
-  case class Environment(nonlinear : SortedMap[Id, Value], linear : SortedMap[Id, ValueRef]) {
-    def freeze () : SimpleEnvironment = {
-      SimpleEnvironment(nonlinear ++ linear.mapValues(_.value))
-    }
-    def bind (id : Id, v : Value) : Environment = {
-      Environment(nonlinear - id, linear + (id -> ValueRef(v)))
-    }
-    def bind (ids : SortedMap[Id, Value]) : Environment = {
-      val nl : SortedMap[Id, Value] = nonlinear -- ids.keys
-      val l : SortedMap[Id, ValueRef] = linear ++ (ids.mapValues(ValueRef(_)))
-      Environment(nl, l)
-    
-    }
-    def rebind (id : Id, v : Value) : Environment = {
-      linear(id).value = v
-      this
+
+  /* The frozen view of a frame that is still being evaluated. Reading goes directly
+   * to the slots of the frame, so freezing is free; whatever outlives the current
+   * evaluation (closures, lazy and concurrent values, definitions) must capture. */
+  class FrozenEnvironment(frame : Environment) extends SimpleEnvironment(frame.parent, null, null) {
+    override def slotValue(slot : Int) : Value = frame.lookup(slot)
+    override def capture() : SimpleEnvironment = frame.capture()
+    override def setThis(_this : Value) : SimpleEnvironment = capture().setThis(_this)
+    override def replace(r : SortedMap[Id, Value], messageSlots : SortedMap[Id, Int]) : SimpleEnvironment = {
+      capture().replace(r, messageSlots)
     }
-    def rebind (ids : SortedMap[Id, Value]) : Environment = {
-      for ((id, v) <- ids)
-        linear(id).value = v
-      this
+  }
+
+  private val noSlots = new Array[Value](0)
+
+  class Environment(val parent : SimpleEnvironment) {
+    private var slots : Array[Value] = noSlots
+    private var captured : SimpleEnvironment = null
+    private var frozen : SimpleEnvironment = null
+    def freeze () : SimpleEnvironment = {
+      if (frozen == null) frozen = new FrozenEnvironment(this)
+      frozen
     }
-    def beginRebinding(ids : SortedSet[Id]) : Environment = {
-      var l = linear
-      for (i <- ids) {
-        l = l + (i -> ValueRef(linear(i).value))
+    def capture () : SimpleEnvironment = {
+      if (captured == null) {
+        val p = if (parent == null) null else parent.capture()
+        captured = new SimpleEnvironment(p, slots.clone(), null)
       }
-      Environment(nonlinear, l)
+      captured
     }
-    def endRebinding(env : Environment, ids : SortedSet[Id]) : Environment = {
-      var l = env.linear
-      for (i <- ids) {
-        linear(i).value = l(i).value
+    def bind (slot : Int, v : Value) : Environment = {
+      if (slot >= slots.length) {
+        val s = new Array[Value]((2 * slots.length).max(slot + 1).max(8))
+        System.arraycopy(slots, 0, s, 0, slots.length)
+        slots = s
       }
+      slots(slot) = v
+      captured = null
       this
     }
-    def define (id : Id, e : Value) : Environment = {
-      Environment(nonlinear + (id -> e), linear - id)
+    // a frame with the same slots that is changed independently of this one
+    def copy () : Environment = {
+      val e = new Environment(parent)
+      e.slots = slots.clone()
+      e
     }
-    def lookup(id : Id) : Value = {
-      try {
-        linear(id).value
-      } catch {
-        case _ => nonlinear(id)
-      }
+    def rebind (slot : Int, v : Value) : Environment = bind(slot, v)
+    def define (slot : Int, v : Value) : Environment = bind(slot, v)
+    def lookup(slot : Int) : Value = {
+      if (slot < slots.length) slots(slot) else null
     }
   }
   
   def emptyEnv : Environment = {
-    Environment(SortedMap.empty, SortedMap.empty)
+    new Environment(null)
   }
   
   abstract class MatchResult  
@@ -148,7 +213,29 @@ class AssertionRecorder() {
   }
 }
 
-case class EvaluationOptions(val assertions : Boolean, val javalibs : String) 
+/* With threadPerConcurrent each concurrent expression is evaluated on a thread of its own
+ * instead of the fork/join pool, which suits concurrent expressions that block.
+ * memoCapacity is the number of results each memoized function keeps at most.
+ * With preloadModules the modules are evaluated before the program, see
+ * ModuleValues.preloadModules; otherwise each module is evaluated when it is first used.
+ * With cpsRuntime a script is run by the interpreter in com.babel17.interpreter.runtime if
+ * Program2Runtime can translate it.
+ * With programCache the files are read from and their programs written to the program cache,
+ * see ProgramCache.
+ * With moduleTimings the time each module takes to load is written to standard error, see
+ * ModuleLoadTimings.
+ * With parallelFor the for loops whose iterations do not depend on each other are evaluated
+ * in parallel, see Evaluator.evalForInParallel. Functions called from the body of such a
+ * loop run concurrently, so what they print, log or assert may interleave. */
+case class EvaluationOptions(val assertions : Boolean, val javalibs : String,
+                             val threadPerConcurrent : Boolean, val memoCapacity : Int,
+                             val preloadModules : Boolean, val cpsRuntime : Boolean,
+                             val programCache : Boolean, val moduleTimings : Boolean,
+                             val parallelFor : Boolean)
+{
+  def this(assertions : Boolean, javalibs : String) =
+    this(assertions, javalibs, false, MemoTable.DEFAULT_CAPACITY, false, false, false, false, false)
+}
 
 
 class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
@@ -157,19 +244,35 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
  
   import Evaluator._
 
-  var executor : ThreadPoolExecutor = null
+  var pool : ForkJoinPool = null
+  var threads : ExecutorService = null
   val assertionRecorder = new AssertionRecorder()
 
   val moduleValues = new ModuleValues(this, fileCentral)  
 
-  if (maxNumThreads > 1) {
-    executor = new ThreadPoolExecutor(0, maxNumThreads-1, 500L, TimeUnit.MILLISECONDS,
-      new SynchronousQueue())
-    executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy())
+  val closureTiers = new ClosureCompiler.Tiers(this)
+
+  if (evaluationOptions.threadPerConcurrent) {
+    threads = ConcurrencyScope.newExecutor()
+  } else if (maxNumThreads > 1) {
+    pool = new ForkJoinPool(maxNumThreads, workerFactory, null, false)
+  }
+
+  // A worker of the pool forks a concurrent expression only as long as few of its own
+  // tasks are waiting to be stolen; otherwise it is cheaper to evaluate it directly.
+  // Other threads hand it to the pool unless the pool is already flooded with tasks.
+  def forkConcurrent() : Boolean = {
+    Thread.currentThread match {
+      case w : ForkJoinWorkerThread if w.getPool eq pool =>
+        ForkJoinTask.getSurplusQueuedTaskCount() <= SURPLUS_TASKS
+      case _ =>
+        pool.getQueuedSubmissionCount() <= maxNumThreads * SURPLUS_TASKS
+    }
   }
 
   val random : java.util.Random = new java.util.Random()
   var writeOutput : WriteOutput = null
+  var moduleLoadListener : ModuleLoadListener = null
   
   var javainterop = new JavaInterop(this, evaluationOptions.javalibs)
 
@@ -183,6 +286,10 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
     if (writeOutput != null && writeOutput.pleaseCancel) {
       throw EvalX("program terminated by user")
     }
+    Thread.currentThread match {
+      case w : Worker if w.chunk != null && w.chunk.abandoned => throw ChunkAbandoned
+      case _ =>
+    }
   } 
 
   def evaluate(env : Environment, term : Term) : Value = {
@@ -323,10 +430,14 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
       case BlockException(de) => de
       case BlockCollector(env, _) =>
         var s : SortedMap[Id, Value] = SortedMap.empty
-        for (m <- messages) 
-          s = s + (m -> env.lookup(m))
+        var messageSlots : SortedMap[Id, Int] = SortedMap.empty
+        for (m <- messages) {
+          val slot = block.slots(m)
+          s = s + (m -> env.lookup(slot))
+          messageSlots = messageSlots + (m -> slot)
+        }
         val x = ObjectValue(s)
-        x.setEnvMessages(messages)
+        x.setEnvMessages(messageSlots)
         x.setThis(x)
         x
     }
@@ -372,27 +483,50 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
     else systemSendMessage(v, msg)
   }
   
-  def evalId(env : SimpleEnvironment, id: Id) : Value = {
-    var v : Value = null
-    try {
-      v = env.lookup(id)
-    } catch {
-      case x : java.util.NoSuchElementException =>
-        val path = Path(List(id))
-        return evalModule(path)
-    }
-    v match {
+  def evalId(env : SimpleEnvironment, se : SEId) : Value = {
+    if (se.depth < 0) return evalModule(Path(List(se.id)))
+    env.lookup(se.depth, se.slot) match {
+      case null => evalModule(Path(List(se.id)))
       case ev : EnvironmentValue => ev.onLookup()
       case x => x
     }   
   }
 
+  // u + g, u - g and u * g on two integers do not need the native function that u returns
+  def evalArithmetic(env : SimpleEnvironment, send : SEMessageSend, gexpr : SimpleExpression) : Value = {
+    val u = evalSE(env, send.target)
+    u match {
+      case u : IntegerValue =>
+        evalSE(env, gexpr) match {
+          case w : IntegerValue => u.arithmetic(IntegerValue.arithmeticOp(send.m.name), w)
+          case g =>
+            if (g.isDynamicException) g
+            else u.sendMessage(send.m).asInstanceOf[FunctionValue].apply(g)
+        }
+      case _ =>
+        var f = u.sendMessage(send.m)
+        if (f == null) f = dynamicException(CONSTRUCTOR_INVALIDMESSAGE, StringValue(send.m.name))
+        if (f.isDynamicException) {
+          if (send.stackTraceElement != null) f.asDynamicException.addToStackTrace(send.stackTraceElement)
+          f
+        } else {
+          val g = evalSE(env, gexpr)
+          if (g.isDynamicException) g
+          else {
+            f = f.extractFunctionValue()
+            if (f.isDynamicException) f
+            else f.asInstanceOf[FunctionValue].apply(g)
+          }
+        }
+    }
+  }
+
   def evalSE_(env : SimpleEnvironment, se : SimpleExpression) : Value =
   {
     se match {
-      case SEId(id) => evalId(env, id)
+      case se : SEId => evalId(env, se)
       case SEThis() =>
-          env.lookup(ID_THIS) match {
+          env.lookupThis() match {
             case ev : EnvironmentValue => ev.onLookup()
             case x => x
           }
@@ -468,6 +602,9 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
           map = map + (m -> v)
         }
         ObjectValue(map)
+      case SEApply(send @ SEMessageSend(target, message), gexpr)
+        if IntegerValue.arithmeticOp(message.name) >= 0 =>
+        evalArithmetic(env, send, gexpr)
       case SEApply(fexpr, gexpr) =>
         var f = evalSE(env, fexpr)
         if (f.isDynamicException) f
@@ -532,7 +669,7 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
             else IntegerValue(randomBigInt(n))
           case _ => dynamicException(CONSTRUCTOR_DOMAINERROR)            
         }
-      case SELazy(e) => LazyValue(this, env, e, null)
+      case SELazy(e) => LazyValue(this, env.capture(), e)
       case SEChoose(e) => 
         val v = evalSE(env, e)
         if (v.isDynamicException) v
@@ -588,15 +725,16 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
             if (x.isException) x.asDynamicException else domainError()
         }
       case SEExpr(e) => evalExpression(env.thaw, e)
-      case SEFun(m, branches) =>
+      case fun @ SEFun(m, branches) =>
         val f = m match {
-          case MemoTypeNone() => ClosureValue(this, env, branches)
-          case _ => ClosureValueMS(this, env, branches)
+          case MemoTypeNone() => ClosureValue(this, env.capture(), fun)
+          case MemoTypeWeak() => ClosureValueMS(this, env.capture(), branches, true)
+          case MemoTypeStrong() => ClosureValueMS(this, env.capture(), branches, false)
         }
         f.stackTraceElement = se.stackTraceElement
         f
       case SETypeIntro(m, ty, branches) =>
-        val f = TypeIntroValue(this, env, TypeValue(ty), branches)
+        val f = TypeIntroValue(this, env.capture(), TypeValue(ty), branches)
         f.stackTraceElement = se.stackTraceElement
         f
       case SEGlueObj(parents, block, messages) =>
@@ -604,11 +742,11 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
       case SEObj(block, messages) =>
         evalObj(env, block, messages)
       case SEConcurrent(se) =>
-        if (executor == null || executor.getActiveCount() >= maxNumThreads-1) {
+        if (threads == null && (pool == null || !forkConcurrent())) {
           evalSE(env, se)
         } else {
-          val c = ConcurrentValue(this, env, se)
-          executor.execute(c.getTask)
+          val c = ConcurrentValue(this, env.capture(), se)
+          c.fork()
           c
         }
       case SETypeOf(se) =>
@@ -662,23 +800,21 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
             case MemoTypeWeak() => EnvironmentValueMW(se, null)
             case MemoTypeStrong() => EnvironmentValueMS(se, null)
           }
-          e = e.define(id, v)
+          e = e.define(d.slot, v)
           values = v :: values
-        case SDef1(m, _, id, branches) =>
-          val se = SEFun(m, branches)
-          se.stackTraceElement = d.stackTraceElement
-          val v = EnvironmentValueMS(se, null)
-          e = e.define(id, v)
+        case d1 : SDef1 =>
+          val v = EnvironmentValueMS(d1.fun, null)
+          e = e.define(d.slot, v)
           values = v :: values
         case STypeDef(m, _, id, ty, branches) =>
           val se = SETypeIntro(m, ty, branches)
           se.stackTraceElement = d.stackTraceElement
           val v = EnvironmentValueMS(se, null)
-          e = e.define(id, v)
+          e = e.define(d.slot, v)
           values = v :: values
       }
     }
-    val senv = e.freeze()
+    val senv = e.capture()
     for (v <- values) {
       v.env = senv
       v.evaluator = this
@@ -727,22 +863,22 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
           case MatchX(x) => StatementException(x)
           case DoesMatch(newEnv) => StatementCollector(newEnv, coll)
         }
-      case SLensAssign(id, lensExpr:SELens, expr) =>
+      case st @ SLensAssign(id, lensExpr:SELens, expr) =>
         val e = evalExpression(env, expr)
         if (e.isDynamicException) return StatementException(e.asDynamicException)
         val senv = env.freeze
         val lens = evalSE(senv, lensExpr)
         lens match {
           case l: Lens.LensValue =>
-            val x = evalId(senv, id)
+            val x = doLookupIfNecessary(env.lookup(st.slot))
             if (x.isDynamicException) return StatementException(x.asDynamicException)
             val y = l.lensPut(x, e)
             if (y.isDynamicException) return StatementException(y.asDynamicException)
-            StatementCollector(env.rebind(id, y), coll)
+            StatementCollector(env.rebind(st.slot, y), coll)
           case x:ExceptionValue => StatementException(x.asDynamicException)
           case _ => StatementException(Lens.lensError("lens expected, found: '"+lens.stringDescr(false)+"'"))
         }
-      case SLensModify(id, lensExpr:SELens, expr, f) =>
+      case st @ SLensModify(id, lensExpr:SELens, expr, f) =>
         val e = evalExpression(env, expr)
         if (e.isDynamicException) return StatementException(e.asDynamicException)
         val senv = env.freeze
@@ -754,21 +890,19 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
         val lens = evalSE(senv, lensExpr)
         lens match {
           case l: Lens.LensValue =>
-            val x = evalId(senv, id)
+            val x = doLookupIfNecessary(env.lookup(st.slot))
             if (x.isDynamicException) return StatementException(x.asDynamicException)
             val y = l.lensModify(x, F)
             if (y.isDynamicException) return StatementException(y.asDynamicException)
-            StatementCollector(env.rebind(id, y), coll)
+            StatementCollector(env.rebind(st.slot, y), coll)
           case x:ExceptionValue => StatementException(x.asDynamicException)
           case _ => StatementException(Lens.lensError("lens expected, found: '"+lens.stringDescr(false)+"'"))
         }        
-      case SImport(path, id) =>
-        var se : SimpleExpression = SEId(path.ids.head)
-        for (message <- path.ids.tail) se = SEMessageSend(se, message)
-        val v = EnvironmentValueMN(se)
-        v.env = env.freeze
+      case st : SImport =>
+        val v = EnvironmentValueMN(st.target)
+        v.env = env.capture()
         v.evaluator = this
-        StatementCollector(env.define(id, v), coll)
+        StatementCollector(env.define(st.slot, v), coll)
       case SYield(expr) =>
         val e = evalExpression(env, expr)
         if (e.isDynamicException) StatementException(e.asInstanceOf[ExceptionValue])
@@ -887,27 +1021,14 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
           }
         } while (true)
         throw EvalX("Infinite while loop terminated ?!")
-      case SFor(pat, collection, block) =>
+      case st @ SFor(pat, collection, block) =>
         val c = evalSE(env.freeze, collection).force()
         if (c.isException) return StatementException(c.asDynamicException)
-        var iterator = iteratorOfValue(c)
-        do {
-          val v = iterator.nextValue()
-          if (v == null) return StatementCollector(env, coll)
-          if (v.isDynamicException) return StatementException(v.asDynamicException)
-          matchPattern(env, pat, v, false) match {
-            case NoMatch() =>
-              // do nothing
-            case MatchX(x) => return StatementException(x)
-            case DoesMatch(blockEnv) =>
-              evalBlock(blockEnv, coll, block) match {
-                case BlockException(ex) => return StatementException(ex)
-                case BlockCollector(_,_) =>
-                  // do nothing, block has been successfully processed
-              }
-          }
-        } while (true)
-        throw EvalX("Infinite while loop terminated ?!")
+        if (st.independent && evaluationOptions.parallelFor && pool != null) {
+          val r = evalForInParallel(env, coll, pat, block, c)
+          if (r != null) return r
+        }
+        evalFor(env, coll, pat, block, c)
       case SMatch(expr, branches) => {
         val e = evalSE(env.freeze, expr)
         for ((pat, block) <- branches) {
@@ -969,6 +1090,157 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
     }
   }
   
+  def evalFor(env : Environment, coll : Collector, pat : Pattern, block : Block,
+              c : Value) : StatementResult =
+  {
+    var iterator = iteratorOfValue(c)
+    do {
+      val v = iterator.nextValue()
+      if (v == null) return StatementCollector(env, coll)
+      if (v.isDynamicException) return StatementException(v.asDynamicException)
+      matchPattern(env, pat, v, false) match {
+        case NoMatch() =>
+          // do nothing
+        case MatchX(x) => return StatementException(x)
+        case DoesMatch(blockEnv) =>
+          evalBlock(blockEnv, coll, block) match {
+            case BlockException(ex) => return StatementException(ex)
+            case BlockCollector(_,_) =>
+              // do nothing, block has been successfully processed
+          }
+      }
+    } while (true)
+    throw EvalX("Infinite while loop terminated ?!")
+  }
+
+  /* Evaluates a for loop whose iterations do not depend on each other on the pool. The
+   * elements are split into chunks, each chunk is evaluated in a copy of the frame and
+   * buffers what it yields. The buffers are added to coll in the order of the elements,
+   * and the first exception in that order ends the loop, so the result is the same as
+   * that of the sequential loop. Once a chunk has an exception, the chunks after it are
+   * abandoned: they are skipped or stop at their next step, as the sequential loop would
+   * never evaluate their elements. If a chunk fails with anything but an exception, for
+   * example because the stack of its worker overflows, that failure is rethrown; the loop
+   * is not evaluated again, as that would repeat what its iterations did. For the same
+   * reason only loops which yield to collectors that accept every value are split up.
+   * Returns null if the loop is better evaluated sequentially. */
+  def evalForInParallel(env : Environment, coll : Collector, pat : Pattern, block : Block,
+                        c : Value) : StatementResult =
+  {
+    c match {
+      case _ : VectorValue | _ : SetValue | _ : MapValue =>
+      case _ => return null
+    }
+    coll match {
+      case _ : DefaultCollector | _ : ListCollector | _ : VectorCollector =>
+      case _ => return null
+    }
+    if (!forkConcurrent()) return null
+    val elements = new scala.collection.mutable.ArrayBuffer[Value]()
+    val iterator = iteratorOfValue(c)
+    var v = iterator.nextValue()
+    while (v != null) {
+      if (v.isDynamicException) return null
+      elements += v
+      v = iterator.nextValue()
+    }
+    val n = elements.size
+    if (n < PARALLEL_FOR_MIN) return null
+    val numChunks = scala.math.min(n, maxNumThreads * SURPLUS_TASKS)
+    val parent = Thread.currentThread match {
+      case w : Worker => w.chunk
+      case _ => null
+    }
+    val loop = new ParallelFor(parent)
+    val chunks = new Array[ForChunk](numChunks)
+    for (i <- 0 until numChunks)
+      chunks(i) = new ForChunk(loop, i, env, pat, block, elements, i * n / numChunks, (i + 1) * n / numChunks)
+    val all = new RecursiveAction {
+      def compute() {
+        ForkJoinTask.invokeAll(chunks : _*)
+      }
+    }
+    Thread.currentThread match {
+      case w : ForkJoinWorkerThread if w.getPool eq pool => all.invoke()
+      case _ => pool.invoke(all)
+    }
+    // the chunks may have stopped because the chunk of an enclosing loop was abandoned
+    checkCancel()
+    var i = 0
+    while (i < numChunks && chunks(i).exception == null) {
+      if (chunks(i).error != null) throw chunks(i).error
+      i = i + 1
+    }
+    for (chunk <- chunks) {
+      for (y <- chunk.yielded.buffer) coll.collect_add(y)
+      if (chunk.exception != null) return StatementException(chunk.exception)
+    }
+    StatementCollector(env, coll)
+  }
+
+  // the chunks of a parallel for loop, and the chunk of the enclosing loop or null
+  class ParallelFor(val parent : Evaluator#ForChunk) {
+    // the index of the first chunk that has an exception or an error so far
+    val failed = new atomic.AtomicInteger(Integer.MAX_VALUE)
+    def fail(index : Int) {
+      var f = failed.get
+      while (index < f && !failed.compareAndSet(f, index)) f = failed.get
+    }
+  }
+
+  class ForChunk(loop : ParallelFor, index : Int, env : Environment, pat : Pattern, block : Block,
+                 elements : Seq[Value], from : Int, to : Int) extends RecursiveAction
+  {
+    val yielded = new DefaultCollector()
+    @volatile var exception : ExceptionValue = null
+    @volatile var error : Throwable = null
+
+    // the result of the chunk is not needed anymore
+    def abandoned : Boolean = {
+      loop.failed.get < index || (loop.parent != null && loop.parent.abandoned)
+    }
+
+    def compute() {
+      val worker = Thread.currentThread.asInstanceOf[Worker]
+      val outer = worker.chunk
+      worker.chunk = this
+      try {
+        evalChunk()
+      } catch {
+        case ChunkAbandoned =>
+        case t : Throwable =>
+          error = t
+          loop.fail(index)
+      } finally {
+        worker.chunk = outer
+      }
+    }
+
+    private def evalChunk() {
+      val frame = env.copy()
+      var i = from
+      while (i < to) {
+        if (abandoned) return
+        matchPattern(frame, pat, elements(i), false) match {
+          case NoMatch() =>
+          case MatchX(x) =>
+            exception = x
+            loop.fail(index)
+            return
+          case DoesMatch(blockEnv) =>
+            evalBlock(blockEnv, yielded, block) match {
+              case BlockException(x) =>
+                exception = x
+                loop.fail(index)
+                return
+              case BlockCollector(_, _) =>
+            }
+        }
+        i = i + 1
+      }
+    }
+  }
+
   def evalBlock(env : Environment, coll : Collector, block : Block) : BlockResult = {
     var e = env
     var c = coll
@@ -984,14 +1256,28 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
     BlockCollector(e, c)
   }    
 
+  def patternSlots(pat : Pattern) : List[Int] = {
+    pat match {
+      case p : PId => List(p.slot)
+      case p : PAs => p.slot :: patternSlots(p.pattern)
+      case PPredicate(_, p) => patternSlots(p)
+      case PDestruct(_, p) => patternSlots(p)
+      case PIf(p, _) => patternSlots(p)
+      case PTypeVal(p, _) => patternSlots(p)
+      case p => CollectVars.subPatterns(p).flatMap(patternSlots _)
+    }
+  }
+
   def matchPattern(env : Environment, pat : Pattern, v : Value, rebind : Boolean) : MatchResult = {
     if (rebind) {
-      val rebindEnv = env.beginRebinding(pat.introducedVars)
-      matchPat(rebindEnv, pat, v, true) match {
-        case NoMatch() => NoMatch()
-        case MatchX(x) => MatchX(x)
-        case DoesMatch(_) =>
-          DoesMatch(env.endRebinding(rebindEnv, pat.introducedVars))
+      // the slots are overwritten while matching, restore them if the match fails
+      val slots = patternSlots(pat)
+      val saved = slots.map(env.lookup _)
+      matchPat(env, pat, v, true) match {
+        case DoesMatch(_) => DoesMatch(env)
+        case r =>
+          for ((slot, u) <- slots.zip(saved)) env.rebind(slot, u)
+          r
       }
     } else {
       matchPat(env, pat, v, false)
@@ -1039,8 +1325,8 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
       }
     }
     pat match {
-      case PId(id) =>
-        DoesMatch(if (rebind) env.rebind(id, v) else env.bind(id, v))
+      case p : PId =>
+        DoesMatch(if (rebind) env.rebind(p.slot, v) else env.bind(p.slot, v))
       case PAny() =>
         DoesMatch(env)
       case PEllipsis() =>
@@ -1107,12 +1393,12 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
             matchForIterator(env, plist, delta, iteratorOfValue(map), rebind, identity)
           case _ => NoMatch()
         }
-      case PAs(id, pat) =>
+      case p @ PAs(id, pat) =>
         matchPat(env, pat, v, rebind) match {
           case NoMatch() => NoMatch()
           case MatchX(x) => MatchX(x)
           case DoesMatch(env) =>
-            val newEnv = if (rebind) env.rebind(id, v) else env.bind(id, v)
+            val newEnv = if (rebind) env.rebind(p.slot, v) else env.bind(p.slot, v)
             DoesMatch(newEnv)
         }
       case PCons(head, tail) =>
@@ -1244,20 +1530,8 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
 
 
   def loadSystemLibrary() : Map[String, FunctionValue] = {
-    import java.io.InputStreamReader
-
-    import org.antlr.runtime.ANTLRReaderStream
-    import com.babel17.interpreter.parser.Parser
-
-    // get a reader for
-    val systemFilename = Interpreter.getClass.getResource("system.b17").toString
-    val inputStream = Interpreter.getClass.getResourceAsStream("system.b17")
-    val inputReader = new InputStreamReader(inputStream, "UTF-8")
-    val charstream = new ANTLRReaderStream(inputReader)
-    val source = new Source(systemFilename)
-    val result = Parser.parse(source, charstream)
     val fc = new FileCentral()
-    fc.updateB17File(source, result)
+    val systemFilename = ProgramCache.loadSystemLibrary(fc, true)
     val (term, termErrors) = fc.getScript(systemFilename).get
     val errors = fc.getErrors ++ termErrors
     if (errors.length > 0) throw EvalX("static errors in system library")
@@ -1265,8 +1539,8 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
     evalBlock(Evaluator.emptyEnv, new DefaultCollector(), term.asInstanceOf[Program.Block]) match {
       case BlockException(de) => throw EvalX("dynamic error in system library")
       case BlockCollector(env, _) =>
-        for ((id, v) <- env.freeze.nonlinear) {
-          v match {
+        for ((id, slot) <- term.asInstanceOf[Program.Block].slots) {
+          env.lookup(slot) match {
             case ev: EnvironmentValue =>
               ev.onLookup.force() match {
                 case f: FunctionValue =>
@@ -1280,7 +1554,6 @@ class Evaluator(val maxNumThreads : Int, val fileCentral : FileCentral,
           }
         }
     }
-    inputReader.close()
     return sys
   }
 
@@ -3,193 +3,374 @@ package com.babel17.naive
 import Program._
 import scala.collection.immutable.SortedSet
 import scala.collection.immutable.SortedMap
+import java.util.concurrent._
 import com.babel17.syntaxtree.Location
 import com.babel17.syntaxtree.Source
 import com.babel17.interpreter.parser.ErrorMessage
 import com.babel17.interpreter.parser._
 
 trait FileCentralFileListener {
-  def fileStatusHasChanged(filename : String, hasErrors : Boolean);  
+  def fileStatusHasChanged(filename : String, hasErrors : Boolean);
 }
 
 class FileCentral {
 
+  import FileCentral.Analysis
+
   case class B17File(source:Source, mds : List[ModuleSystem.ModuleDescr], script : Block, errors : List[ErrorMessage])
 
-  private var b17files : SortedMap[String, B17File] = SortedMap()
-  private var modules : Option[(SortedMap[Path, (ModuleSystem.ModuleDescr, Block)], List[ErrorMessage])] = None
-  private var moduleSystem : Option[ModuleSystem] = None
+  /* The files and what is derived from them. A snapshot never changes; updating a file
+   * replaces the current snapshot by a new one. Queries work on the snapshot that is
+   * current when they start and do not hold a lock while they analyze, so asking for the
+   * errors of a file does not wait for the modules of all files to be analyzed. */
+  private class Snapshot(val b17files : SortedMap[String, B17File]) {
+
+    lazy val moduleSystem : ModuleSystem = {
+      val ms = ModuleSystem.root
+      for ((filename, B17File(source, mds, script, errors)) <- b17files) {
+        ms.source = source
+        for (md <- mds) {
+          ms.add(md)
+        }
+      }
+      ms
+    }
+
+    lazy val modules : (SortedMap[Path, (ModuleSystem.ModuleDescr, Block)], List[ErrorMessage]) = {
+      analyzeModules(this)
+    }
+
+  }
+
+  @volatile private var snapshot = new Snapshot(SortedMap())
   private val sync = "sync"
-  
+
+  private val moduleAnalyses = new ConcurrentHashMap[Path, (ModuleSystem.ModuleDescr, Analysis)]()
+  private val scriptAnalyses = new ConcurrentHashMap[String, (B17File, Analysis)]()
+
+  // the files that were read from disk together with the digests of their contents,
+  // as long as their programs have not been written to the program cache
+  private val uncached = new ConcurrentHashMap[String, (String, B17File)]()
+
+  // whether files read from disk are taken from the program cache if it is up to date
+  @volatile var programCache = false
+
+  // the last text of each edited file that had no syntax errors
+  private val parsedTexts = new ConcurrentHashMap[String, ParsedText]()
+
 
   def updateB17File(source : Source, result : Parser.ParseResult) {
+    updateB17File(source, result, null)
+  }
+
+  // the file is not updated if the cancellation is cancelled before its program is built
+  def updateB17File(source : Source, result : Parser.ParseResult, cancellation : Cancellation) {
+    put(source.getFilename, makeB17File(source, result, cancellation), null)
+  }
+
+  /* The text of a file that is being edited. Only the top-level statements around the change
+   * since the text that was last parsed without syntax errors are parsed again, see
+   * ParsedText. A text with syntax errors is parsed as a whole, so that the errors are the
+   * same as before; the next text is then compared to the last one without errors. */
+  def updateB17File(source : Source, text : String, cancellation : Cancellation) {
     val filename = source.getFilename
+    val previous = parsedTexts.get(filename)
+    val parsed =
+      if (previous == null) ParsedText.parse(source, text, cancellation)
+      else ParsedText.reparse(source, previous, text, cancellation)
+    parsed match {
+      case Some(pt) =>
+        parsedTexts.put(filename, pt)
+        put(filename, B17File(source, pt.mds, pt.script, pt.errors), null)
+      case None =>
+        val result = Parser.parse(source, ParsedText.charStream(text, 0), cancellation)
+        updateB17File(source, result, cancellation)
+    }
+  }
+
+  private def makeB17File(source : Source, result : Parser.ParseResult, cancellation : Cancellation) : B17File = {
     val checker = new Tree2Program()
     checker.source = source
+    checker.cancellation = cancellation
     val term = checker.makeProgram(result)
+    makeB17File(source, term, Errors.fromParseResult(result) ++ checker.errors)
+  }
+
+  /* The content is parsed a statement at a time, which keeps the syntax trees of only one
+   * statement in memory. Only if it has syntax errors it is parsed as a whole again, so that
+   * the errors are reported as before. */
+  private def makeB17File(source : Source, content : Array[Byte]) : B17File = {
+    val checker = new Tree2Program()
+    checker.source = source
+    checker.makeProgram(ProgramCache.charStream(content)) match {
+      case Some(term) => makeB17File(source, term, checker.errors)
+      case None => makeB17File(source, ProgramCache.parse(source, content), null)
+    }
+  }
+
+  private def makeB17File(source : Source, term : Term, errors : List[ErrorMessage]) : B17File = {
     val mds = ModuleSystem.scanForModules(term)
     val script =
       ModuleSystem.scanScript(term) match {
         case Some((e, b)) => b
         case None => Block(List())
       }
-    val f = B17File(source, mds, script, Errors.fromParseResult(result) ++ checker.errors)
-    //moduleSystem = makeModuleSystem()
-    sync.synchronized {
-      b17files = b17files + (filename -> f)
-      moduleSystem = None
-      modules = None
-    }     
+    B17File(source, mds, script, errors)
   }
-  
-  def findFile(filename : String) : Option[B17File] = {
+
+  private def put(filename : String, f : B17File, digest : String) {
     sync.synchronized {
-      b17files.get(filename)
+      snapshot = new Snapshot(snapshot.b17files + (filename -> f))
+      if (digest == null) uncached.remove(filename)
+      else uncached.put(filename, (digest, f))
+    }
+  }
+
+  // parses the content of a file, the program can then be written to the program cache
+  def updateB17File(source : Source, content : Array[Byte], digest : String) {
+    put(source.getFilename, makeB17File(source, content), digest)
+  }
+
+  // takes the program of a file and its analyses from the program cache
+  def updateB17File(filename : String, entry : ProgramCache.Entry) {
+    val f = B17File(entry.source, entry.mds, entry.script, entry.errors)
+    for ((md, a) <- entry.mds zip entry.moduleAnalyses) {
+      moduleAnalyses.put(md.path, (md, a))
     }
+    scriptAnalyses.put(filename, (f, entry.scriptAnalysis))
+    put(filename, f, null)
+  }
+
+  def findFile(filename : String) : Option[B17File] = {
+    snapshot.b17files.get(filename)
   }
 
   def getFileNames(): Array[String] = {
-    b17files.keySet.toArray
+    snapshot.b17files.keySet.toArray
   }
-  
+
   def deleteB17File(filename : String) {
     sync.synchronized {
-      b17files = b17files - filename
-      moduleSystem = None
-      modules = None
+      snapshot = new Snapshot(snapshot.b17files - filename)
+      uncached.remove(filename)
+      parsedTexts.remove(filename)
     }
   }
-  
+
+  // reads the file from disk; with programCache set, its program is taken from the program
+  // cache if that is up to date
   def updateB17File(filename : String) {
     val f = new java.io.File(filename)
     if (f.exists) {
-      val result = Parser.parse(filename)
-      updateB17File(new Source(filename), result)
+      val content = ProgramCache.readFile(f)
+      val digest = ProgramCache.digest(content)
+      (if (programCache) ProgramCache.load(filename, digest) else None) match {
+        case Some(entry) => updateB17File(filename, entry)
+        case None => updateB17File(new Source(filename), content, digest)
+      }
     } else {
       deleteB17File(filename)
     }
   }
 
-  private def transformTerm(source : Source, term : Term) : (Term, List[ErrorMessage]) = {
-    val ms = moduleSystem.get
+  private def transformTerm(moduleSystem : ModuleSystem, source : Source, term : Term,
+                            cancellation : Cancellation) : Analysis = {
+    val ms = new RecordingModuleSystem(moduleSystem)
     val rt = new RemoveTemporaries(ms)
     rt.source = source
+    rt.cancellation = cancellation
     val rterm = rt.transform(term)
-    val linearScope = new LinearScope(moduleSystem.get)
+    val linearScope = new LinearScope(ms)
     linearScope.source = source
+    linearScope.cancellation = cancellation
     linearScope.check(linearScope.emptyEnv, rterm)
-    (rterm, rt.errors ++ linearScope.errors)
+    new ResolveSlots().resolve(rterm)
+    new Analysis(rterm, rt.errors ++ linearScope.errors, ms.lookups)
   }
 
-  private def updateModules {
-    updateModuleSystem
-    modules match {
-      case Some(_) =>
-      case None =>
-        var newModules : SortedMap[Path, (ModuleSystem.ModuleDescr, Block)] = SortedMap()
-        val ms = moduleSystem.get
-        var errors : List[ErrorMessage] = List()
-        for ((filename, B17File(source, mds, _, fileErrs)) <- b17files) {
-          errors = errors ++ fileErrs
-          for (md <- mds) {
-            val (code, errs) = transformTerm(source, SModule(md.path, md.code))
-            val block = code.asInstanceOf[SModule].b
-            errors = errors ++ errs
-            newModules += (md.path -> (md, block))
-          }
-        }
-        errors = ms.errors ++ errors
-        modules = Some((newModules, errors))
+  private def analyzeModule(ms : ModuleSystem, source : Source, md : ModuleSystem.ModuleDescr,
+                            cancellation : Cancellation) : Analysis = {
+    val cached = moduleAnalyses.get(md.path)
+    if (cached != null && (cached._1 eq md) && cached._2.isValid(ms)) cached._2
+    else {
+      val a = transformTerm(ms, source, SModule(md.path, md.code), cancellation)
+      moduleAnalyses.put(md.path, (md, a))
+      a
     }
   }
 
-  private def updateModuleSystem {
-    moduleSystem match {
-      case Some(_) =>
-      case None =>
-        val ms = ModuleSystem.root
-        for ((filename, B17File(source, mds, script, errors)) <- b17files) {
-          ms.source = source
-          for (md <- mds) {
-            ms.add(md)
-          }
-        }
-        moduleSystem = Some(ms)
+  private def analyzeScript(ms : ModuleSystem, filename : String, file : B17File,
+                            cancellation : Cancellation) : Analysis = {
+    val cached = scriptAnalyses.get(filename)
+    if (cached != null && (cached._1 eq file) && cached._2.isValid(ms)) cached._2
+    else {
+      val a = transformTerm(ms, file.source, file.script, cancellation)
+      scriptAnalyses.put(filename, (file, a))
+      a
     }
   }
 
-  def getModule(path : Path) : Option[(ModuleSystem.ModuleDescr, Block)] = {
-    sync.synchronized {
-      updateModules
-      modules.get._1.get(path)
+  /* The modules are transformed in parallel, as their transformations only read the module
+   * system. The errors are collected in the order of the files and of the modules within
+   * each file, whichever transformation finishes first. */
+  private def analyzeModules(s : Snapshot) : (SortedMap[Path, (ModuleSystem.ModuleDescr, Block)], List[ErrorMessage]) = {
+    val ms = s.moduleSystem
+    val tasks =
+      for ((filename, B17File(source, mds, _, _)) <- s.b17files.toList; md <- mds)
+        yield (() => analyzeModule(ms, source, md, null))
+    var analyses = FileCentral.inParallel(tasks)
+    var newModules : SortedMap[Path, (ModuleSystem.ModuleDescr, Block)] = SortedMap()
+    var errors : List[ErrorMessage] = List()
+    for ((filename, B17File(source, mds, _, fileErrs)) <- s.b17files) {
+      errors = errors ++ fileErrs
+      for (md <- mds) {
+        val a = analyses.head
+        analyses = analyses.tail
+        val block = a.term.asInstanceOf[SModule].b
+        errors = errors ++ a.errors
+        newModules += (md.path -> (md, block))
+      }
     }
+    errors = ms.errors ++ errors
+    // forget the analyses of modules and scripts that are gone
+    if (s eq snapshot) {
+      val paths = moduleAnalyses.keySet.iterator
+      while (paths.hasNext) if (!newModules.contains(paths.next)) paths.remove()
+      val filenames = scriptAnalyses.keySet.iterator
+      while (filenames.hasNext) if (!s.b17files.contains(filenames.next)) filenames.remove()
+    }
+    (newModules, errors)
+  }
+
+  def getModule(path : Path) : Option[(ModuleSystem.ModuleDescr, Block)] = {
+    snapshot.modules._1.get(path)
   }
-  
+
   def getErrors : List[ErrorMessage] = {
-    sync.synchronized {
-      updateModules
-      modules.get._2
-    }    
+    snapshot.modules._2
+  }
+
+  def getModules : SortedMap[Path, (ModuleSystem.ModuleDescr, Block)] = {
+    snapshot.modules._1
   }
 
   def getModuleSystem : ModuleSystem = {
-    sync.synchronized {
-      updateModuleSystem
-      moduleSystem.get
-    }
+    snapshot.moduleSystem
   }
 
   def getScript(filename : String) : Option[(Block, List[ErrorMessage])] = {
-    sync.synchronized {
-      updateModuleSystem
-      b17files.get(filename) match {
-        case None => None
-        case Some(b17file) =>
-          val (t, errors) = transformTerm(b17file.source, b17file.script)
-          Some((t.asInstanceOf[Block], errors))
-      }
+    val s = snapshot
+    s.b17files.get(filename) match {
+      case None => None
+      case Some(b17file) =>
+        val a = analyzeScript(s.moduleSystem, filename, b17file, null)
+        Some((a.term.asInstanceOf[Block], a.errors))
     }
   }
 
   def getErrorsOf(filename : String) : List[ErrorMessage] = {
-    sync.synchronized {
-      updateModuleSystem
-      val ms = moduleSystem.get
-      b17files.get(filename) match {
-        case None => List()
-        case Some(B17File(src, mds, script, errors)) =>
-          var es = errors
-          val (_, e1) = transformTerm(src, script)
-          es = es ++ e1
-          for (md <- mds) {
-            val (_, e) = transformTerm(src, SModule(md.path, md.code))
-            es = es ++ e
-          }
-          es
-      }
+    getErrorsOf(filename, null)
+  }
+
+  // the analyses are not cached if the cancellation is cancelled before they are done
+  def getErrorsOf(filename : String, cancellation : Cancellation) : List[ErrorMessage] = {
+    val s = snapshot
+    val ms = s.moduleSystem
+    s.b17files.get(filename) match {
+      case None => List()
+      case Some(file @ B17File(src, mds, script, errors)) =>
+        var es = errors
+        es = es ++ analyzeScript(ms, filename, file, cancellation).errors
+        for (md <- mds) {
+          es = es ++ analyzeModule(ms, src, md, cancellation).errors
+        }
+        es
     }
   }
-  
+
   def isErrorFree(filename : String) : Boolean = {
-    sync.synchronized {
-      updateModuleSystem
-      val ms = moduleSystem.get
-      b17files.get(filename) match {
-        case None => false
-        case Some(B17File(src, mds, script, errors)) =>
-          if (!errors.isEmpty) return false
-          val (_, e1) = transformTerm(src, script)
-          if (!e1.isEmpty) return false
-          for (md <- mds) {
-            val (_, e) = transformTerm(src, SModule(md.path, md.code))
-            if (!e.isEmpty) return false
-          }
-          true
+    val s = snapshot
+    val ms = s.moduleSystem
+    s.b17files.get(filename) match {
+      case None => false
+      case Some(file @ B17File(src, mds, script, errors)) =>
+        if (!errors.isEmpty) return false
+        if (!analyzeScript(ms, filename, file, null).errors.isEmpty) return false
+        for (md <- mds) {
+          if (!analyzeModule(ms, src, md, null).errors.isEmpty) return false
+        }
+        true
+    }
+  }
+
+  /* The program of a file that was read from disk, as it is written to the program cache.
+   * Only programs without errors are cached. */
+  def programCacheEntry(filename : String) : Option[ProgramCache.Entry] = {
+    val s = snapshot
+    val u = uncached.get(filename)
+    s.b17files.get(filename) match {
+      case Some(file @ B17File(src, mds, script, errors)) if u != null && (u._2 eq file) && errors.isEmpty =>
+        val ms = s.moduleSystem
+        val analyses = mds.map(md => analyzeModule(ms, src, md, null))
+        val a = analyzeScript(ms, filename, file, null)
+        if (a.errors.isEmpty && analyses.forall(_.errors.isEmpty))
+          Some(new ProgramCache.Entry(u._1, src, mds, script, errors, analyses, a))
+        else
+          None
+      case _ => None
+    }
+  }
+
+  // writes the programs of the files that were parsed from disk to the program cache
+  def writeProgramCache() {
+    for (filename <- getFileNames; entry <- programCacheEntry(filename)) {
+      if (ProgramCache.store(filename, entry)) uncached.remove(filename)
+    }
+  }
+
+}
+
+object FileCentral {
+
+  /* A transformed module or script together with the lookups its transformation made in
+   * the module system. It is reused as long as its file has not been updated and the
+   * lookups give the same answers; an edit therefore only causes the modules of the
+   * edited file and the modules that depend on what changed to be transformed again. */
+  class Analysis(val term : Term, val errors : List[ErrorMessage], val lookups : List[(Path, Any)])
+    extends java.io.Serializable
+  {
+    def isValid(ms : ModuleSystem) : Boolean = {
+      lookups.forall(l => ModuleSystem.signature(ms.find(l._1)) == l._2)
+    }
+  }
+
+  private val numThreads = Runtime.getRuntime.availableProcessors
+
+  private lazy val executor : ExecutorService = {
+    Executors.newFixedThreadPool(numThreads, new ThreadFactory {
+      def newThread(r : Runnable) : Thread = {
+        val t = new Thread(r)
+        t.setDaemon(true)
+        t
+      }
+    })
+  }
+
+  // the results of the tasks in their order; on a single processor the tasks run in turn
+  def inParallel[T](tasks : List[() => T]) : List[T] = {
+    if (numThreads < 2 || tasks.length < 2) return tasks.map(_())
+    val callables = new java.util.ArrayList[Callable[T]]()
+    for (task <- tasks) callables.add(new Callable[T] { def call() : T = task() })
+    val futures = executor.invokeAll(callables)
+    var results : List[T] = List()
+    for (i <- 0 until futures.size) {
+      try {
+        results = futures.get(i).get() :: results
+      } catch {
+        case e : ExecutionException => throw e.getCause
       }
     }
-   
+    results.reverse
   }
-  
-  
 
 }
@@ -18,10 +18,16 @@ object Interpreter {
 
   @throws(classOf[java.io.IOException])
   def parseAndAnalyze(fc : FileCentral, source : Source, reader : java.io.Reader) : java.util.Collection[ErrorMessage] = {
-    val charstream: CharStream = new ANTLRReaderStream(reader)
-    val result = Parser.parse(source, charstream)
-    fc.updateB17File(source, result)
-    val errors = Errors.cleanupErrors(fc.getErrorsOf(source.getFilename))
+    parseAndAnalyze(fc, source, reader, null)
+  }
+
+  /* Stops with Cancellation.Cancelled once the cancellation is cancelled; the file central
+   * then still holds the previous version of the file. */
+  @throws(classOf[java.io.IOException])
+  def parseAndAnalyze(fc : FileCentral, source : Source, reader : java.io.Reader,
+                      cancellation : Cancellation) : java.util.Collection[ErrorMessage] = {
+    fc.updateB17File(source, readText(reader), cancellation)
+    val errors = Errors.cleanupErrors(fc.getErrorsOf(source.getFilename, cancellation))
     val a : java.util.ArrayList[ErrorMessage] = new java.util.ArrayList(errors.length)
     for (e <- errors) {
       a.add(e)
@@ -29,6 +35,17 @@ object Interpreter {
     a
   }
   
+  private def readText(reader : java.io.Reader) : String = {
+    val text = new StringBuilder()
+    val buffer = new Array[Char](8192)
+    var n = reader.read(buffer)
+    while (n >= 0) {
+      text.appendAll(buffer, 0, n)
+      n = reader.read(buffer)
+    }
+    text.toString
+  }
+
   def parseSimpleExpression(s : String) : Option[SimpleExpression] = {
     val reader = new StringReader(s)
     val charstream: CharStream = new ANTLRReaderStream(reader)
@@ -75,6 +92,7 @@ object Interpreter {
       return
     }
     val fc = new FileCentral()
+    fc.programCache = options.programCache
     for (filename <- filenames) {
       fc.updateB17File(filename)
     }
@@ -83,6 +101,7 @@ object Interpreter {
     }
     val errors = Errors.cleanupErrors(fc.getErrors)
     if (writeStaticErrors(errors, w)) return
+    if (options.programCache) fc.writeProgramCache()
     var evaluator : Evaluator = null
     try {
       val cpus = Runtime.getRuntime().availableProcessors
@@ -92,7 +111,9 @@ object Interpreter {
       }
       evaluator = new Evaluator(cpus, fc, options)
       evaluator.writeOutput = w
+      if (options.moduleTimings) evaluator.moduleLoadListener = new ModuleLoadTimings(System.err)
       Evaluator.systemLibrary = evaluator.loadSystemLibrary
+      if (options.preloadModules) evaluator.moduleValues.preloadModules()
     } catch {
       case ex =>
         //ex.printStackTrace
@@ -162,6 +183,7 @@ object Interpreter {
       w.writeLineError("Please specify which file to execute!")
     } else {
       val fc = new FileCentral()
+      fc.programCache = options.programCache
       /*val t1 = System.currentTimeMillis */
       for (filename <- filenames) {
         fc.updateB17File(filename)
@@ -169,6 +191,8 @@ object Interpreter {
       val (term, termErrors) = fc.getScript(filenames(progIndex)).get
       val errors = Errors.cleanupErrors(fc.getErrors ++ termErrors)
       if (!writeStaticErrors(errors, w)) {
+        if (options.programCache) fc.writeProgramCache()
+        if (options.cpsRuntime && runOnCPSRuntime(term, w)) return
         try {
           val cpus = Runtime.getRuntime().availableProcessors
           if (cpus > 1) {
@@ -177,34 +201,11 @@ object Interpreter {
           }
           val evaluator = new Evaluator(cpus, fc, options)
           evaluator.writeOutput = w
+          if (options.moduleTimings) evaluator.moduleLoadListener = new ModuleLoadTimings(System.err)
           Evaluator.systemLibrary = evaluator.loadSystemLibrary
+          if (options.preloadModules) evaluator.moduleValues.preloadModules()
           val v = evaluator.evaluate(Evaluator.emptyEnv, term)
-          val fv = v.force()
-          w.writeLine("")
-          fv match {
-            case x : ExceptionValue =>
-              w.writeLineError("The program evaluated to a "+(if (x.dynamic) "dynamic" else "persistent")+" exception:")
-              w.writeLine("")
-              w.writeLine(x.v.stringDescr(false))
-              w.writeLine("")
-              if (x.getStackTrace.length == 0)
-                w.writeLine("There is no stacktrace.")
-              else {
-                if (x.getStackTrace.length == 1)
-                  w.writeLine("The stacktrace has "+x.getStackTrace.length+" entry:")
-                else
-                  w.writeLine("The stacktrace has "+x.getStackTrace.length+" entries:")
-                var i = 1;
-                for (m <- x.getStackTrace.reverse) {
-                  w.writeLocMsg(i+")", m.location, m.description);
-                  i = i + 1
-                }
-              }
-            case x =>
-              w.writeLineSuccess("The program has been evaluated successfully, its value is: ")
-              w.writeLine("")
-              w.writeLine(x.stringDescr(false))
-          }
+          writeResult(v.force(), w)
         } catch {
           case (ex @ Evaluator.EvalX(s)) =>
             ex.printStackTrace
@@ -225,9 +226,84 @@ object Interpreter {
 
   }
   
-  def defaultOptions : EvaluationOptions = EvaluationOptions(true, "")
+  // writes the value of a program, whichever interpreter computed it
+  private def writeResult(v : Value, w : WriteOutput) {
+    w.writeLine("")
+    v match {
+      case x : ExceptionValue =>
+        w.writeLineError("The program evaluated to a "+(if (x.dynamic) "dynamic" else "persistent")+" exception:")
+        w.writeLine("")
+        w.writeLine(x.v.stringDescr(false))
+        w.writeLine("")
+        if (x.getStackTrace.length == 0)
+          w.writeLine("There is no stacktrace.")
+        else {
+          if (x.getStackTrace.length == 1)
+            w.writeLine("The stacktrace has "+x.getStackTrace.length+" entry:")
+          else
+            w.writeLine("The stacktrace has "+x.getStackTrace.length+" entries:")
+          var i = 1;
+          for (m <- x.getStackTrace.reverse) {
+            w.writeLocMsg(i+")", m.location, m.description);
+            i = i + 1
+          }
+        }
+      case x =>
+        w.writeLineSuccess("The program has been evaluated successfully, its value is: ")
+        w.writeLine("")
+        w.writeLine(x.stringDescr(false))
+    }
+  }
 
-  def mainProc(args: Array[String]): Unit = {
+  /* Runs the script with the interpreter in com.babel17.interpreter.runtime. Returns false,
+   * and evaluates nothing, if Program2Runtime cannot translate the script. */
+  private def runOnCPSRuntime(term : Block, w : WriteOutput) : Boolean = {
+    val program =
+      try {
+        Program2Runtime.translateProgram(term)
+      } catch {
+        case Program2Runtime.Unsupported(reason) =>
+          w.writeLineCommentary("The CPS runtime does not support the program ("+reason+"), it is evaluated by the naive interpreter.")
+          w.writeLine("")
+          return false
+      }
+    writeResult(Program2Runtime.naiveValue(Program2Runtime.run(program)), w)
+    true
+  }
+
+  def defaultOptions : EvaluationOptions = EvaluationOptions(true, "", false, MemoTable.DEFAULT_CAPACITY, false, false, false, false, false)
+
+  /* The arguments are the files of the program, the first one holds the script; they may be
+   * preceded by options:
+   *   -cps       run the script with the interpreter in com.babel17.interpreter.runtime
+   *   -cache     take the programs of unchanged files from the program cache, and write the
+   *              cache file "<file>c" next to each file that was parsed, see ProgramCache
+   *   -preload   evaluate the modules before the script, see ModuleValues.preloadModules
+   *   -timings   write the time each module takes to load to standard error
+   *   -parallel  evaluate the for loops whose iterations are independent in parallel
+   *   -unittest  run the unit tests of the files instead of the script */
+  def mainProc(allArgs: Array[String]): Unit = {
+    var options = defaultOptions
+    var unittests = false
+    var args = allArgs
+    while (args.length > 0 && args(0).startsWith("-")) {
+      args(0) match {
+        case "-cps" => options = options.copy(cpsRuntime = true)
+        case "-cache" => options = options.copy(programCache = true)
+        case "-preload" => options = options.copy(preloadModules = true)
+        case "-timings" => options = options.copy(moduleTimings = true)
+        case "-parallel" => options = options.copy(parallelFor = true)
+        case "-unittest" => unittests = true
+        case option =>
+          new WriteOutput().writeLineError("Unknown option "+option)
+          return
+      }
+      args = args.tail
+    }
+    if (unittests) {
+      runUnittests(options, args, Array(), new WriteOutput())
+      return
+    }
     var arguments = args
     var progIndex = 0
     if (args.length > 0) {
@@ -241,7 +317,7 @@ object Interpreter {
         i = i + 1
       }
     }
-    run(defaultOptions, progIndex, arguments, new WriteOutput())
+    run(options, progIndex, arguments, new WriteOutput())
   }
 
   def main(args : Array[String]): Unit = {
@@ -23,6 +23,159 @@ object JavaCompiler {
   }
 
   def run(filename : String, w : WriteOutput) {
+    run(filename, w, CPS2Java.defaultCallStrategy, false)
+  }
+
+  /* Keeps the class files which the compiler writes in memory. Every definition of the CPS
+   * form becomes a local class within the class of the enclosing one, so the names of the
+   * class files of longer scripts are too long for most file systems. */
+  private class MemoryFileManager(m : javax.tools.StandardJavaFileManager)
+    extends javax.tools.ForwardingJavaFileManager[javax.tools.StandardJavaFileManager](m)
+  {
+    val classes = new java.util.HashMap[String, java.io.ByteArrayOutputStream]()
+
+    override def getJavaFileForOutput(location : javax.tools.JavaFileManager.Location, className : String,
+                                      kind : javax.tools.JavaFileObject.Kind,
+                                      sibling : javax.tools.FileObject) : javax.tools.JavaFileObject =
+    {
+      val bytes = new java.io.ByteArrayOutputStream()
+      classes.put(className, bytes)
+      new javax.tools.SimpleJavaFileObject(java.net.URI.create("mem:///"+className+kind.extension), kind) {
+        override def openOutputStream() : java.io.OutputStream = bytes
+      }
+    }
+  }
+
+  private class MemoryClassLoader(classes : java.util.HashMap[String, java.io.ByteArrayOutputStream],
+                                  parent : ClassLoader) extends ClassLoader(parent)
+  {
+    override def findClass(name : String) : Class[_] = {
+      val bytes = classes.get(name)
+      if (bytes == null) throw new ClassNotFoundException(name)
+      val b = bytes.toByteArray
+      defineClass(name, b, 0, b.length)
+    }
+  }
+
+  // compiles the generated Java source of className in-process with the system Java
+  // compiler and loads it; None if this fails
+  def compileAndLoad(className : String, source : String, w : WriteOutput) : Option[Class[_]] = {
+    val compiler = javax.tools.ToolProvider.getSystemJavaCompiler()
+    if (compiler == null) {
+      w.writeLineError("There is no Java compiler available, please run on a JDK instead of a JRE.")
+      return None
+    }
+    val unit = new javax.tools.SimpleJavaFileObject(java.net.URI.create("mem:///"+className+".java"),
+                                                    javax.tools.JavaFileObject.Kind.SOURCE) {
+      override def getCharContent(ignoreEncodingErrors : Boolean) : CharSequence = source
+    }
+    val fileManager = new MemoryFileManager(compiler.getStandardFileManager(null, null, null))
+    val messages = new java.io.StringWriter()
+    val options = java.util.Arrays.asList("-nowarn", "-cp", System.getProperty("java.class.path"))
+    val task = compiler.getTask(messages, fileManager, null, options, null, java.util.Arrays.asList(unit))
+    if (!task.call().booleanValue) {
+      w.writeLineError("The generated Java code could not be compiled:")
+      w.writeLine("")
+      w.writeLine(messages.toString)
+      return None
+    }
+    val loader = new MemoryClassLoader(fileManager.classes, getClass.getClassLoader)
+    Some(loader.loadClass(className))
+  }
+
+  // compiles and runs the script; the description of its value, or None if this fails
+  private def compileAndRun(term : Program.Block, w : WriteOutput,
+                            strategy : CPS2Java.CallStrategy, printSource : Boolean) : Option[String] =
+  {
+    val t1 = System.currentTimeMillis
+    val generator = new CPS2Java(strategy)
+    val javaPrinter = new Printer()
+    try {
+      val cexp = Program2CPS.translateProgram(term)
+      if (printSource) {
+        val printer = new Printer()
+        CPS.print(printer, cexp)
+        w.writeLine("CPS representation:")
+        w.writeLine(printer.toString)
+      }
+      generator.genClass(javaPrinter, "Program", cexp)
+    } catch {
+      case Program2CPS.Unsupported(reason) =>
+        w.writeLineError("The program uses a feature which the compiler does not support yet:")
+        w.writeLine("")
+        w.writeLine(reason)
+        return None
+      case generator.Unsupported(reason) =>
+        w.writeLineError("The program uses a feature which the compiler does not support yet:")
+        w.writeLine("")
+        w.writeLine(reason)
+        return None
+    }
+    if (printSource) {
+      w.writeLine("Java source code:")
+      w.writeLine(javaPrinter.toString)
+    }
+    try {
+      compileAndLoad("Program", javaPrinter.toString, w) match {
+        case None => None
+        case Some(c) =>
+          val t2 = System.currentTimeMillis
+          val result = c.getMethod("run").invoke(null)
+          val t3 = System.currentTimeMillis
+          w.writeLineCommentary("Compiled to Java in "+(t2-t1)+"ms, evaluated in "+(t3-t2)+"ms.")
+          w.writeLine("")
+          result match {
+            case x : com.babel17.jruntime.B17DynamicException =>
+              w.writeLineError("The program evaluated to a dynamic exception:")
+              w.writeLine("")
+              w.writeLine(x.toString)
+            case x =>
+              w.writeLineSuccess("The program has been evaluated successfully, its value is: ")
+              w.writeLine("")
+              w.writeLine(x.toString)
+          }
+          Some(result.toString)
+      }
+    } catch {
+      case ex : java.lang.reflect.InvocationTargetException
+          if ex.getCause.isInstanceOf[com.babel17.jruntime.Unsupported] =>
+        w.writeLineError("The program uses a feature which the compiler does not support yet:")
+        w.writeLine("")
+        w.writeLine(ex.getCause.getMessage)
+        None
+      case ex : java.lang.reflect.InvocationTargetException =>
+        val cause = ex.getCause
+        w.writeLineError("There was an internal error during the evaluation of the program:")
+        w.writeLine("")
+        if (cause.getMessage != null)
+          w.writeLine(cause.getClass.getName+": "+cause.getMessage)
+        else
+          w.writeLine(cause.getClass.getName.toString)
+        None
+    }
+  }
+
+  def run(filename : String, w : WriteOutput, strategy : CPS2Java.CallStrategy, printSource : Boolean) {
+    run(filename, w, strategy, printSource, false)
+  }
+
+  // the description of the value of the script according to the naive interpreter
+  private def interpret(filename : String) : String = {
+    val fc = new FileCentral()
+    fc.updateB17File(filename)
+    val (term, _) = fc.getScript(filename).get
+    val evaluator = new Evaluator(Runtime.getRuntime().availableProcessors, fc, Interpreter.defaultOptions)
+    Evaluator.systemLibrary = evaluator.loadSystemLibrary
+    evaluator.evaluate(Evaluator.emptyEnv, term).force() match {
+      case x : ExceptionValue => x.v.stringDescr(false)
+      case x => x.stringDescr(false)
+    }
+  }
+
+  /* With check the script is a unit test of the compiler: its compiled value must be the
+   * same as the value the naive interpreter computes. */
+  def run(filename : String, w : WriteOutput, strategy : CPS2Java.CallStrategy, printSource : Boolean,
+          check : Boolean) {
     w.writeLineCommentary("Babel-17 v0.21, Copyright \u00a9 2009 Steven Obua")
     w.writeLine("")
     w.writeLineCommentary("This program comes with ABSOLUTELY NO WARRANTY.")
@@ -34,7 +187,13 @@ object JavaCompiler {
       val result = Parser.parse(filename)
       val checker = new Tree2Program()
       checker.source = new Source(filename)
-      val term = checker.makeProgram(result)
+      var term = checker.makeProgram(result)
+      if (checker.errors.length == 0) {
+        val rt = new RemoveTemporaries(ModuleSystem.root)
+        rt.source = checker.source
+        term = rt.transform(term)
+        checker.errors = rt.errors
+      }
       if (checker.errors.length > 0) {
         val errors = checker.errors
         if (errors.length == 1)
@@ -50,23 +209,172 @@ object JavaCompiler {
       } else {
         term match {
           case b : Program.Block =>
-            val cexp = Program2CPS.translateExpr(Program2CPS.emptyEnv,
-              Program.EBlock(b), (env, pexp) => pexp)
-            val printer = new Printer()
-            CPS.print(printer, cexp)
-            println("CPS representation:")
-            println(printer)
-
+            CollectVars.collectVars(b)
+            val compiled = compileAndRun(b, w, strategy, printSource)
+            if (check) {
+              w.writeLine("")
+              val interpreted = interpret(filename)
+              if (compiled == Some(interpreted))
+                w.writeLineSuccess("unit test '"+filename+"' succeeded, the interpreter computes the same value")
+              else
+                w.writeLineError("unit test '"+filename+"' failed, the interpreter computes: "+interpreted)
+            }
         }
       }
     }
 
   }
 
+  private val ASSERTION = "ASSERTION_"
+
+  private def yieldAssertion(holds : Boolean) : Program.Block = {
+    Program.Block(List(Program.SYield(Program.ESimple(
+      Program.SEConstr(Program.Constr(ASSERTION), Program.SEBool(holds))))))
+  }
+
+  /* #assert and #catch within the statements of a module yield ASSERTION_ true or
+   * ASSERTION_ false, so that the compiled module reports its assertions in its value.
+   * Pragmas within expressions, for example in function bodies, are left alone; the
+   * compiler does not support them. */
+  private def yieldAssertions(b : Program.Block) : Program.Block = {
+    Program.Block(b.statements.map(yieldAssertions))
+  }
+
+  private def yieldAssertions(st : Program.Statement) : Program.Statement = {
+    st match {
+      case Program.SPragma(Program.PragmaAssert(e)) =>
+        Program.STry(
+          Program.Block(List(Program.SMatch(Program.SEExpr(e),
+            List((Program.PBool(true), yieldAssertion(true)), (Program.PAny(), yieldAssertion(false)))))),
+          List((Program.PAny(), yieldAssertion(false))))
+      case Program.SPragma(Program.PragmaCatch(e, pat)) =>
+        Program.STry(
+          Program.Block(Program.SVal(Program.PAny(), e) :: yieldAssertion(false).statements),
+          List((pat, yieldAssertion(true)), (Program.PAny(), yieldAssertion(false))))
+      case Program.SBlock(b) => Program.SBlock(yieldAssertions(b))
+      case Program.SIf(cond, yes, no) => Program.SIf(cond, yieldAssertions(yes), yieldAssertions(no))
+      case Program.SWhile(cond, body) => Program.SWhile(cond, yieldAssertions(body))
+      case Program.SFor(pat, coll, body) => Program.SFor(pat, coll, yieldAssertions(body))
+      case Program.SMatch(se, branches) =>
+        Program.SMatch(se, branches.map(b => (b._1, yieldAssertions(b._2))))
+      case Program.STry(b, branches) =>
+        Program.STry(yieldAssertions(b), branches.map(b => (b._1, yieldAssertions(b._2))))
+      case st => st
+    }
+  }
+
+  // the value of the compiled script, or why the compiler does not support it
+  private def evaluateCompiled(term : Program.Block, w : WriteOutput) : Either[String, AnyRef] = {
+    val generator = new CPS2Java(CPS2Java.defaultCallStrategy)
+    val javaPrinter = new Printer()
+    try {
+      generator.genClass(javaPrinter, "Program", Program2CPS.translateProgram(term))
+    } catch {
+      case Program2CPS.Unsupported(reason) => return Left(reason)
+      case generator.Unsupported(reason) => return Left(reason)
+    }
+    try {
+      compileAndLoad("Program", javaPrinter.toString, w) match {
+        case None => Left("the generated Java code could not be compiled")
+        case Some(c) => Right(c.getMethod("run").invoke(null))
+      }
+    } catch {
+      case ex : java.lang.reflect.InvocationTargetException
+          if ex.getCause.isInstanceOf[com.babel17.jruntime.Unsupported] =>
+        Left(ex.getCause.getMessage)
+    }
+  }
+
+  // the numbers of assertions of the compiled module which hold and fail
+  private def countAssertions(v : AnyRef) : (Int, Int) = {
+    import com.babel17.jruntime._
+    var holds = 0
+    var fails = 0
+    var l = v.asInstanceOf[B17List]
+    while (!l.isEmpty) {
+      val x = l.head
+      if (B17CExpr.matches(x, ASSERTION)) {
+        if (B17Value.isEqual(x.asInstanceOf[B17CExpr].param, B17Boolean.make(true))) holds = holds + 1
+        else fails = fails + 1
+      }
+      l = l.tail
+    }
+    (holds, fails)
+  }
+
+  /* Runs the unit test modules of the files both compiled and with the naive interpreter.
+   * A module passes if the same numbers of its assertions hold and fail; modules which
+   * use features the compiler does not support are skipped. */
+  def runUnittests(filenames : Array[String], w : WriteOutput) {
+    Interpreter.writeCopyrightInfo(w)
+    val fc = new FileCentral()
+    for (filename <- filenames) fc.updateB17File(filename)
+    if (Interpreter.writeStaticErrors(Errors.cleanupErrors(fc.getErrors), w)) return
+    val evaluator = new Evaluator(Runtime.getRuntime().availableProcessors, fc, Interpreter.defaultOptions)
+    Evaluator.systemLibrary = evaluator.loadSystemLibrary
+    val r = evaluator.assertionRecorder
+    var agree = 0
+    var disagree = 0
+    var skipped = 0
+    for (filename <- filenames; md <- fc.findFile(filename).get.mds if md.path.unittest) {
+      val name = md.path.toString
+      r.clear()
+      val interpreted = evaluator.evalModule(md.path).force() match {
+        case _ : ExceptionValue => (r.successes, r.failures + 1)
+        case _ => (r.successes, r.failures)
+      }
+      val block = fc.getModule(md.path).get._2
+      val program = Program.Block(List(Program.SYield(
+        Program.EWith(Program.SEList(List()), yieldAssertions(block)))))
+      CollectVars.collectVars(program)
+      evaluateCompiled(program, w) match {
+        case Left(reason) =>
+          skipped = skipped + 1
+          val r = if (reason.length > 100) reason.substring(0, 100)+"..." else reason
+          w.writeLineCommentary("unit test '"+name+"' is not compiled: "+r)
+        case Right(v) if v.isInstanceOf[com.babel17.jruntime.B17List] && countAssertions(v) == interpreted =>
+          agree = agree + 1
+          w.writeLineSuccess("unit test '"+name+"' compiled, "+interpreted._1+" of "+
+            (interpreted._1 + interpreted._2)+" assertions hold as in the interpreter")
+        case Right(v) =>
+          disagree = disagree + 1
+          w.writeLineError("unit test '"+name+"' compiled evaluates to "+v+
+            ", the interpreter counts "+interpreted._1+" assertions which hold and "+interpreted._2+" which fail")
+      }
+    }
+    w.writeLine("")
+    val summary = agree+" compiled unit test(s) agree with the interpreter, "+skipped+" are not compiled"
+    if (disagree == 0) w.writeLineSuccess(summary+".")
+    else w.writeLineError(disagree+" compiled unit test(s) disagree with the interpreter; "+summary+".")
+  }
+
+  // usage: JavaCompiler [-calls=direct|trampoline|depth:N] [-source] [-check] file
+  //        JavaCompiler -unittest file ...
+  // -source prints the CPS representation and the generated Java code
+  // -check compares the value with the one of the naive interpreter
+  // -unittest compares the assertions of the unit test modules with those of the naive interpreter
   def main(args: Array[String]): Unit = {
+    if (args.length > 0 && args(0) == "-unittest") {
+      runUnittests(args.drop(1), new WriteOutput())
+      return
+    }
     var f : String = null
-    if (args.length > 0) f = args(0)
-    run(f, new WriteOutput())
+    var strategy = CPS2Java.defaultCallStrategy
+    var printSource = false
+    var check = false
+    for (arg <- args) {
+      if (arg.startsWith("-calls=")) {
+        CPS2Java.parseCallStrategy(arg.substring(7)) match {
+          case Some(s) => strategy = s
+          case None =>
+            println("Unknown call strategy: "+arg.substring(7))
+            return
+        }
+      } else if (arg == "-source") printSource = true
+      else if (arg == "-check") check = true
+      else f = arg
+    }
+    run(f, new WriteOutput(), strategy, printSource, check)
   }
 
 
@@ -54,15 +54,15 @@ object JavaSourceCode {
             printer.print("private ")
             if (isStatic)
               printer.print("static ")
-            printer.println("B17Value _internal_"+defname+"(B17Value "+param+", Continuation "+cname+")")
+            printer.println("Thunk _internal_"+defname+"(B17Value "+param+", Continuation "+cname+", int depth)")
             rblock.printSourceCode(printer)
             printer.print("final ")
             if (isStatic) printer.print("static ")
             printer.println("B17Function "+defname+" = new B17Function() {")
             printer.addIndent
-            printer.println("public B17Value apply(B17Value x, Continuation c) {")
+            printer.println("public Thunk apply(B17Value x, Continuation c, int depth) {")
             printer.addIndent
-            printer.println("return _internal_"+defname+"(x, c);")
+            printer.println("return _internal_"+defname+"(x, c, depth);")
             printer.subIndent
             printer.println("}")
             printer.subIndent
@@ -71,15 +71,15 @@ object JavaSourceCode {
             printer.print("private ")
             if (isStatic)
               printer.print("static ")
-            printer.println("B17Value _internal_"+defname+"(Continuation "+cname+")")
+            printer.println("Thunk _internal_"+defname+"(Continuation "+cname+", int depth)")
             rblock.printSourceCode(printer)
             printer.print("final ")
             if (isStatic) printer.print("static ")
             printer.println("B17Suspension "+defname+" = new B17Suspension() {")
             printer.addIndent
-            printer.println("public B17Value apply(Continuation c) {")
+            printer.println("public Thunk apply(Continuation c, int depth) {")
             printer.addIndent
-            printer.println("return _internal_"+defname+"(c);")
+            printer.println("return _internal_"+defname+"(c, depth);")
             printer.subIndent
             printer.println("}")
             printer.subIndent
@@ -24,9 +24,13 @@ class LinearScope(moduleSystem : ModuleSystem) extends ErrorProducer {
     }
   }
   
-  case class SimpleEnvironment(nonlinear : SortedSet[Id]) {
+  // freezing keeps the linear identifiers apart so that it does not rebuild the set
+  case class SimpleEnvironment(nonlinear : SortedSet[Id], linear : SortedSet[Id]) {
     def thaw () : Environment = {
-      Environment(nonlinear, SortedSet())
+      Environment(nonlinear ++ linear, SortedSet())
+    }
+    def contains (id : Id) : Boolean = {
+      linear.contains(id) || nonlinear.contains(id)
     }
   }
 
@@ -36,7 +40,7 @@ class LinearScope(moduleSystem : ModuleSystem) extends ErrorProducer {
   
   case class Environment(nonlinear : SortedSet[Id], linear : SortedSet[Id]) {
     def freeze () : SimpleEnvironment = {
-      SimpleEnvironment(nonlinear ++ linear)
+      SimpleEnvironment(nonlinear, linear)
     }
     def freezeThaw () : Environment = {
       Environment(nonlinear ++ linear, SortedSet())
@@ -49,11 +53,13 @@ class LinearScope(moduleSystem : ModuleSystem) extends ErrorProducer {
     }
     def rebind (id : Id) : Environment = {
       lookup(linear, id, true)
+      rebound = rebound + id
       this
     }
     def rebind (ids : SortedSet[Id]) : Environment = {
       for (id <- ids)
         lookup(linear, id, true)
+      rebound = rebound ++ ids
       this
     }
     def define (id : Id) : Environment = {
@@ -62,6 +68,10 @@ class LinearScope(moduleSystem : ModuleSystem) extends ErrorProducer {
   }
   
   def emptyEnv () : Environment = Environment(SortedSet(), SortedSet())
+
+  // the identifiers rebound and whether pragmas occur since the enclosing for loop began
+  private var rebound : SortedSet[Id] = SortedSet()
+  private var pragmas : Boolean = false
   
   def check (env : Environment, t : Term) {
     val st_flags = TOPLEVEL_STATEMENT
@@ -78,6 +88,7 @@ class LinearScope(moduleSystem : ModuleSystem) extends ErrorProducer {
   def check_b (env : Environment, b : Block, st_flags : Int) {
     var e = env
     for (s <- b.statements) {
+      checkCancel()
       e = check_st (e, s, st_flags)
     }
     e
@@ -85,6 +96,9 @@ class LinearScope(moduleSystem : ModuleSystem) extends ErrorProducer {
   
   def check_st (env : Environment, st : Statement, st_flags : Int) : Environment = {
     st match {
+      case SPragma(_) if !pragmas =>
+        pragmas = true
+        check_st(env, st, st_flags)
       case SPragma(PragmaPrint(e)) =>
         check_e(env, e)
         env
@@ -181,10 +195,19 @@ class LinearScope(moduleSystem : ModuleSystem) extends ErrorProducer {
         check_simple(env.freeze(), cond)
         check_b(env, body, 0)
         env
-      case SFor(pat, col, body) =>
+      case st @ SFor(pat, col, body) =>
         check_simple(env.freeze(), col)
         val env2 = check_p(env, pat, false)
+        val outerRebound = rebound
+        val outerPragmas = pragmas
+        rebound = SortedSet()
+        pragmas = false
         check_b(env2, body, 0)
+        // the iterations of the loop only depend on each other if the body assigns to
+        // identifiers of the enclosing scope, or if it prints, logs or asserts something
+        st.independent = !pragmas && !rebound.exists(env.linear.contains(_))
+        rebound = outerRebound ++ rebound
+        pragmas = outerPragmas || pragmas
         env
       case SMatch(se, branches) =>
         check_simple(env.freeze(), se)
@@ -294,7 +317,7 @@ class LinearScope(moduleSystem : ModuleSystem) extends ErrorProducer {
   def check_simple (env : SimpleEnvironment, simple : SimpleExpression) {
     simple match {
       case SEId(id) =>
-        lookup(env.nonlinear, id, false)
+        if (!env.contains(id)) lookup(env.nonlinear, id, false)
       case SEExpr(e) => 
         check_e(env.thaw, e)
       case SEFun(_, branches) =>
@@ -0,0 +1,110 @@
+package com.babel17.naive
+
+import scala.collection.immutable.SortedMap
+import scala.collection.immutable.TreeMap
+import Values._
+
+/* The results of a memoized function. Arguments with a structural hash are kept in
+ * segments that are locked separately, so calls on different threads rarely wait for
+ * each other. Each segment holds at most its share of the capacity and evicts its least
+ * recently used entry when it is full. With weak memoization the results are only softly
+ * referenced, so the garbage collector may drop them, too. Arguments without a structural
+ * hash are kept in a sorted map as before, which is cleared once it is full. */
+class MemoTable(capacity : Int, weak : Boolean) {
+
+  import MemoTable._
+
+  // a small table needs fewer segments; a segment is only created by the first put into it
+  private val numSegments = segmentsFor(capacity)
+
+  private val segments = new java.util.concurrent.atomic.AtomicReferenceArray[Segment](numSegments)
+
+  private var ordered : SortedMap[Value, AnyRef] = new TreeMap()(defaultValueOrdering)
+
+  private def segmentIndex(key : HashKey) : Int = {
+    val h = key.hash
+    (h ^ (h >>> 16)) & (numSegments - 1)
+  }
+
+  private def createSegment(i : Int) : Segment = {
+    val s = new Segment(scala.math.max(1, capacity / numSegments))
+    if (segments.compareAndSet(i, null, s)) s else segments.get(i)
+  }
+
+  // the result for key, or null; hkey is the hash key of key or null if it has none
+  def get(key : Value, hkey : HashKey) : Value = {
+    val r =
+      if (hkey != null) {
+        val segment = segments.get(segmentIndex(hkey))
+        if (segment == null) null
+        else segment.synchronized {
+          segment.get(hkey)
+        }
+      } else {
+        this.synchronized {
+          try {
+            ordered.get(key) match {
+              case Some(r) => r
+              case None => null
+            }
+          } catch {
+            case UnrelatedX => null
+          }
+        }
+      }
+    r match {
+      case null => null
+      case r : java.lang.ref.Reference[_] => r.get.asInstanceOf[Value]
+      case r : Value => r
+    }
+  }
+
+  def put(key : Value, hkey : HashKey, v : Value) {
+    val r = if (weak) new java.lang.ref.SoftReference(v) else v
+    if (hkey != null) {
+      val i = segmentIndex(hkey)
+      var segment = segments.get(i)
+      if (segment == null) segment = createSegment(i)
+      segment.synchronized {
+        segment.put(hkey, r)
+      }
+    } else {
+      this.synchronized {
+        try {
+          if (ordered.size >= capacity) ordered = ordered.empty
+          ordered = ordered + (key -> r)
+        } catch {
+          case UnrelatedX =>
+        }
+      }
+    }
+  }
+
+}
+
+object MemoTable {
+
+  val SEGMENTS = 16
+
+  // the least number of entries a segment holds when there are several
+  val MIN_SEGMENT_CAPACITY = 64
+
+  // a power of two, at most SEGMENTS
+  private def segmentsFor(capacity : Int) : Int = {
+    var n = 1
+    while (n < SEGMENTS && (n * 2) * MIN_SEGMENT_CAPACITY <= capacity) n = n * 2
+    n
+  }
+
+  // the number of results a memoized function keeps by default
+  val DEFAULT_CAPACITY = 1 << 20
+
+  private class Segment(capacity : Int)
+    extends java.util.LinkedHashMap[HashKey, AnyRef](16, 0.75f, true)
+  {
+    override def removeEldestEntry(eldest : java.util.Map.Entry[HashKey, AnyRef]) : Boolean = {
+      size > capacity
+    }
+  }
+
+}
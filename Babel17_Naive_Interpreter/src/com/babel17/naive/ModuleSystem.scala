@@ -9,7 +9,9 @@ import com.babel17.interpreter.parser.ErrorMessage
 
 object ModuleSystem {
 
-  case class ModuleDescr(path : Path, typeIds : SortedSet[Id], messages : SortedSet[Id], code : Block) {
+  case class ModuleDescr(path : Path, typeIds : SortedSet[Id], messages : SortedSet[Id], code : Block)
+    extends java.io.Serializable
+  {
     def isType : Boolean = {
       if (path.length > 0)
         typeIds.contains(path.last)
@@ -185,6 +187,69 @@ object ModuleSystem {
     new ModuleSystem(PackageDescr(SortedMap(), Some(rootModule)))
   }
 
+  /* All that a transformation can learn from the result of find: the flags, the
+   * definitions and types of the module found, and which of its branches are modules
+   * or types. Two results with equal signatures are interchangeable. */
+  def signature(found : Option[Found]) : Any = {
+    found match {
+      case None => None
+      case Some(Found(pd, flags)) =>
+        val branches = for ((id, b) <- pd.branches.toList) yield (id, b.module.map(_.isType))
+        val module = pd.module.map(md => (md.path, md.typeIds, md.messages))
+        (flags, branches, module)
+    }
+  }
+
+  /* The modules that evaluating the term may load, as found in the package tree under root:
+   * an identifier followed by the messages sent to it refers to each module along its path.
+   * If the path ends in a package or module, that value can reach all the modules below it,
+   * and root can reach all modules. Identifiers are not told apart from the local values they
+   * may shadow, so there can be more references than the term actually makes, but not fewer. */
+  def references(root : PackageDescr, term : Term) : SortedSet[Path] = {
+    var refs : SortedSet[Path] = SortedSet()
+    def below(pd : PackageDescr) {
+      for (md <- pd.module) refs = refs + md.path
+      for (b <- pd.branches.values) below(b)
+    }
+    def path(ids : List[Id]) {
+      var pd = root
+      var rest = ids
+      while (!rest.isEmpty) {
+        if (!pd.branches.contains(rest.head)) return
+        pd = pd.branches(rest.head)
+        for (md <- pd.module) refs = refs + md.path
+        rest = rest.tail
+      }
+      below(pd)
+    }
+    def visit(x : Any) {
+      x match {
+        case null =>
+        case s : SImport => visit(s.target)
+        case SEMessageSend(target, m) =>
+          var messages = List(m)
+          var t = target
+          while (t.isInstanceOf[SEMessageSend]) {
+            val send = t.asInstanceOf[SEMessageSend]
+            messages = send.m :: messages
+            t = send.target
+          }
+          t match {
+            case SEId(id) => path(id :: messages)
+            case SERoot() => path(messages)
+            case _ => visit(t)
+          }
+        case SEId(id) => path(List(id))
+        case SERoot() => below(root)
+        case l : List[_] => l.foreach(visit)
+        case p : Product => p.productIterator.foreach(visit)
+        case _ =>
+      }
+    }
+    visit(term)
+    refs
+  }
+
 
   def rootModule : ModuleDescr = {
 
@@ -221,7 +286,7 @@ class ModuleSystem(var _root : ModuleSystem.PackageDescr) extends ErrorProducer
   import ModuleSystem._
 
   def root = _root
-  def find (p : Path) = root.find(p)
+  def find (p : Path) : Option[Found] = root.find(p)
 
   def add(md : ModuleDescr) : Boolean = {
     _root.add(md) match {
@@ -238,3 +303,17 @@ class ModuleSystem(var _root : ModuleSystem.PackageDescr) extends ErrorProducer
 
 }
 
+/* A view of a module system that records the signatures of the lookups made through it,
+ * so that FileCentral can tell whether a transformation is still valid for a changed
+ * module system. */
+class RecordingModuleSystem(ms : ModuleSystem) extends ModuleSystem(ms.root) {
+
+  var lookups : List[(Path, Any)] = List()
+
+  override def find (p : Path) : Option[ModuleSystem.Found] = {
+    val found = super.find(p)
+    lookups = (p, ModuleSystem.signature(found)) :: lookups
+    found
+  }
+
+}
@@ -6,8 +6,25 @@ import Evaluator._
 import scala.collection.immutable.SortedSet
 import scala.collection.immutable.SortedMap
 import java.util.concurrent._
+import scala.concurrent.forkjoin.ForkJoinTask
+import scala.concurrent.forkjoin.RecursiveAction
 import com.babel17.syntaxtree.Source
 
+/* Told how long the evaluation of each module took, in nanoseconds. The time includes the
+ * evaluation of the modules it uses that were not loaded yet; preloaded modules find the
+ * modules they use loaded already. Modules may be evaluated on several threads at once. */
+trait ModuleLoadListener {
+  def moduleLoaded(path : Path, nanos : Long, preloaded : Boolean);
+}
+
+// writes the load time of each module to the stream, one line per module
+class ModuleLoadTimings(out : java.io.PrintStream) extends ModuleLoadListener {
+  def moduleLoaded(path : Path, nanos : Long, preloaded : Boolean) {
+    val ms = "%.3f".format(nanos / 1000000.0)
+    out.println("module "+path+" loaded in "+ms+"ms"+(if (preloaded) " (preloaded)" else ""))
+  }
+}
+
 class ModuleValues(evaluator : Evaluator, fileCentral : FileCentral) {
 
   class ModuleState
@@ -108,7 +125,7 @@ class ModuleValues(evaluator : Evaluator, fileCentral : FileCentral) {
       case BlockCollector(env, _) =>
         var s : SortedMap[Id, Value] = SortedMap.empty
         for (m <- md.messages) {
-          s = s + (Id(m.name) -> env.lookup(m))
+          s = s + (Id(m.name) -> env.lookup(block.slots(m)))
         }
         ModuleValue(md.path, s)
     }
@@ -133,9 +150,25 @@ class ModuleValues(evaluator : Evaluator, fileCentral : FileCentral) {
     }
   }
   
-  def getModuleValue(path : Path) : Option[Value] = {
+  def getModuleValue(path : Path) : Option[Value] = getModuleValue(path, false)
+
+  private def getModuleValue(path : Path, preloaded : Boolean) : Option[Value] = {
     val cv = checkModuleValue(path)
     if (cv.isDefined) return cv
+    if (evaluator.threads == null) loadModuleValue(path, preloaded)
+    else {
+      // the scope is closed only after the module is up, as its concurrent values
+      // might need the module themselves
+      val scope = ConcurrencyScope.open()
+      try {
+        loadModuleValue(path, preloaded)
+      } finally {
+        ConcurrencyScope.close(scope)
+      }
+    }
+  }
+
+  private def loadModuleValue(path : Path, preloaded : Boolean) : Option[Value] = {
     val loading = ModuleStateLoading(Thread.currentThread.getId, None)
     var lostRace = false
     loading.synchronized {
@@ -160,7 +193,10 @@ class ModuleValues(evaluator : Evaluator, fileCentral : FileCentral) {
                     None
               }
             case Some((md, block)) =>
+              val start = System.nanoTime
               val v = evalModuleBlock(md, block)
+              val listener = evaluator.moduleLoadListener
+              if (listener != null) listener.moduleLoaded(path, System.nanoTime - start, preloaded)
               Some(v)
           }
         r match {
@@ -178,6 +214,48 @@ class ModuleValues(evaluator : Evaluator, fileCentral : FileCentral) {
     return checkModuleValue(path)
   }
 
+  /* Evaluates the modules before the program needs them. The references between the modules
+   * are ordered into rounds: a module is evaluated in the first round after all modules it
+   * refers to, and the modules of a round are evaluated in parallel. As the modules a module
+   * refers to are up before it is evaluated, it never waits for a module that another
+   * thread is evaluating. Modules that are part of a cycle or refer to one, and unit tests,
+   * are left to be evaluated when they are used, as before. */
+  def preloadModules() {
+    val modules = fileCentral.getModules
+    val root = fileCentral.getModuleSystem.root
+    var pending : SortedMap[Path, SortedSet[Path]] = SortedMap()
+    for ((path, (md, block)) <- modules if !path.unittest) {
+      pending += (path -> ModuleSystem.references(root, block).filter(p => p != path && modules.contains(p)))
+    }
+    var up : SortedSet[Path] = SortedSet()
+    var round = pending.filter(_._2.subsetOf(up)).keySet.toList
+    while (!round.isEmpty) {
+      preloadInParallel(round)
+      up = up ++ round
+      pending = pending -- round
+      round = pending.filter(_._2.subsetOf(up)).keySet.toList
+    }
+  }
+
+  private def preloadInParallel(paths : List[Path]) {
+    val pool = evaluator.pool
+    if (pool == null || paths.length < 2) {
+      for (path <- paths) getModuleValue(path, true)
+    } else {
+      val tasks = new java.util.ArrayList[RecursiveAction]()
+      for (path <- paths) tasks.add(new RecursiveAction {
+        def compute() {
+          getModuleValue(path, true)
+        }
+      })
+      pool.invoke(new RecursiveAction {
+        def compute() {
+          ForkJoinTask.invokeAll(tasks)
+        }
+      })
+    }
+  }
+
   def findModuleValue(path : Path) : Value = {
     getModuleValue(path) match {
       case None =>
@@ -0,0 +1,160 @@
+package com.babel17.naive
+
+import Program._
+import scala.collection.mutable.ArrayBuffer
+import org.antlr.runtime.ANTLRStringStream
+import org.antlr.runtime.CharStream
+import com.babel17.syntaxtree.Source
+import com.babel17.interpreter.parser.ErrorMessage
+import com.babel17.interpreter.parser.Cancellation
+
+/* The text of a file without lexical or syntax errors, split into its top-level statements,
+ * together with the modules declared in each statement. An edited text is parsed by reparse,
+ * which parses only the statements around the change and takes the others, and their
+ * modules, from the previous text. Editing one module of a large file then costs time in
+ * proportion to the size of the module, and the analyses of the other modules stay valid. */
+class ParsedText private (val text : String, val statements : Array[ParsedText.TopLevel],
+                          val imports : List[TempImport], val moduleDescrs : Array[List[ModuleSystem.ModuleDescr]])
+{
+
+  def mds : List[ModuleSystem.ModuleDescr] = moduleDescrs.toList.flatten
+
+  def errors : List[ErrorMessage] = statements.toList.reverse.flatMap(_.errors)
+
+  def script : Block = {
+    ModuleSystem.scanScript(Block(statements.toList.map(_.statement))) match {
+      case Some((e, b)) => b
+      case None => Block(List())
+    }
+  }
+
+}
+
+object ParsedText {
+
+  /* A top-level statement, the indices of its first and last character in the text, and the
+   * errors Tree2Program found in it. */
+  class TopLevel(val statement : Statement, val start : Int, val stop : Int,
+                 val errors : List[ErrorMessage])
+
+  // the stream of the text from the character at index start on
+  def charStream(text : String, start : Int) : CharStream = {
+    val stream = new ANTLRStringStream(text.substring(start))
+    stream.setLine(1 + newlines(text, 0, start))
+    stream.setCharPositionInLine(column(text, start))
+    stream
+  }
+
+  private def newlines(text : String, from : Int, to : Int) : Int = {
+    var n = 0
+    var i = from
+    while (i < to) {
+      if (text.charAt(i) == '\n') n = n + 1
+      i = i + 1
+    }
+    n
+  }
+
+  private def column(text : String, i : Int) : Int = i - (text.lastIndexOf('\n', i - 1) + 1)
+
+  // None if the text has lexical or syntax errors
+  def parse(source : Source, text : String, cancellation : Cancellation) : Option[ParsedText] = {
+    val statements = new ArrayBuffer[TopLevel]()
+    if (!makeStatements(source, text, 0, start => true, statements, cancellation)) None
+    else Some(make(text, statements.toArray, null))
+  }
+
+  /* Parses the text as an edit of the previous text. The statements before the change are
+   * kept, except the last one, as the change may continue it. The parse starts there and
+   * stops at the first statement after the change that starts where a statement of the
+   * previous text started, on the same line and in the same column; that statement and
+   * the ones after it are kept, too. Terms know their lines, so after an edit that changes
+   * the number of lines the rest of the text is parsed. None if the text has lexical or
+   * syntax errors. */
+  def reparse(source : Source, previous : ParsedText, text : String,
+              cancellation : Cancellation) : Option[ParsedText] = {
+    val old = previous.text
+    if (old == text) return Some(previous)
+    val n = math.min(old.length, text.length)
+    var p = 0
+    while (p < n && old.charAt(p) == text.charAt(p)) p = p + 1
+    var s = 0
+    while (s < n - p && old.charAt(old.length - 1 - s) == text.charAt(text.length - 1 - s)) s = s + 1
+    val oldEnd = old.length - s
+    val newEnd = text.length - s
+    val delta = newEnd - oldEnd
+    val sameLines = newlines(old, p, oldEnd) == newlines(text, p, newEnd)
+    val sts = previous.statements
+    var k = 0
+    while (k < sts.length && sts(k).stop < p - 1) k = k + 1
+    k = math.max(k - 1, 0)
+    val from = if (k == 0) 0 else sts(k).start
+    var resume = -1
+    def include(start : Int) : Boolean = {
+      if (start < newEnd || !sameLines) return true
+      val i = find(sts, start - delta)
+      if (i < 0 || column(text, start) != column(old, start - delta)) return true
+      resume = i
+      false
+    }
+    val statements = new ArrayBuffer[TopLevel]()
+    for (i <- 0 until k) statements += sts(i)
+    if (!makeStatements(source, text, from, include, statements, cancellation)) return None
+    if (resume >= 0) {
+      for (i <- resume until sts.length) {
+        val t = sts(i)
+        statements += new TopLevel(t.statement, t.start + delta, t.stop + delta, t.errors)
+      }
+    }
+    Some(make(text, statements.toArray, previous))
+  }
+
+  private def makeStatements(source : Source, text : String, from : Int, include : Int => Boolean,
+                             statements : ArrayBuffer[TopLevel], cancellation : Cancellation) : Boolean = {
+    val checker = new Tree2Program()
+    checker.source = source
+    checker.cancellation = cancellation
+    checker.makeStatements(charStream(text, from), from, include,
+      (st, start, stop, es) => statements += new TopLevel(st, start, stop, es))
+  }
+
+  // the index of the statement that starts at the given index, or -1
+  private def find(statements : Array[TopLevel], start : Int) : Int = {
+    var lo = 0
+    var hi = statements.length - 1
+    while (lo <= hi) {
+      val mid = (lo + hi) / 2
+      val s = statements(mid).start
+      if (s == start) return mid
+      if (s < start) lo = mid + 1 else hi = mid - 1
+    }
+    -1
+  }
+
+  /* The modules of a statement depend on the statement and on the imports of the text; they
+   * are taken from the previous text if both are the same. */
+  private def make(text : String, statements : Array[TopLevel], previous : ParsedText) : ParsedText = {
+    var imports : List[TempImport] = List()
+    for (t <- statements) {
+      t.statement match {
+        case i : TempImport => imports = i :: imports
+        case _ =>
+      }
+    }
+    imports = imports.reverse
+    val known = new java.util.IdentityHashMap[Statement, List[ModuleSystem.ModuleDescr]]()
+    if (previous != null && previous.imports.length == imports.length &&
+        (previous.imports zip imports).forall(i => i._1 eq i._2)) {
+      for (i <- 0 until previous.statements.length)
+        known.put(previous.statements(i).statement, previous.moduleDescrs(i))
+    }
+    val mds = new Array[List[ModuleSystem.ModuleDescr]](statements.length)
+    for (i <- 0 until statements.length) {
+      val st = statements(i).statement
+      val m = known.get(st)
+      mds(i) = if (m != null) m else ModuleSystem.scanForModules(Path(List()), imports, st)
+    }
+    new ParsedText(text, statements, imports, mds)
+  }
+
+}
@@ -0,0 +1,235 @@
+package com.babel17.naive
+
+import Values.Value
+
+/* The elements of a vector value. The elements are stored in a trie with 32-way branching,
+ * the last incomplete leaf of the trie is kept apart as the tail. Looking up an element
+ * and appending an element copy O(log32 n) nodes, the other nodes are shared with the
+ * original vector. A vector can be a view onto the elements from start to end of a trie,
+ * so take and drop are O(1). */
+final class PersistentVector private (private val trie : PersistentVector.Trie,
+                                      start : Int, end : Int) {
+
+  import PersistentVector._
+
+  def length : Int = end - start
+
+  def isEmpty : Boolean = end == start
+
+  def apply(i : Int) : Value = {
+    if (i < 0 || i >= length) throw new IndexOutOfBoundsException(i.toString)
+    val j = start + i
+    trie.leafFor(j)(j & MASK)
+  }
+
+  def take(n : Int) : PersistentVector = {
+    if (n <= 0) EMPTY
+    else if (n >= length) this
+    else new PersistentVector(trie, start, start + n)
+  }
+
+  def drop(n : Int) : PersistentVector = {
+    if (n <= 0) this
+    else if (n >= length) EMPTY
+    else new PersistentVector(trie, start + n, end)
+  }
+
+  def appended(x : Value) : PersistentVector = {
+    val b = newBuilder
+    b += x
+    b.result
+  }
+
+  def concat(that : PersistentVector) : PersistentVector = {
+    if (that.isEmpty) this
+    else if (isEmpty) that
+    else {
+      val b = newBuilder
+      b ++= that.iterator
+      b.result
+    }
+  }
+
+  // a builder that starts with the elements of this vector
+  def newBuilder : Builder = {
+    if (start == 0 && end == trie.count) new Builder(trie)
+    else new Builder(fromArray(toArray).trie)
+  }
+
+  def iterator : Iterator[Value] = new Iterator[Value] {
+    private var i = start
+    private var leaf : Array[Value] = null
+    def hasNext : Boolean = i < end
+    def next() : Value = {
+      if (i >= end) throw new NoSuchElementException()
+      if (leaf == null || (i & MASK) == 0) leaf = trie.leafFor(i)
+      val x = leaf(i & MASK)
+      i = i + 1
+      x
+    }
+  }
+
+  // the elements as an array; if the vector is small, the array may be shared
+  def toArray : Array[Value] = {
+    if (start == 0 && end == trie.count && trie.count == trie.tail.length)
+      trie.tail
+    else {
+      val a = new Array[Value](length)
+      var i = start
+      while (i < end) {
+        val leaf = trie.leafFor(i)
+        val offset = i & MASK
+        val n = scala.math.min(WIDTH - offset, end - i)
+        System.arraycopy(leaf, offset, a, i - start, n)
+        i = i + n
+      }
+      a
+    }
+  }
+
+}
+
+object PersistentVector {
+
+  private val BITS = 5
+  private val WIDTH = 1 << BITS
+  private val MASK = WIDTH - 1
+
+  private val EMPTY_NODE = new Array[AnyRef](0)
+  private val EMPTY_LEAF = new Array[Value](0)
+
+  /* count is the number of elements of the trie; the leaves of root are arrays of values,
+   * all other nodes are arrays of nodes. */
+  private[naive] final class Trie(val count : Int, val shift : Int, val root : Array[AnyRef],
+                           val tail : Array[Value]) {
+
+    def tailOffset : Int = count - tail.length
+
+    def leafFor(i : Int) : Array[Value] = {
+      if (i >= tailOffset) tail
+      else {
+        var node = root
+        var level = shift
+        while (level > BITS) {
+          node = node((i >>> level) & MASK).asInstanceOf[Array[AnyRef]]
+          level = level - BITS
+        }
+        node((i >>> level) & MASK).asInstanceOf[Array[Value]]
+      }
+    }
+
+  }
+
+  val EMPTY = new PersistentVector(new Trie(0, BITS, EMPTY_NODE, EMPTY_LEAF), 0, 0)
+
+  def fromArray(a : Array[Value]) : PersistentVector = {
+    if (a.length == 0) EMPTY
+    else if (a.length <= WIDTH)
+      new PersistentVector(new Trie(a.length, BITS, EMPTY_NODE, a), 0, a.length)
+    else {
+      val b = new Builder(EMPTY.trie)
+      b ++= a.iterator
+      b.result
+    }
+  }
+
+  /* Appends values to a trie. The tail is a private array the builder fills in place;
+   * only when it is full it is pushed into the trie, which copies the O(log32 n) nodes on
+   * the path to the new leaf. Nodes created by the builder itself are not copied again. */
+  final class Builder private[PersistentVector] (trie : Trie) {
+
+    private var count = trie.tailOffset
+    private var shift = trie.shift
+    private var root : Array[AnyRef] = trie.root
+    private var tail = new Array[Value](WIDTH)
+    private var tailLength = trie.tail.length
+    System.arraycopy(trie.tail, 0, tail, 0, tailLength)
+    // the nodes that were created by this builder and may be modified in place
+    private val owned = new java.util.IdentityHashMap[Array[AnyRef], AnyRef]()
+
+    def +=(x : Value) : Builder = {
+      if (tailLength == WIDTH) {
+        pushTail()
+        tail = new Array[Value](WIDTH)
+        tailLength = 0
+      }
+      tail(tailLength) = x
+      tailLength = tailLength + 1
+      this
+    }
+
+    def ++=(xs : Iterator[Value]) : Builder = {
+      while (xs.hasNext) this += xs.next()
+      this
+    }
+
+    def length : Int = count + tailLength
+
+    def result : PersistentVector = {
+      val n = count + tailLength
+      if (n == 0) EMPTY
+      else {
+        val t = new Array[Value](tailLength)
+        System.arraycopy(tail, 0, t, 0, tailLength)
+        owned.clear()
+        new PersistentVector(new Trie(n, shift, root, t), 0, n)
+      }
+    }
+
+    private def own(node : Array[AnyRef]) : Array[AnyRef] = {
+      if (owned.containsKey(node)) node
+      else {
+        val copy = new Array[AnyRef](WIDTH)
+        System.arraycopy(node, 0, copy, 0, WIDTH)
+        owned.put(copy, null)
+        copy
+      }
+    }
+
+    private def newPath(level : Int, leaf : Array[Value]) : AnyRef = {
+      if (level == 0) leaf
+      else {
+        val node = new Array[AnyRef](WIDTH)
+        owned.put(node, null)
+        node(0) = newPath(level - BITS, leaf)
+        node
+      }
+    }
+
+    private def pushTail() {
+      if (count == 0) {
+        root = new Array[AnyRef](WIDTH)
+        owned.put(root, null)
+        root(0) = tail
+      } else if ((count >>> BITS) >= (1 << shift)) {
+        val newRoot = new Array[AnyRef](WIDTH)
+        owned.put(newRoot, null)
+        newRoot(0) = root
+        newRoot(1) = newPath(shift, tail)
+        root = newRoot
+        shift = shift + BITS
+      } else {
+        root = own(root)
+        var node = root
+        var level = shift
+        while (level > BITS) {
+          val i = (count >>> level) & MASK
+          val child = node(i).asInstanceOf[Array[AnyRef]]
+          if (child == null) {
+            node(i) = newPath(level - BITS, tail)
+            count = count + WIDTH
+            return
+          }
+          val c = own(child)
+          node(i) = c
+          node = c
+          level = level - BITS
+        }
+        node((count >>> BITS) & MASK) = tail
+      }
+      count = count + WIDTH
+    }
+
+  }
+
+}
@@ -1,11 +1,12 @@
 package com.babel17.naive
 
 import scala.collection.immutable.SortedSet
+import scala.collection.immutable.SortedMap
 import com.babel17.syntaxtree.Location
 
 object Program {
 
-  abstract class Locatable {
+  abstract class Locatable extends java.io.Serializable {
     var location : Location = null
     def setLocation(loc : Location) = {
       location = loc;
@@ -98,7 +99,10 @@ object Program {
     override def toString : String = "no type"
   }
 
-  case class Block(statements : List[Statement]) extends Term
+  case class Block(statements : List[Statement]) extends Term {
+    // slots of the identifiers bound at the toplevel of this block, set by ResolveSlots
+    var slots : SortedMap[Id, Int] = null
+  }
     
   abstract class Statement extends Term
 
@@ -129,7 +133,9 @@ object Program {
     }
   }
   
-  abstract class Def extends Statement
+  abstract class Def extends Statement {
+    var slot : Int = -1
+  }
 
   abstract class Pragma extends Locatable
 
@@ -141,24 +147,41 @@ object Program {
 
   case class SVal(pat : Pattern, e : Expression) extends Statement
   case class SAssign(pat : Pattern, e : Expression) extends Statement
-  case class SLensAssign(id : Id, lens : SELens, e : Expression) extends Statement
-  case class SLensModify(id : Id, lens : SELens, e : Expression, f : SimpleExpression) extends Statement
+  case class SLensAssign(id : Id, lens : SELens, e : Expression) extends Statement {
+    var slot : Int = -1
+  }
+  case class SLensModify(id : Id, lens : SELens, e : Expression, f : SimpleExpression) extends Statement {
+    var slot : Int = -1
+  }
   //case class SValRecordUpdate(id : Id, m : Id, e : Expression) extends Statement
   //case class SAssignRecordUpdate(id : Id, m : Id, e : Expression) extends Statement
   case class SModule(path : Path, b : Block) extends Statement
   case class SDef0(memoize : MemoType, visibility : Visibility,
                    id : Id, e : Expression, returnType : Type) extends Def
   case class SDef1(memoize : MemoType, visibility : Visibility,
-                   id : Id, branches : List[(Pattern, Expression, Type)]) extends Def
+                   id : Id, branches : List[(Pattern, Expression, Type)]) extends Def {
+    // shared by all evaluations of the definition, so that their invocations add up
+    lazy val fun : SEFun = {
+      val se = SEFun(memoize, branches)
+      se.stackTraceElement = stackTraceElement
+      se
+    }
+  }
   case class STypeDef(memoize : MemoType, visibility : Visibility,
                       id : Id, ty : Path, branches : List[(Pattern, Expression)]) extends Def
-  case class SImport(path : Path, id : Id) extends Statement
+  case class SImport(path : Path, id : Id) extends Statement {
+    var slot : Int = -1
+    var target : SimpleExpression = null
+  }
   case class SDefs(defs : List[Def]) extends Statement
   case class SYield(e : Expression) extends Statement
   case class SBlock(b : Block) extends Statement
   case class SIf(cond:SimpleExpression,yes:Block,no:Block) extends Statement
   case class SWhile(cond:SimpleExpression,body:Block) extends Statement
-  case class SFor(pat:Pattern,list:SimpleExpression,body:Block) extends Statement
+  case class SFor(pat:Pattern,list:SimpleExpression,body:Block) extends Statement {
+    // set by LinearScope if the iterations can be evaluated in any order
+    var independent : Boolean = false
+  }
   case class SMatch(se : SimpleExpression, branches : List[(Pattern, Block)]) extends Statement
   case class STry(block : Block, branches : List[(Pattern, Block)]) extends Statement
   case class SPragma(pragma : Pragma) extends Statement
@@ -180,11 +203,15 @@ object Program {
   abstract class SimpleExpression extends Term
   case class SEInt(value: BigInt) extends SimpleExpression
   case class SEFloat(mantissa: BigInt, exponent: BigInt) extends SimpleExpression {
-    val realValue = IntervalArithmetic.makeRealValue(mantissa, exponent)
+    @transient lazy val realValue = IntervalArithmetic.makeRealValue(mantissa, exponent)
   }
   case class SEBool(value: Boolean) extends SimpleExpression
   case class SEString(value: String) extends SimpleExpression
-  case class SEId(id: Id) extends SimpleExpression
+  case class SEId(id: Id) extends SimpleExpression {
+    // depth -1 means that the identifier is not bound locally
+    var depth : Int = -1
+    var slot : Int = -1
+  }
   case class SEConstr(c: Constr, param: SimpleExpression) extends SimpleExpression
   case class SEThis() extends SimpleExpression 
   case class SERoot() extends SimpleExpression
@@ -198,7 +225,11 @@ object Program {
   case class SEXor(u : SimpleExpression, v : SimpleExpression) extends SimpleExpression
   case class SEInterval(u : SimpleExpression, v : SimpleExpression) extends SimpleExpression
   case class SECons(head : SimpleExpression, tail : SimpleExpression) extends SimpleExpression
-  case class SEFun(m : MemoType, branches: List[(Pattern, Expression, Type)]) extends SimpleExpression
+  case class SEFun(m : MemoType, branches: List[(Pattern, Expression, Type)]) extends SimpleExpression {
+    // the tier of the evaluator which called the function last, see ClosureCompiler
+    @transient @volatile
+    var tier : ClosureCompiler.Tier = null
+  }
   case class SETypeIntro(m : MemoType, ty: Path, branches: List[(Pattern, Expression)]) extends SimpleExpression
   case class SESet(elems: List[SimpleExpression]) extends SimpleExpression
   case class SEMap(elems: List[(SimpleExpression, SimpleExpression)]) extends SimpleExpression
@@ -241,7 +272,9 @@ object Program {
   case class PInt(value:BigInt) extends Pattern
   case class PBool(value:Boolean) extends Pattern
   case class PString(value:String) extends Pattern
-  case class PId(id:Id) extends Pattern
+  case class PId(id:Id) extends Pattern {
+    var slot : Int = -1
+  }
   case class PAny() extends Pattern
   case class PEllipsis() extends Pattern
   case class PConstr(c:Constr, arg:Pattern) extends Pattern
@@ -255,7 +288,9 @@ object Program {
   case class PDestruct(constructor:SimpleExpression, pattern : Pattern) extends Pattern
   case class PVal(value:SimpleExpression) extends Pattern
   case class PIf(pattern : Pattern, condition : SimpleExpression) extends Pattern
-  case class PAs(id:Id, pattern : Pattern) extends Pattern
+  case class PAs(id:Id, pattern : Pattern) extends Pattern {
+    var slot : Int = -1
+  }
   case class PCons(head : Pattern, tail : Pattern) extends Pattern
   case class PException(arg : Pattern) extends Pattern
   case class PType(pattern : Pattern, ty : Type) extends Pattern
@@ -4,6 +4,22 @@ import scala.collection.immutable.SortedSet
 import scala.collection.immutable.SortedMap
 
 
+/* Translates a script into continuation passing style.
+ * - every variable of the CPS form is bound to a value which is not a dynamic exception:
+ *   a primitive expression or application result which might be one is tested first,
+ *   and the exception is passed to the handler of the environment; the handler is the
+ *   return continuation of the enclosing function, or the end of the script
+ * - while, for and match join the control flow again via a continuation whose
+ *   parameters are the variables which are assigned within the loop body or branches
+ * - try installs a handler which matches the value of the exception against the
+ *   catch branches
+ * Only scripts are translated: modules, objects, types, lenses, pragmas and reals are
+ * not supported, and neither are try blocks which assign variables of the enclosing block.
+ * Messages which the runtime does not implement abort the compiled program with
+ * com.babel17.jruntime.Unsupported. JavaCompiler -unittest compiles the unit test modules
+ * of the spec one by one and compares their assertions with the interpreter; compiled.b17
+ * is a script which compares the compiler with the interpreter.
+ */
 object Program2CPS {
 
   case class Unsupported(reason : String) extends Exception
@@ -14,14 +30,20 @@ object Program2CPS {
   case class Env(
     vars : SortedMap[Program.Id, VarRef],
     suspensions : SortedSet[Program.Id],
-    collector : Option[CPS.Var])
+    collector : Option[CPS.Var],
+    handler : CPS.Var)
   {
-    def lookup(id : Program.Id) : CPS.Var = vars(id).v
+    def lookup(id : Program.Id) : CPS.Var = {
+      vars.get(id) match {
+        case Some(r) => r.v
+        case None => throw Unsupported("unbound identifier (modules are not supported): "+id)
+      }
+    }
     def bind(id : Program.Id, v : CPS.Var) : Env = {
-      Env(vars + (id -> VarRef(v)), suspensions - id, collector)
+      Env(vars + (id -> VarRef(v)), suspensions - id, collector, handler)
     }
     def bindSuspension(id : Program.Id, v : CPS.Var) : Env = {
-      Env(vars + (id -> VarRef(v)), suspensions + id, collector)
+      Env(vars + (id -> VarRef(v)), suspensions + id, collector, handler)
     }
     def isSuspension(id : Program.Id) : Boolean = {
       suspensions.contains(id)
@@ -31,7 +53,10 @@ object Program2CPS {
       this
     }
     def setCollector(v : Option[CPS.Var]) : Env = {
-      Env(vars, suspensions, v)
+      Env(vars, suspensions, v, handler)
+    }
+    def setHandler(h : CPS.Var) : Env = {
+      Env(vars, suspensions, collector, h)
     }
     def lookupCollector() : CPS.Var = {
       collector.get
@@ -41,12 +66,10 @@ object Program2CPS {
       for (id <- ids) {
         vs = vs + (id -> VarRef(lookup(id)))
       }
-      Env(vs, suspensions, collector)
+      Env(vs, suspensions, collector, handler)
     }
   }
 
-  def emptyEnv : Env = Env(SortedMap.empty, SortedSet.empty, None)
-
   private var freshIdCounter : BigInt = 0
 
   def freshVar : CPS.Var = {
@@ -55,62 +78,185 @@ object Program2CPS {
     CPS.Var(id)
   }
 
+  // the result of the script is the value of the block, or the dynamic exception
+  // which aborted it
+  def translateProgram(b : Program.Block) : CPS.ContExp = {
+    val done = freshVar
+    val x = freshVar
+    val env = Env(SortedMap.empty, SortedSet.empty, None, done)
+    CPS.Defs(List(CPS.Continuation(done, List(x), CPS.PrimVar(x))),
+      translateExpr(env, Program.EBlock(b), (env, pexp) => jump(done, List(pexp))))
+  }
+
+  def jump(r : CPS.Var, args : List[CPS.PrimExp]) : CPS.ContExp = {
+    CPS.Apply(CPS.PrimVar(r), None, args)
+  }
+
+  def abort(env : Env, pexp : CPS.PrimExp) : CPS.ContExp = jump(env.handler, List(pexp))
+
+  // continues with pexp unless it evaluates to a dynamic exception
+  def check(env : Env, pexp : CPS.PrimExp, k : CPS.PrimExp => CPS.ContExp) : CPS.ContExp = {
+    pexp match {
+      case CPS.PrimVar(x) =>
+        CPS.If(CPS.PrimIsException(pexp), abort(env, pexp), k(pexp))
+      case _ =>
+        val x = freshVar
+        CPS.Val(x, pexp, check(env, CPS.PrimVar(x), k))
+    }
+  }
+
+  def toVar(pexp : CPS.PrimExp, k : CPS.Var => CPS.ContExp) : CPS.ContExp = {
+    pexp match {
+      case CPS.PrimVar(x) => k(x)
+      case _ =>
+        val x = freshVar
+        CPS.Val(x, pexp, k(x))
+    }
+  }
+
+  // defines a continuation r(x) which continues with k(x), and passes r to body.
+  // body is translated first: k may rebind variables which body still reads.
+  def join(k : CPS.PrimExp => CPS.ContExp, body : CPS.Var => CPS.ContExp) : CPS.ContExp = {
+    val r = freshVar
+    val x = freshVar
+    val b = body(r)
+    CPS.Defs(List(CPS.Continuation(r, List(x), k(CPS.PrimVar(x)))), b)
+  }
+
+  // like join, but the result of an application still has to be checked
+  def joinResult(env : Env, k : CPS.PrimExp => CPS.ContExp, body : CPS.Var => CPS.ContExp) : CPS.ContExp = {
+    join(x => check(env, x, k), body)
+  }
+
+  def translateSEs(env : Env, ses : List[Program.SimpleExpression],
+                   k : List[CPS.PrimExp] => CPS.ContExp) : CPS.ContExp =
+  {
+    ses match {
+      case List() => k(List())
+      case se :: rest =>
+        translateSE(env, se, p => translateSEs(env, rest, ps => k(p :: ps)))
+    }
+  }
+
+  // a < b <= c evaluates c only if a < b holds
+  def translateCompare(env : Env, a : CPS.PrimExp, operands : List[Program.SimpleExpression],
+                       operators : List[Program.CompareOp], k : CPS.PrimExp => CPS.ContExp) : CPS.ContExp =
+  {
+    (operands, operators) match {
+      case (List(b), List(op)) =>
+        translateSE(env, b, b => check(env, CPS.PrimCompare(a, b, op), k))
+      case (b :: bs, op :: ops) =>
+        join(k, r =>
+          translateSE(env, b, b => check(env, CPS.PrimCompare(a, b, op), c =>
+            CPS.If(c, translateCompare(env, b, bs, ops, c => jump(r, List(c))),
+              jump(r, List(CPS.PrimBool(false)))))))
+      case _ => throw InternalError("invalid comparison")
+    }
+  }
+
   def translateSE(env : Env, se : Program.SimpleExpression, k : CPS.PrimExp => CPS.ContExp) : CPS.ContExp = {
     se match {
       case Program.SEInt(v) => k(CPS.PrimInt(v))
       case Program.SEBool(b) => k(CPS.PrimBool(b))
+      case Program.SEString(s) => k(CPS.PrimString(s))
       case Program.SEId(id) =>
         if (!env.isSuspension(id))
           k(CPS.PrimVar(env.lookup(id)))
         else {
-          val r = freshVar
-          val x = freshVar
-          CPS.Defs(List(CPS.Continuation(r, List(x), k(CPS.PrimVar(x)))),
+          joinResult(env, k, r =>
             CPS.Apply(CPS.PrimVar(env.lookup(id)), None, List(CPS.PrimVar(r))))
         }
       case Program.SEApply(Program.SEMessageSend(u, m), g) =>
-        val r = freshVar
-        val x = freshVar
-        CPS.Defs(List(CPS.Continuation(r, List(x), k(CPS.PrimVar(x)))),
-        translateSE(env, u,
-          u => translateSE(env, g,
-          g => CPS.Apply(u, Some(CPS.Message(m.name)), List(g, CPS.PrimVar(r))))))
+        joinResult(env, k, r =>
+          translateSE(env, u,
+            u => translateSE(env, g,
+            g => CPS.Apply(u, Some(CPS.Message(m.name)), List(g, CPS.PrimVar(r))))))
       case Program.SEApply(f, g) =>
-        val r = freshVar
-        val x = freshVar
-        CPS.Defs(List(CPS.Continuation(r, List(x), k(CPS.PrimVar(x)))),
-        translateSE(env, f,
-          f => translateSE(env, g,
-          g => CPS.Apply(f, None, List(g, CPS.PrimVar(r))))))
+        joinResult(env, k, r =>
+          translateSE(env, f,
+            f => translateSE(env, g,
+            g => CPS.Apply(f, None, List(g, CPS.PrimVar(r))))))
       case Program.SEMessageSend(u, m) =>
-        val r = freshVar
-        val x = freshVar
-        CPS.Defs(List(CPS.Continuation(r, List(x), k(CPS.PrimVar(x)))),
-        translateSE(env, u,
-          u => CPS.Apply(u, Some(CPS.Message(m.name)), List(CPS.PrimVar(r)))))
-      case Program.SECompare(List(a, b), List(c)) =>
-        translateSE(env, a,
-          a => translateSE(env, b,
-          b => k(CPS.PrimCompare(a, b, c))
-          )
-        )
+        joinResult(env, k, r =>
+          translateSE(env, u,
+            u => CPS.Apply(u, Some(CPS.Message(m.name)), List(CPS.PrimVar(r)))))
+      case Program.SECompare(a :: bs, ops) =>
+        translateSE(env, a, a => translateCompare(env, a, bs, ops, k))
+      case Program.SENot(u) =>
+        translateSE(env, u, u => check(env, CPS.PrimNot(u), k))
+      case Program.SEAnd(u, v) =>
+        join(k, r =>
+          translateSE(env, u, u =>
+            CPS.If(u, translateSE(env, v, v => jump(r, List(v))),
+              jump(r, List(CPS.PrimBool(false))))))
+      case Program.SEOr(u, v) =>
+        join(k, r =>
+          translateSE(env, u, u =>
+            CPS.If(u, jump(r, List(CPS.PrimBool(true))),
+              translateSE(env, v, v => jump(r, List(v))))))
+      case Program.SERecord(List()) => k(CPS.PrimObject(List(), None))
+      case Program.SEConstr(Program.Constr(c), param) =>
+        translateSE(env, param, p => k(CPS.PrimConstr(c, p)))
+      case Program.SECons(h, t) =>
+        translateSE(env, h, h => translateSE(env, t, t => k(CPS.PrimCons(h, t))))
+      case Program.SEVector(elems) =>
+        translateSEs(env, elems, es => k(CPS.PrimVector(es)))
+      case Program.SEList(elems) =>
+        translateSEs(env, elems, es => k(CPS.PrimList(es)))
+      case Program.SESet(elems) =>
+        translateSEs(env, elems, es => check(env, CPS.PrimSet(es), k))
+      case Program.SEMap(elems) =>
+        translateSEs(env, elems.flatMap(kv => List(kv._1, kv._2)), es => {
+          def pairs(l : List[CPS.PrimExp]) : List[(CPS.PrimExp, CPS.PrimExp)] = {
+            l match {
+              case a :: b :: rest => (a, b) :: pairs(rest)
+              case _ => List()
+            }
+          }
+          check(env, CPS.PrimMap(pairs(es)), k)
+        })
+      case Program.SEExpr(e) =>
+        translateExpr(env, e, (env, pexp) => k(pexp))
+      case Program.SEException(u) =>
+        translateSE(env, u, u => check(env, CPS.PrimException(u), k))
+      case Program.SEFun(mt, branches) =>
+        val f = freshVar
+        CPS.Defs(List(translateFunction(env, f, mt, branches)), k(CPS.PrimVar(f)))
       case se => throw Unsupported("translateSE: "+se)
     }
   }
 
+  def checkType(ty : Program.Type) {
+    ty match {
+      case Program.TypeNone() =>
+      case _ => throw Unsupported("types are not supported: "+ty)
+    }
+  }
+
+  // tries the branches in order; the value of the first matching one is passed to k
+  def translateFunction(env : Env, f : CPS.Var, mt : Program.MemoType,
+                        branches : List[(Program.Pattern, Program.Expression, Program.Type)]) : CPS.Def =
+  {
+    val k = freshVar
+    val x = freshVar
+    for ((_, _, ty) <- branches) checkType(ty)
+    val cexp = translateBranches[Program.Expression](env.setCollector(None).setHandler(k), x,
+      branches.map(b => (b._1, b._2)),
+      (env, body) => translateExpr(env, body, (env, pexp) => jump(k, List(pexp))),
+      jump(k, List(CPS.PrimError("NOMATCH"))))
+    CPS.Function(f, mt, x, k, cexp)
+  }
+
   def translateDef(env : Env, d: Program.Def) : CPS.Def = {
     d match {
-      case Program.SDef0(mt, _, id, expr, _) =>
+      case Program.SDef0(mt, _, id, expr, ty) =>
+        checkType(ty)
         val k = freshVar
-        val cexp = translateExpr(env, expr, (env, pexp) =>
-          CPS.Apply(CPS.PrimVar(k), None, List(pexp)))
+        val cexp = translateExpr(env.setCollector(None).setHandler(k), expr, (env, pexp) =>
+          jump(k, List(pexp)))
         CPS.Suspension(env.lookup(id), mt, k, cexp)
-      case Program.SDef1(mt, _, id, List((Program.PId(arg), body, _))) =>
-        val k = freshVar
-        val x = freshVar
-        val cexp = translateExpr(env.bind(arg, x),
-          body, (env, pexp) => CPS.Apply(CPS.PrimVar(k), None, List(pexp)))
-        CPS.Function(env.lookup(id), mt, x, k, cexp)
+      case Program.SDef1(mt, _, id, branches) =>
+        translateFunction(env, env.lookup(id), mt, branches)
       case d =>
         throw Unsupported("translateDef: "+d)
     }
@@ -121,35 +267,122 @@ object Program2CPS {
     vs.toList
   }
 
-  def createJump(env : Env, params : SortedSet[Program.Id],
-                 b : Env => CPS.ContExp, k : CPS.Var => CPS.ContExp) : CPS.ContExp =
-  {
-
+  def bindParams(env : Env, params : SortedSet[Program.Id]) : Env = {
     var newEnv = env
     for (p <- params)
       newEnv = newEnv.bind(p, freshVar)
+    newEnv
+  }
+
+  def createJump(env : Env, params : SortedSet[Program.Id],
+                 b : Env => CPS.ContExp, k : CPS.Var => CPS.ContExp) : CPS.ContExp =
+  {
+    val newEnv = bindParams(env, params)
     val r = freshVar
-    CPS.Defs(List(CPS.Continuation(r, createVarList(newEnv, params), b(newEnv))), k(r))
+    val cexp = k(r)
+    CPS.Defs(List(CPS.Continuation(r, createVarList(newEnv, params), b(newEnv))), cexp)
+  }
+
+  def jumpWithParams(env : Env, r : CPS.Var, args : List[CPS.PrimExp],
+                     params : SortedSet[Program.Id]) : CPS.ContExp =
+  {
+    jump(r, args ++ createVarList(env, params).map(v => CPS.PrimVar(v)))
   }
 
   def translateBlockAndJump(env : Env, block : Program.Block, r : CPS.Var,
                             params : SortedSet[Program.Id]) : CPS.ContExp =
   {
-    translateBlock(env, block,
-      env => CPS.Apply(CPS.PrimVar(r), None,
-        createVarList(env, params).map(v => CPS.PrimVar(v))))
+    translateBlockAndJump(env, block, r, List(), params)
+  }
+
+  def translateBlockAndJump(env : Env, block : Program.Block, r : CPS.Var, args : List[CPS.PrimExp],
+                            params : SortedSet[Program.Id]) : CPS.ContExp =
+  {
+    translateBlock(env, block, env => jumpWithParams(env, r, args, params))
+  }
+
+  // matches x against the patterns of the branches in order, every branch gets a
+  // continuation without arguments which tries the next one
+  def translateBranches[T](env : Env, x : CPS.Var, branches : List[(Program.Pattern, T)],
+                           body : (Env, T) => CPS.ContExp, noMatch : CPS.ContExp) : CPS.ContExp =
+  {
+    branches match {
+      case List() => noMatch
+      case (pat, b) :: rest =>
+        val next = freshVar
+        val cexp = translatePattern(env, pat, x, false, env => body(env, b), jump(next, List()))
+        CPS.Defs(List(CPS.Continuation(next, List(), translateBranches(env, x, rest, body, noMatch))),
+          cexp)
+    }
+  }
+
+  def translatePattern(env : Env, pat : Program.Pattern, x : CPS.Var, rebind : Boolean,
+                       succ : Env => CPS.ContExp, fail : CPS.ContExp) : CPS.ContExp =
+  {
+    val v = CPS.PrimVar(x)
+    def bindId(env : Env, id : Program.Id) : Env = {
+      if (rebind) env.rebind(id, x) else env.bind(id, x)
+    }
+    def test(cond : CPS.PrimExp, yes : => CPS.ContExp) : CPS.ContExp = CPS.If(cond, yes, fail)
+    def elements(env : Env, pats : List[Program.Pattern], delta : Program.Pattern, i : Int) : CPS.ContExp = {
+      pats match {
+        case List() =>
+          delta match {
+            case null => succ(env)
+            case Program.PEllipsis() => succ(env)
+            case _ =>
+              val y = freshVar
+              CPS.Val(y, CPS.PrimDrop(v, i), translatePattern(env, delta, y, rebind, succ, fail))
+          }
+        case p :: ps =>
+          val y = freshVar
+          CPS.Val(y, CPS.PrimElementAt(v, i), translatePattern(env, p, y, rebind,
+            env => elements(env, ps, delta, i + 1), fail))
+      }
+    }
+    pat match {
+      case Program.PAny() => succ(env)
+      case Program.PId(id) => succ(bindId(env, id))
+      case Program.PAs(id, p) =>
+        translatePattern(env, p, x, rebind, env => succ(bindId(env, id)), fail)
+      case Program.PInt(i) => test(CPS.PrimIsEqual(v, CPS.PrimInt(i)), succ(env))
+      case Program.PBool(b) => test(CPS.PrimIsEqual(v, CPS.PrimBool(b)), succ(env))
+      case Program.PString(s) => test(CPS.PrimIsEqual(v, CPS.PrimString(s)), succ(env))
+      case Program.PVal(se) =>
+        translateSE(env, se, w => test(CPS.PrimIsEqual(v, w), succ(env)))
+      case Program.PIf(p, cond) =>
+        translatePattern(env, p, x, rebind,
+          env => translateSE(env, cond, c => test(c, succ(env))), fail)
+      case Program.PConstr(Program.Constr(c), arg) =>
+        val y = freshVar
+        test(CPS.PrimIsConstr(v, c),
+          CPS.Val(y, CPS.PrimDestruct(v), translatePattern(env, arg, y, rebind, succ, fail)))
+      case Program.PVector(elems, delta) =>
+        test(CPS.PrimIsVector(v, elems.length, delta == null), elements(env, elems, delta, 0))
+      case Program.PList(elems, delta) =>
+        test(CPS.PrimIsList(v, elems.length, delta == null), elements(env, elems, delta, 0))
+      case Program.PCons(h, t) =>
+        test(CPS.PrimIsList(v, 1, false), elements(env, List(h), t, 0))
+      case p => throw Unsupported("translatePattern: "+p)
+    }
   }
 
   def translateSt(env : Env, st : Program.Statement, k : Env => CPS.ContExp) : CPS.ContExp = {
     st match {
-      case Program.SVal(Program.PId(id), expr) =>
-        val x = freshVar
-        translateExpr(env, expr, (env, expr) => CPS.Val(x, expr, k(env.bind(id, x))))
-      case Program.SAssign(Program.PId(id), expr) =>
-        val x = freshVar
-        translateExpr(env, expr, (env, expr) => CPS.Val(x, expr, k(env.rebind(id, x))))
+      case Program.SVal(pat, expr) =>
+        translateExpr(env, expr, (env, e) => toVar(e, x =>
+          translatePattern(env, pat, x, false, k, abort(env, CPS.PrimError("NOMATCH")))))
+      case Program.SAssign(pat, expr) =>
+        translateExpr(env, expr, (env, e) => toVar(e, x =>
+          translatePattern(env, pat, x, true, k, abort(env, CPS.PrimError("NOMATCH")))))
+      case Program.SLensAssign(id, Program.SELens(_, Program.SEId(x)), expr) if x == id =>
+        translateSt(env, Program.SAssign(Program.PId(id), expr), k)
+      case Program.SLensModify(id, Program.SELens(_, Program.SEId(x)), expr, f) if x == id =>
+        translateExpr(env, expr, (env, e) => translateSE(env, f, g =>
+          joinResult(env, y => toVar(y, y => k(env.rebind(id, y))), r =>
+            CPS.Apply(g, None, List(CPS.PrimVector(List(CPS.PrimVar(env.lookup(id)), e)), CPS.PrimVar(r))))))
       case Program.SBlock(b) =>
-        translateSts(env, b.statements, newEnv => k(env))
+        translateBlock(env, b, k)
       case Program.SYield(expr) =>
         translateExpr(env, expr, (env, expr) =>
           CPS.Yield(env.lookupCollector, expr, k(env)))
@@ -161,6 +394,8 @@ object Program2CPS {
               newEnv = newEnv.bindSuspension(s.id, freshVar)
             case s : Program.SDef1 =>
               newEnv = newEnv.bind(s.id, freshVar)
+            case d =>
+              throw Unsupported("translateSt: "+d)
           }
         }
         val ds = for (d <- defs) yield translateDef(newEnv, d)
@@ -176,6 +411,72 @@ object Program2CPS {
                   translateBlockAndJump(env.copy(no.assignedVars), no, r, params)))
 
         )
+      case Program.SWhile(cond, body) =>
+        val params = body.assignedVars
+        createJump(env, params, k,
+          exit => {
+            val loop = freshVar
+            val loopEnv = bindParams(env, params)
+            CPS.Defs(List(CPS.Continuation(loop, createVarList(loopEnv, params),
+              translateSE(loopEnv, cond,
+                cond =>
+                  CPS.If(cond,
+                    translateBlockAndJump(loopEnv.copy(params), body, loop, params),
+                    jumpWithParams(loopEnv, exit, List(), params))))),
+              jumpWithParams(env, loop, List(), params))
+          })
+      case Program.SFor(pat, coll, body) =>
+        val params = body.assignedVars
+        translateSE(env, coll, coll => check(env, CPS.PrimIterate(coll), it0 =>
+          createJump(env, params, k,
+            exit => {
+              val loop = freshVar
+              val skip = freshVar
+              val it = freshVar
+              val x = freshVar
+              val rest = freshVar
+              val loopEnv = bindParams(env, params)
+              val next = List(CPS.PrimVar(rest))
+              CPS.Defs(List(CPS.Continuation(loop, it :: createVarList(loopEnv, params),
+                CPS.If(CPS.PrimIterEmpty(CPS.PrimVar(it)),
+                  jumpWithParams(loopEnv, exit, List(), params),
+                  CPS.Val(x, CPS.PrimIterHead(CPS.PrimVar(it)),
+                  CPS.Val(rest, CPS.PrimIterTail(CPS.PrimVar(it)),
+                  CPS.Defs(List(CPS.Continuation(skip, List(),
+                    jumpWithParams(loopEnv, loop, next, params))),
+                    translatePattern(loopEnv.copy(params), pat, x, false,
+                      env => translateBlockAndJump(env, body, loop, next, params),
+                      jump(skip, List())))))))),
+                jumpWithParams(env, loop, List(it0), params))
+            })))
+      case Program.SMatch(se, branches) =>
+        var params : SortedSet[Program.Id] = SortedSet()
+        for ((_, b) <- branches) params = params ++ b.assignedVars
+        createJump(env, params, k,
+          r =>
+            translateSE(env, se, s => toVar(s, x =>
+              translateBranches[Program.Block](env, x, branches,
+                (env, b) => translateBlockAndJump(env.copy(b.assignedVars), b, r, params),
+                abort(env, CPS.PrimError("NOMATCH"))))))
+      case Program.STry(b, branches) =>
+        // the handler only receives the exception, so it cannot know the values
+        // which the block assigned before it was aborted
+        if (!b.assignedVars.isEmpty)
+          throw Unsupported("try blocks which assign variables of the enclosing block: "+b.assignedVars.mkString(", "))
+        var params : SortedSet[Program.Id] = SortedSet()
+        for ((_, b) <- branches) params = params ++ b.assignedVars
+        createJump(env, params, k,
+          r => {
+            val h = freshVar
+            val x = freshVar
+            val y = freshVar
+            CPS.Defs(List(CPS.Continuation(h, List(x),
+              CPS.Val(y, CPS.PrimExceptionParam(CPS.PrimVar(x)),
+                translateBranches[Program.Block](env, y, branches,
+                  (env, b) => translateBlockAndJump(env.copy(b.assignedVars), b, r, params),
+                  abort(env, CPS.PrimVar(x)))))),
+              translateBlockAndJump(env.setHandler(h), b, r, params))
+          })
       case st => throw Unsupported("translateSt: "+st)
     }
   }
@@ -190,10 +491,17 @@ object Program2CPS {
     }
   }
 
+  // the variables of env which are assigned within b are rebound to their values
+  // at the end of b; loops and branches within b may have bound them to new variables
+  def leaveBlock(env : Env, b : Program.Block, blockEnv : Env) : Env = {
+    for (id <- b.assignedVars) env.rebind(id, blockEnv.lookup(id))
+    env
+  }
+
   def translateBlock(env : Env, b : Program.Block,
                       k : Env => CPS.ContExp) : CPS.ContExp =
   {
-    translateSts(env, b.statements, newEnv => k(env))
+    translateSts(env, b.statements, newEnv => k(leaveBlock(env, b, newEnv)))
   }
 
   def translateExpr(env : Env, expr : Program.Expression, k : (Env, CPS.PrimExp) => CPS.ContExp) : CPS.ContExp = {
@@ -210,7 +518,7 @@ object Program2CPS {
               CPS.WithBegin(Some(collExpr), collVar,
                 translateSts(newEnv, b.statements,
                 ne => CPS.WithEnd(collVar, closedCallVar,
-                    k(env, CPS.PrimVar(closedCallVar)))))
+                    check(env, CPS.PrimVar(closedCallVar), pexp => k(leaveBlock(env, b, ne), pexp)))))
             })
       case Program.EBlock(b) =>
         val collVar = freshVar
@@ -219,8 +527,8 @@ object Program2CPS {
         CPS.WithBegin(None, collVar,
           translateSts(newEnv, b.statements,
           ne => CPS.WithEnd(collVar, closedCallVar,
-              k(env, CPS.PrimVar(closedCallVar)))))
+              k(leaveBlock(env, b, ne), CPS.PrimVar(closedCallVar)))))
     }
   }
 
-}
\ No newline at end of file
+}
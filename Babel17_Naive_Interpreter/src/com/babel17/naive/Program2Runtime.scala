@@ -0,0 +1,342 @@
+package com.babel17.naive
+
+import Program._
+import com.babel17.interpreter.{program => rp}
+import com.babel17.interpreter.{runtime => rt}
+import com.babel17.interpreter.{values => rv}
+
+/* Translates a script into a program of the CPS interpreter in com.babel17.interpreter.runtime,
+ * which runs loops and arithmetic about twice as fast as the Evaluator. The translation covers the
+ * core of the language: values, definitions without memoization, assignments, if, while, for,
+ * match, yield and blocks over integers, booleans, strings, constructors, vectors, lists, sets
+ * and maps. A script that uses anything else, for example modules, objects, exceptions,
+ * pragmas or types, is not translated; Interpreter.run then evaluates it with the Evaluator.
+ * The CPS interpreter keeps the variables on a stack and addresses them by their distance from
+ * its top. The scope of a point of the script lists its variables in this order: the variable
+ * bound last comes first. */
+object Program2Runtime {
+
+  case class Unsupported(reason : String) extends Exception(reason)
+
+  def translateProgram(b : Block) : rp.Statement = statements(List(), b.statements)
+
+  /* Runs a translated script; the result is its value or the dynamic exception which
+   * aborted it. */
+  def run(program : rp.Statement) : rv.Value = {
+    val close = new rt.StateContinuation {
+      def apply(state : rt.State) : rt.EvalResult = {
+        rt.EvalResult.createFinalResult(state.collector().sendMessage(rv.Value.COLLECTOR_CLOSE))
+      }
+      def needsOnlyClosedCollector() : rt.Continuation = null
+    }
+    val state = new rt.State(new rt.Environment(), new rv.BlockValue())
+    new rt.Evaluator().eval(state, close, program).trampoline().asInstanceOf[rv.Value]
+  }
+
+  /* The value of the Evaluator that a value of the CPS interpreter stands for, so that a
+   * result is written the same way whichever interpreter computed it. Functions become
+   * native functions, which are written like functions of the Evaluator. */
+  def naiveValue(v : rv.Value) : Values.Value = {
+    v.force() match {
+      case x : rv.IntegerValue => Values.IntegerValue(BigInt(x.value()))
+      case x : rv.BooleanValue => Values.BooleanValue(x.value())
+      case x : rv.StringValue => Values.StringValue(x.value())
+      case x : rv.ConstructorValue =>
+        // a constructor without a parameter has the empty vector as its parameter
+        val p = x.parameter().force() match {
+          case p : rv.VectorValue if p.isEmpty => Values.nil
+          case p => naiveValue(p)
+        }
+        Values.ConstructorValue(Constr(x.name()), p)
+      case x : rv.VectorValue => Values.VectorValue(x.toArray().map(naiveValue))
+      case x : rv.ListValue =>
+        var l : Values.ListValue = Values.EmptyListValue()
+        for (e <- x.toArray().reverse) l = Values.ConsListValue(naiveValue(e), l)
+        l
+      case x : rv.SetValue =>
+        val set = scala.collection.immutable.TreeSet.empty(Values.defaultValueOrdering)
+        Values.SetValue(set ++ x.toArray().map(naiveValue))
+      case x : rv.MapValue =>
+        val map = scala.collection.immutable.TreeMap.empty[Values.Value, Values.Value](Values.defaultValueOrdering)
+        Values.MapValue(map ++ x.toArray().map(e => {
+          val kv = e.asInstanceOf[rv.VectorValue]
+          (naiveValue(kv.getValueAt(0)), naiveValue(kv.getValueAt(1)))
+        }))
+      case x : rv.ExceptionValue =>
+        Values.ExceptionValue(x.isInstanceOf[rv.DynamicException], naiveValue(x.value()))
+      case x => Values.NativeFunctionValue(_ => null)
+    }
+  }
+
+  private val operators : Map[String, String] = Map(
+    Values.MESSAGE_PLUS -> rv.Value.SYNTACTIC_PLUS,
+    Values.MESSAGE_MINUS -> rv.Value.SYNTACTIC_MINUS,
+    Values.MESSAGE_TIMES -> rv.Value.SYNTACTIC_TIMES,
+    Values.MESSAGE_DIV -> rv.Value.SYNTACTIC_DIV,
+    Values.MESSAGE_MOD -> rv.Value.SYNTACTIC_MOD,
+    Values.MESSAGE_POW -> rv.Value.SYNTACTIC_POW,
+    Values.MESSAGE_TO -> rv.Value.SYNTACTIC_TO,
+    Values.MESSAGE_DOWNTO -> rv.Value.SYNTACTIC_DOWNTO)
+
+  // the results of Value.compareWithOtherValue for which a comparison holds
+  private def compareResults(op : CompareOp) : Array[Int] = {
+    op match {
+      case EQUAL() => Array(3)
+      case UNEQUAL() => Array(0, 1, 2)
+      case LESS() => Array(1)
+      case GREATER() => Array(2)
+      case LESS_EQ() => Array(1, 3)
+      case GREATER_EQ() => Array(2, 3)
+    }
+  }
+
+  private def unsupported(what : Locatable) : Nothing = {
+    throw Unsupported(what.getClass.getSimpleName+" at "+what.location)
+  }
+
+  private def index(scope : List[Id], id : Id) : Int = {
+    val i = scope.indexOf(id)
+    if (i < 0) throw Unsupported("identifier "+id.name+" is not bound in the script")
+    i
+  }
+
+  private def javaList[T](l : List[T]) : java.util.List[T] = {
+    val a = new java.util.ArrayList[T]()
+    for (x <- l) a.add(x)
+    a
+  }
+
+  private def statements(scope : List[Id], sts : List[Statement]) : rp.Statement = {
+    sts match {
+      case List() => null
+      case st :: rest => statement(scope, st, rest)
+    }
+  }
+
+  private def statement(scope : List[Id], st : Statement, rest : List[Statement]) : rp.Statement = {
+    st match {
+      case SVal(pat, e) =>
+        val (p, inner) = pattern(scope, pat)
+        new rp.StVal(null, p, valBody(scope, e), statements(inner, rest))
+      case SAssign(pat, e) =>
+        val (p, inner) = pattern(scope, pat)
+        val assigned = inner.take(inner.length - scope.length).reverse
+        new rp.StVal(assigned.map(id => index(scope, id)).toArray, p, valBody(scope, e),
+                     statements(scope, rest))
+      case SLensAssign(id, SELens(_, SEId(_)), e) =>
+        new rp.StVal(Array(index(scope, id)), rp.PatternVar.create(), valBody(scope, e),
+                     statements(scope, rest))
+      case SDefs(defs) =>
+        val inner = defs.reverse.map(defId) ::: scope
+        new rp.StLetRec(javaList(defs.map(d => definition(inner, d))), statements(inner, rest))
+      case SYield(e) =>
+        new rp.StYield(expression(scope, e), statements(scope, rest))
+      case SBlock(b) =>
+        new rp.StBegin(statements(scope, b.statements), statements(scope, rest))
+      case SIf(cond, yes, no) =>
+        new rp.StIf(simple(scope, cond), statements(scope, yes.statements),
+                    statements(scope, no.statements), statements(scope, rest))
+      case SWhile(cond, body) =>
+        new rp.StWhile(simple(scope, cond), statements(scope, body.statements),
+                       statements(scope, rest))
+      case SFor(pat, coll, body) =>
+        val (p, inner) = pattern(scope, pat)
+        new rp.StFor(p, simple(scope, coll), statements(inner, body.statements),
+                     statements(scope, rest))
+      case SMatch(se, branches) =>
+        val cases =
+          for ((pat, b) <- branches) yield {
+            val (p, inner) = pattern(scope, pat)
+            new rp.CaseStatement(p, statements(inner, b.statements))
+          }
+        new rp.StMatch(simple(scope, se), javaList(cases), statements(scope, rest))
+      case _ => unsupported(st)
+    }
+  }
+
+  private def defId(d : Def) : Id = {
+    d match {
+      case SDef0(_, _, id, _, _) => id
+      case SDef1(_, _, id, _) => id
+      case _ => unsupported(d)
+    }
+  }
+
+  private def noMemoization(m : MemoType) {
+    m match {
+      case MemoTypeNone() =>
+      case _ => unsupported(m)
+    }
+  }
+
+  private def noType(t : Type) {
+    t match {
+      case TypeNone() =>
+      case _ => unsupported(t)
+    }
+  }
+
+  private def definition(scope : List[Id], d : Def) : rp.Definition = {
+    d match {
+      case SDef0(m, _, _, e, t) =>
+        noMemoization(m)
+        noType(t)
+        new rp.Definition(rp.Definition.MemoizationType.NO_MEMOIZATION, expression(scope, e))
+      case SDef1(m, _, _, branches) =>
+        noMemoization(m)
+        new rp.Definition(rp.Definition.MemoizationType.NO_MEMOIZATION, cases(scope, branches))
+      case _ => unsupported(d)
+    }
+  }
+
+  private def cases(scope : List[Id], branches : List[(Pattern, Expression, Type)]) : java.util.List[rp.CaseExpr] = {
+    javaList(
+      for ((pat, e, t) <- branches) yield {
+        noType(t)
+        val (p, inner) = pattern(scope, pat)
+        new rp.CaseExpr(p, expression(inner, e))
+      })
+  }
+
+  /* The body of a val or an assignment. A block there is evaluated in the environment of the
+   * statement, so it can assign variables of the enclosing blocks, as in the Evaluator. */
+  private def valBody(scope : List[Id], e : Expression) : rp.Expr = {
+    e match {
+      case EBlock(b) => block(new rp.ExprValue(new rv.BlockValue()), scope, b)
+      case EWith(se, b) => block(simple(scope, se), scope, b)
+      case ESimple(se) => simple(scope, se)
+    }
+  }
+
+  /* Elsewhere a block is evaluated in a copy of the environment, so it must not assign
+   * variables of the enclosing blocks. */
+  private def expression(scope : List[Id], e : Expression) : rp.Expr = {
+    e match {
+      case EBlock(b) =>
+        checkAssignments(scope, b)
+        block(new rp.ExprValue(new rv.BlockValue()), scope, b)
+      case EWith(se, b) =>
+        checkAssignments(scope, b)
+        block(simple(scope, se), scope, b)
+      case ESimple(se) => simple(scope, se)
+    }
+  }
+
+  private def block(collector : rp.Expr, scope : List[Id], b : Block) : rp.Expr = {
+    new rp.ExprWith(collector, new rp.StBegin(statements(scope, b.statements), null))
+  }
+
+  private def checkAssignments(scope : List[Id], b : Block) {
+    CollectVars.collectVars(b)
+    for (id <- b.assignedVars if scope.contains(id))
+      throw Unsupported("block at "+b.location+" assigns "+id.name)
+  }
+
+  // an expression that yields the elements into the empty collection
+  private def collection(empty : rv.Value, scope : List[Id], elems : List[rp.Expr]) : rp.Expr = {
+    if (elems.isEmpty) return new rp.ExprValue(empty)
+    var yields : rp.Statement = null
+    for (e <- elems.reverse) yields = new rp.StYield(e, yields)
+    new rp.ExprWith(new rp.ExprValue(empty), new rp.StBegin(yields, null))
+  }
+
+  private def ifThenElse(cond : rp.Expr, yes : rp.Statement, no : rp.Statement) : rp.Expr = {
+    new rp.ExprWith(new rp.ExprValue(new rv.BlockValue()), new rp.StIf(cond, yes, no, null))
+  }
+
+  private def yieldValue(v : rv.Value) : rp.Statement = new rp.StYield(new rp.ExprValue(v), null)
+
+  // a boolean test of the value, which must be a boolean
+  private def test(e : rp.Expr) : rp.Statement = {
+    new rp.StIf(e, yieldValue(rv.BooleanValue.TRUE), yieldValue(rv.BooleanValue.FALSE), null)
+  }
+
+  private def constant(se : SimpleExpression) : Option[rv.Value] = {
+    se match {
+      case SEInt(v) => Some(rv.IntegerValue.fromBigInteger(v.bigInteger))
+      case SEBool(b) => Some(rv.BooleanValue.create(b))
+      case SEString(s) => Some(rv.StringValue.fromString(s))
+      case SEConstr(c, SERecord(List())) => Some(new rv.ConstructorValue(c.name))
+      case _ => None
+    }
+  }
+
+  private def simple(scope : List[Id], se : SimpleExpression) : rp.Expr = {
+    constant(se) match {
+      case Some(v) => return new rp.ExprValue(v)
+      case None =>
+    }
+    se match {
+      case SEId(id) => new rp.ExprVar(index(scope, id))
+      case SEConstr(c, param) => new rp.ExprConstr(c.name, simple(scope, param))
+      case SEExpr(e) => expression(scope, e)
+      case SEApply(SEMessageSend(u, m), v) if operators.contains(m.name) =>
+        new rp.ExprApply(new rp.ExprSendMessage(simple(scope, u), operators(m.name)), simple(scope, v))
+      case SEMessageSend(u, m) if m.name == Values.MESSAGE_UMINUS =>
+        new rp.ExprSendMessage(simple(scope, u), rv.Value.SYNTACTIC_UMINUS)
+      case SEApply(f, x) => new rp.ExprApply(simple(scope, f), simple(scope, x))
+      case SECompare(List(u, v), List(op)) =>
+        rp.ExprCompare.anyOf(compareResults(op), simple(scope, u), simple(scope, v))
+      case SENot(u) =>
+        ifThenElse(simple(scope, u), yieldValue(rv.BooleanValue.FALSE), yieldValue(rv.BooleanValue.TRUE))
+      case SEAnd(u, v) =>
+        ifThenElse(simple(scope, u), test(simple(scope, v)), yieldValue(rv.BooleanValue.FALSE))
+      case SEOr(u, v) =>
+        ifThenElse(simple(scope, u), yieldValue(rv.BooleanValue.TRUE), test(simple(scope, v)))
+      case SEVector(elems) => collection(rv.VectorValue.EMPTY, scope, elems.map(simple(scope, _)))
+      case SEList(elems) => collection(rv.ListValue.EMPTY, scope, elems.map(simple(scope, _)))
+      case SESet(elems) => collection(rv.SetValue.EMPTY, scope, elems.map(simple(scope, _)))
+      case SEMap(elems) =>
+        val pairs = for ((k, v) <- elems) yield collection(rv.VectorValue.EMPTY, scope, List(simple(scope, k), simple(scope, v)))
+        collection(rv.MapValue.EMPTY, scope, pairs)
+      case SEFun(m, branches) =>
+        noMemoization(m)
+        new rp.ExprLambda(new rp.Definition(rp.Definition.MemoizationType.NO_MEMOIZATION, cases(scope, branches)))
+      case _ => unsupported(se)
+    }
+  }
+
+  // the translated pattern and the scope after it has been matched
+  private def pattern(scope : List[Id], pat : Pattern) : (rp.Pattern, List[Id]) = {
+    pat match {
+      case PId(id) => (rp.PatternVar.create(), id :: scope)
+      case PAny() => (rp.PatternAny.create(), scope)
+      case PInt(v) => (new rp.PatternValue(rv.IntegerValue.fromBigInteger(v.bigInteger)), scope)
+      case PBool(b) => (new rp.PatternValue(rv.BooleanValue.create(b)), scope)
+      case PString(s) => (new rp.PatternValue(rv.StringValue.fromString(s)), scope)
+      case PVal(se) =>
+        constant(se) match {
+          case Some(v) => (new rp.PatternValue(v), scope)
+          case None => unsupported(pat)
+        }
+      case PConstr(c, arg) =>
+        val (p, inner) = pattern(scope, arg)
+        (new rp.PatternConstr(c.name, p), inner)
+      case PAs(id, q) =>
+        val (p, inner) = pattern(scope, q)
+        (new rp.PatternAs(p), id :: inner)
+      case PIf(q, cond) =>
+        val (p, inner) = pattern(scope, q)
+        (new rp.PatternIf(p, simple(inner, cond)), inner)
+      case PException(q) =>
+        val (p, inner) = pattern(scope, q)
+        (new rp.PatternException(p), inner)
+      case PVector(elems, null) => split(rv.Value.SPLIT_VECTOR, scope, elems)
+      case PList(elems, null) => split(rv.Value.SPLIT_LIST, scope, elems)
+      case PCons(h, t) => split(rv.Value.SPLIT_CONS, scope, List(h, t))
+      case _ => unsupported(pat)
+    }
+  }
+
+  private def split(message : String, scope : List[Id], elems : List[Pattern]) : (rp.Pattern, List[Id]) = {
+    var inner = scope
+    val ps = new java.util.ArrayList[rp.Pattern]()
+    for (e <- elems) {
+      val (p, s) = pattern(inner, e)
+      ps.add(p)
+      inner = s
+    }
+    (new rp.PatternSplit(message, ps), inner)
+  }
+
+}
@@ -0,0 +1,237 @@
+package com.babel17.naive
+
+import Program._
+import java.io._
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+import org.antlr.runtime.ANTLRReaderStream
+import org.antlr.runtime.CharStream
+import com.babel17.syntaxtree.Source
+import com.babel17.interpreter.parser.ErrorMessage
+import com.babel17.interpreter.parser.Parser
+
+/* Analysed programs on disk, so that a file whose content has not changed since it was last
+ * run is neither parsed nor analysed again. The program of "foo.b17" is cached in "foo.b17c"
+ * next to it. A cache file starts with a header that holds the version of the format and the
+ * digest of the content of the file; the rest of the cache file is the deflated serialization
+ * of the entry. A cache file that is out of date or cannot be read is ignored, the file is then
+ * parsed as usual. Cache files are only used when asked for, see FileCentral.programCache and
+ * the option -cache of Interpreter.mainProc. The system library is precompiled into the jar,
+ * see main. */
+object ProgramCache {
+
+  private val MAGIC = 0xB17CAC4E
+
+  // increase it whenever the classes of Program change
+  val VERSION = 1
+
+  val SYSTEM_LIBRARY = "system.b17"
+
+  /* The modules and the script of a file as they are parsed, and the analysis of each module
+   * and of the script. The analyses are only used if their lookups still give the same
+   * answers, see FileCentral.Analysis. */
+  class Entry(val digest : String, val source : Source, val mds : List[ModuleSystem.ModuleDescr],
+              val script : Block, val errors : List[ErrorMessage],
+              val moduleAnalyses : List[FileCentral.Analysis], val scriptAnalysis : FileCentral.Analysis)
+    extends java.io.Serializable
+
+  def cacheFilename(filename : String) : String = filename + "c"
+
+  def digest(content : Array[Byte]) : String = {
+    val d = java.security.MessageDigest.getInstance("SHA-1").digest(content)
+    val s = new StringBuilder()
+    for (b <- d) s.append(Integer.toHexString((b & 0xff) | 0x100).substring(1))
+    s.toString
+  }
+
+  def readStream(in : InputStream) : Array[Byte] = {
+    try {
+      val out = new ByteArrayOutputStream()
+      val buffer = new Array[Byte](8192)
+      var n = in.read(buffer)
+      while (n >= 0) {
+        out.write(buffer, 0, n)
+        n = in.read(buffer)
+      }
+      out.toByteArray
+    } finally {
+      in.close()
+    }
+  }
+
+  def readFile(f : File) : Array[Byte] = readStream(new FileInputStream(f))
+
+  def charStream(content : Array[Byte]) : CharStream = {
+    new ANTLRReaderStream(new InputStreamReader(new ByteArrayInputStream(content), "UTF-8"))
+  }
+
+  def parse(source : Source, content : Array[Byte]) : Parser.ParseResult = {
+    Parser.parse(source, charStream(content))
+  }
+
+  // the classes an entry consists of; a cache file with any other class is not read
+  private val ENTRY_CLASSES = Set(
+    "com.babel17.naive.ProgramCache$Entry",
+    "com.babel17.naive.FileCentral$Analysis",
+    "com.babel17.naive.ModuleSystem$ModuleDescr",
+    "com.babel17.naive.Values$StackTraceElement",
+    "com.babel17.syntaxtree.Location",
+    "com.babel17.syntaxtree.Source",
+    "com.babel17.interpreter.parser.ErrorMessage",
+    "java.lang.Boolean",
+    "java.lang.Integer",
+    "java.lang.Number",
+    "java.math.BigInteger",
+    "scala.None$",
+    "scala.Option",
+    "scala.Some",
+    "scala.Tuple2",
+    "scala.Tuple3",
+    "scala.util.Either",
+    "scala.util.Left",
+    "scala.util.Right",
+    "scala.math.BigInt",
+    "scala.math.ScalaNumber",
+    "scala.runtime.BoxedUnit",
+    "scala.Predef$$anon$1",
+    "scala.Predef$$less$colon$less",
+    "scala.collection.immutable.$colon$colon",
+    "scala.collection.immutable.ListSerializeEnd$",
+    "scala.collection.immutable.Nil$",
+    "scala.collection.immutable.TreeMap",
+    "scala.collection.immutable.TreeSet",
+    "scala.collection.immutable.RedBlackTree$Tree",
+    "scala.collection.immutable.RedBlackTree$BlackTree",
+    "scala.collection.immutable.RedBlackTree$RedTree")
+
+  // the classes of the program itself, and the orderings of its sorted maps and sets
+  private val ENTRY_CLASS_PREFIXES = List(
+    "com.babel17.naive.Program$",
+    "scala.math.Ordering$",
+    "scala.math.LowPriorityOrderingImplicits$")
+
+  def isEntryClass(name : String) : Boolean = {
+    if (name.startsWith("[L") && name.endsWith(";")) isEntryClass(name.substring(2, name.length - 1))
+    else if (name.startsWith("[")) name.length == 2 || isEntryClass(name.substring(1))
+    else ENTRY_CLASSES.contains(name) || ENTRY_CLASS_PREFIXES.exists(name.startsWith(_))
+  }
+
+  /* Deserializes only the classes of an entry, so that a cache file cannot make the
+   * interpreter create objects of arbitrary serializable classes on the class path. */
+  private class EntryInputStream(in : InputStream) extends ObjectInputStream(in) {
+    override def resolveClass(desc : ObjectStreamClass) : Class[_] = {
+      if (!isEntryClass(desc.getName))
+        throw new InvalidClassException(desc.getName, "is not part of a program cache entry")
+      super.resolveClass(desc)
+    }
+    override def resolveProxyClass(interfaces : Array[String]) : Class[_] = {
+      throw new InvalidClassException("proxy classes are not part of a program cache entry")
+    }
+  }
+
+  // the entry in the cache file, if it belongs to a content with the given digest
+  def read(in : InputStream, digest : String) : Option[Entry] = {
+    try {
+      val data = new DataInputStream(new BufferedInputStream(in))
+      if (data.readInt() != MAGIC || data.readInt() != VERSION || data.readUTF() != digest) return None
+      val objects = new EntryInputStream(new InflaterInputStream(data))
+      val entry = objects.readObject().asInstanceOf[Entry]
+      if (entry.digest == digest) Some(entry) else None
+    } catch {
+      case _ : Exception => None
+      case _ : StackOverflowError => None
+    } finally {
+      in.close()
+    }
+  }
+
+  def write(out : OutputStream, entry : Entry) {
+    val data = new DataOutputStream(new BufferedOutputStream(out))
+    data.writeInt(MAGIC)
+    data.writeInt(VERSION)
+    data.writeUTF(entry.digest)
+    val deflater = new DeflaterOutputStream(data)
+    val objects = new ObjectOutputStream(deflater)
+    objects.writeObject(entry)
+    objects.flush()
+    deflater.finish()
+    data.close()
+  }
+
+  def load(filename : String, digest : String) : Option[Entry] = {
+    val f = new File(cacheFilename(filename))
+    if (!f.exists) return None
+    try {
+      read(new FileInputStream(f), digest) match {
+        case Some(entry) if entry.source.getFilename == filename => Some(entry)
+        case _ => None
+      }
+    } catch {
+      case _ : IOException => None
+    }
+  }
+
+  /* Writes the cache file of the given file. The entry is written to a temporary file first
+   * which then replaces the cache file, so a cache file is never read while it is written.
+   * Returns false if the cache file could not be written, for example because the directory
+   * is read-only. */
+  def store(filename : String, entry : Entry) : Boolean = {
+    val f = new File(cacheFilename(filename))
+    var tmp : File = null
+    try {
+      tmp = File.createTempFile(f.getName, ".tmp", f.getAbsoluteFile.getParentFile)
+      write(new FileOutputStream(tmp), entry)
+      f.delete()
+      if (tmp.renameTo(f)) true
+      else {
+        tmp.delete()
+        false
+      }
+    } catch {
+      case _ : Exception =>
+        if (tmp != null) tmp.delete()
+        false
+      case _ : StackOverflowError =>
+        if (tmp != null) tmp.delete()
+        false
+    }
+  }
+
+  /* Puts the system library into the given file central and returns its filename. If
+   * precompiled is set, the system library is taken from the precompiled cache in the jar
+   * if there is one that belongs to it; otherwise it is parsed. */
+  def loadSystemLibrary(fc : FileCentral, precompiled : Boolean) : String = {
+    val url = Interpreter.getClass.getResource(SYSTEM_LIBRARY)
+    val filename = url.toString
+    val content = readStream(url.openStream)
+    val d = digest(content)
+    val in = if (precompiled) Interpreter.getClass.getResourceAsStream(cacheFilename(SYSTEM_LIBRARY)) else null
+    val cached = if (in == null) None else read(in, d)
+    cached match {
+      case Some(entry) => fc.updateB17File(filename, entry)
+      case None => fc.updateB17File(new Source(filename), content, d)
+    }
+    filename
+  }
+
+  /* Writes the cache files of the given files. With the arguments "-system <file>" the
+   * precompiled system library is written to the given file instead; the build puts it into
+   * the jar next to the system library. */
+  def main(args : Array[String]) {
+    val fc = new FileCentral()
+    if (args.length == 2 && args(0) == "-system") {
+      val filename = loadSystemLibrary(fc, false)
+      fc.programCacheEntry(filename) match {
+        case Some(entry) => write(new FileOutputStream(args(1)), entry)
+        case None =>
+          System.err.println("The system library could not be precompiled.")
+          System.exit(1)
+      }
+    } else {
+      fc.programCache = true
+      for (filename <- args) fc.updateB17File(filename)
+      fc.writeProgramCache()
+    }
+  }
+
+}
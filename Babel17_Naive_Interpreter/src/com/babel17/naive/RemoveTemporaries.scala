@@ -229,7 +229,7 @@ class RemoveTemporaries(moduleSystem : ModuleSystem) extends ErrorProducer {
         case _ => false
       }
     }
-    val statements : List[Statement] = (_statements.filter(s => !isSModule(s)).map(s => transform_st(newEnv, s))).toList
+    val statements : List[Statement] = (_statements.filter(s => !isSModule(s)).map(s => { checkCancel(); transform_st(newEnv, s) })).toList
     var memos : SortedMap[Id, MemoType] = SortedMap()
     var privates : SortedMap[Id, Visibility] = SortedMap()
     val defIds = CollectVars.collectDefIds(statements) //++ collectConversionIds(statements) ++ collectModuleIds(statements)
@@ -250,6 +250,7 @@ class RemoveTemporaries(moduleSystem : ModuleSystem) extends ErrorProducer {
     var line : Int = 0
     val allDefIds = defIds ++ imports.pi.keySet ++ imports.di.keySet
     for (s <- statements) {
+      checkCancel()
       s match {
         case TempMemoize(ms) =>
           for ((m, id) <- ms) {
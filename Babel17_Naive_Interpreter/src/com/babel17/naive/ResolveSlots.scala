@@ -0,0 +1,252 @@
+package com.babel17.naive
+
+import Program._
+import scala.collection.immutable.SortedMap
+
+/* Assigns to every identifier the frame depth and slot index under which the
+ * Evaluator finds its value at runtime. Runs after RemoveTemporaries and LinearScope.
+ * - a new frame is opened wherever the Evaluator thaws a SimpleEnvironment:
+ *   SEExpr, function and typeintro branches, object bodies, definition bodies,
+ *   modules and scripts
+ * - nested blocks and the patterns of match, for and catch branches get their own
+ *   scope within the current frame; the slots of a scope are reused after it is left
+ * - an identifier that is not bound locally gets depth -1 and is looked up as a module
+ */
+
+class ResolveSlots {
+
+  class Frame(val outer : Frame) {
+    var scopes : List[SortedMap[Id, Int]] = List(SortedMap())
+    var next : Int = 0
+    def find(id : Id) : Int = {
+      var s = scopes
+      while (!s.isEmpty) {
+        s.head.get(id) match {
+          case Some(slot) => return slot
+          case None =>
+        }
+        s = s.tail
+      }
+      -1
+    }
+    def bind(id : Id) : Int = {
+      scopes.head.get(id) match {
+        case Some(slot) => slot
+        case None =>
+          val slot = next
+          next = next + 1
+          scopes = (scopes.head + (id -> slot)) :: scopes.tail
+          slot
+      }
+    }
+    def rebind(id : Id) : Int = {
+      val slot = find(id)
+      if (slot >= 0) slot else bind(id)
+    }
+    def toplevel : SortedMap[Id, Int] = scopes.head
+  }
+
+  def nested(f : Frame)(body : => Unit) {
+    val mark = f.next
+    f.scopes = SortedMap[Id, Int]() :: f.scopes
+    body
+    f.scopes = f.scopes.tail
+    f.next = mark
+  }
+
+  def resolve(t : Term) {
+    t match {
+      case b : Block =>
+        val f = new Frame(null)
+        resolve_b(f, b)
+        b.slots = f.toplevel
+      case st : Statement => resolve_st(new Frame(null), st)
+      case e : Expression => resolve_e(new Frame(null), e)
+      case se : SimpleExpression => resolve_simple(new Frame(null), se)
+    }
+  }
+
+  def resolve_b(f : Frame, b : Block) {
+    for (st <- b.statements)
+      resolve_st(f, st)
+  }
+
+  def resolve_def(f : Frame, d : Def) {
+    d.slot = f.bind(d match {
+      case SDef0(_, _, id, _, _) => id
+      case SDef1(_, _, id, _) => id
+      case STypeDef(_, _, id, _, _) => id
+    })
+  }
+
+  def resolve_st(f : Frame, st : Statement) {
+    st match {
+      case SPragma(PragmaPrint(e)) => resolve_e(f, e)
+      case SPragma(PragmaLog(e)) => resolve_e(f, e)
+      case SPragma(PragmaProfile(e)) => resolve_e(f, e)
+      case SPragma(PragmaAssert(e)) => resolve_e(f, e)
+      case SPragma(PragmaCatch(e, p)) =>
+        resolve_e(f, e)
+        nested(f) { resolve_p(f, p, false) }
+      case SVal(p, e) =>
+        resolve_e(f, e)
+        resolve_p(f, p, false)
+      case SAssign(p, e) =>
+        resolve_e(f, e)
+        resolve_p(f, p, true)
+      case s @ SLensAssign(id, lens, e) =>
+        resolve_e(f, e)
+        resolve_simple(f, lens)
+        s.slot = f.rebind(id)
+      case s @ SLensModify(id, lens, e, g) =>
+        resolve_e(f, e)
+        resolve_simple(f, lens)
+        resolve_simple(f, g)
+        s.slot = f.rebind(id)
+      case s @ SImport(path, id) =>
+        var se : SimpleExpression = SEId(path.ids.head)
+        for (message <- path.ids.tail) se = SEMessageSend(se, message)
+        resolve_simple(f, se)
+        s.target = se
+        s.slot = f.bind(id)
+      case d @ SDef0(_, _, _, e, _) =>
+        resolve_def(f, d)
+        resolve_e(new Frame(f), e)
+      case d @ SDef1(_, _, _, branches) =>
+        resolve_def(f, d)
+        val g = new Frame(f)
+        for ((pat, e, _) <- branches) nested(g) {
+          resolve_p(g, pat, false)
+          resolve_e(g, e)
+        }
+      case d @ STypeDef(_, _, _, _, branches) =>
+        resolve_def(f, d)
+        val g = new Frame(f)
+        for ((pat, e) <- branches) nested(g) {
+          resolve_p(g, pat, false)
+          resolve_e(g, e)
+        }
+      case SDefs(defs) =>
+        defs.foreach(resolve_def(f, _))
+        defs.foreach(resolve_st(f, _))
+      case SYield(e) => resolve_e(f, e)
+      case SBlock(b) => nested(f) { resolve_b(f, b) }
+      case SModule(path, b) =>
+        val g = new Frame(null)
+        resolve_b(g, b)
+        b.slots = g.toplevel
+      case SIf(cond, yes, no) =>
+        resolve_simple(f, cond)
+        nested(f) { resolve_b(f, yes) }
+        nested(f) { resolve_b(f, no) }
+      case SWhile(cond, body) =>
+        resolve_simple(f, cond)
+        nested(f) { resolve_b(f, body) }
+      case SFor(pat, col, body) =>
+        resolve_simple(f, col)
+        nested(f) {
+          resolve_p(f, pat, false)
+          resolve_b(f, body)
+        }
+      case SMatch(se, branches) =>
+        resolve_simple(f, se)
+        for ((pat, b) <- branches) nested(f) {
+          resolve_p(f, pat, false)
+          resolve_b(f, b)
+        }
+      case STry(block, branches) =>
+        nested(f) { resolve_b(f, block) }
+        for ((pat, b) <- branches) nested(f) {
+          resolve_p(f, pat, false)
+          resolve_b(f, b)
+        }
+    }
+  }
+
+  def resolve_e(f : Frame, e : Expression) {
+    e match {
+      case ESimple(se) => resolve_simple(f, se)
+      case EBlock(b) => nested(f) { resolve_b(f, b) }
+      case EWith(se, b) =>
+        resolve_simple(f, se)
+        nested(f) { resolve_b(f, b) }
+    }
+  }
+
+  def resolve_simple(f : Frame, simple : SimpleExpression) {
+    simple match {
+      case se @ SEId(id) =>
+        var g = f
+        var depth = 0
+        while (g != null) {
+          val slot = g.find(id)
+          if (slot >= 0) {
+            se.depth = depth
+            se.slot = slot
+            return
+          }
+          g = g.outer
+          depth = depth + 1
+        }
+        se.depth = -1
+        se.slot = -1
+      case SEExpr(e) =>
+        resolve_e(new Frame(f), e)
+      case SEFun(_, branches) =>
+        val g = new Frame(f)
+        for ((pat, e, _) <- branches) nested(g) {
+          resolve_p(g, pat, false)
+          resolve_e(g, e)
+        }
+      case SETypeIntro(_, _, branches) =>
+        val g = new Frame(f)
+        for ((pat, e) <- branches) nested(g) {
+          resolve_p(g, pat, false)
+          resolve_e(g, e)
+        }
+      case SEObj(b, _) =>
+        val g = new Frame(f)
+        resolve_b(g, b)
+        b.slots = g.toplevel
+      case SEGlueObj(parents, b, _) =>
+        resolve_simple(f, parents)
+        val g = new Frame(f)
+        resolve_b(g, b)
+        b.slots = g.toplevel
+      case SELens(_, se) =>
+        resolve_simple(f, se)
+      case se : SimpleExpression =>
+        for (s <- CollectVars.subSimpleExpressions(se))
+          resolve_simple(f, s)
+    }
+  }
+
+  def resolve_p(f : Frame, pat : Pattern, rebind : Boolean) {
+    def slotOf(id : Id) : Int = if (rebind) f.rebind(id) else f.bind(id)
+    pat match {
+      case p @ PId(id) =>
+        p.slot = slotOf(id)
+      case p @ PAs(id, pattern) =>
+        resolve_p(f, pattern, rebind)
+        p.slot = slotOf(id)
+      case PVal(value) =>
+        resolve_simple(f, value)
+      case PPredicate(predicate, pattern) =>
+        resolve_simple(f, predicate)
+        resolve_p(f, pattern, rebind)
+      case PDestruct(constructor, pattern) =>
+        resolve_simple(f, constructor)
+        resolve_p(f, pattern, rebind)
+      case PIf(pattern, condition) =>
+        resolve_p(f, pattern, rebind)
+        resolve_simple(f, condition)
+      case PTypeVal(pattern, se) =>
+        resolve_simple(f, se)
+        resolve_p(f, pattern, rebind)
+      case _ =>
+        for (p <- CollectVars.subPatterns(pat))
+          resolve_p(f, p, rebind)
+    }
+  }
+
+}
@@ -6,21 +6,22 @@ import com.babel17.syntaxtree._
 import com.babel17.interpreter.parser._
 import scala.collection.immutable.SortedSet
 import scala.collection.immutable.SortedMap
+import org.antlr.runtime.CharStream
 
 class Tree2Program extends ErrorProducer {
 
-  def toList(_nl : NodeList) : List[Node] = {
+  def toList(nl : NodeList) : List[Node] = {
     var l = List[Node]()
-    var nl = _nl
-    while (!nl.empty) {
-      val m = nl.head
-      l = m::l
-      nl = nl.tail
+    var i = nl.length
+    while (i > 0) {
+      i = i - 1
+      l = nl.get(i)::l
     }
-    return l.reverse
+    l
   }
 
   def buildStatement (node : Node) : Statement = {
+    checkCancel()
     val s = build(node) match {
       case b : Block => SBlock(b)
       case s : Statement => s
@@ -756,6 +757,46 @@ class Tree2Program extends ErrorProducer {
       Block(List())
   }
 
+  /* Builds the program while the parser reads it, one top-level statement at a time, so
+   * that the syntax trees of only one statement exist at any time. Returns None if the
+   * program has lexical or syntax errors; Parser.parse then tells which. */
+  def makeProgram(stream : CharStream) : Option[Term] = {
+    var statements : List[Statement] = List()
+    val ok = makeStatements(stream, 0, start => true,
+                            (st, start, stop, es) => statements = st :: statements)
+    if (!ok) return None
+    Some(makeBlock(statements.reverse))
+  }
+
+  /* Builds the top-level statements while the parser reads them and hands each one to add,
+   * together with the indices of its first and last character and the errors found in it.
+   * The indices are counted from offset, the index of the first character of the stream.
+   * The parse stops before the first statement whose start is not accepted by include.
+   * Returns false if the statements read have lexical or syntax errors. */
+  def makeStatements(stream : CharStream, offset : Int, include : Int => Boolean,
+                     add : (Statement, Int, Int, List[ErrorMessage]) => Unit) : Boolean = {
+    val handler = new Parser.StatementHandler {
+      def more(start : Int) : Boolean = include(offset + start)
+      def statement(node : Node, start : Int, stop : Int) {
+        val before = errors
+        errors = List()
+        val st = buildStatement(node)
+        val es = errors
+        errors = es ++ before
+        add(st, offset + start, offset + stop, es)
+      }
+    }
+    Parser.parseStatements(source, stream, handler, cancellation)
+  }
+
+  def makeBlock(statements : List[Statement]) : Block = {
+    var location = new Location(source, 1, 1)
+    for (st <- statements) location = Location.merge(location, st.location)
+    val b = Block(statements)
+    b.setLocation(location)
+    b
+  }
+
   /*def buildProgram(moduleSystem : ModuleSystem, errors : List[ErrorMessage],
                    result : Parser.ParseResult) : (Term, List[ErrorMessage]) = {
     val term = makeProgram(result)
@@ -2,7 +2,11 @@ package com.babel17.naive
 
 import scala.collection.immutable.SortedSet
 import scala.collection.immutable.SortedMap
+import scala.collection.immutable.HashSet
+import scala.collection.immutable.HashMap
 import java.util.concurrent._
+import scala.concurrent.forkjoin.RecursiveTask
+import scala.concurrent.forkjoin.ForkJoinWorkerThread
 import com.babel17.syntaxtree.Location
 
 object Values {
@@ -239,8 +243,28 @@ object Values {
     }
   }
 
-  case class IntegerValue(v : BigInt) extends Value {
-    def stringDescr(brackets : Boolean) : String = v.toString()
+  /* Integers which fit into a Long are kept in small, only larger ones in big. The
+   * representation is normalized, so that equal integers are represented the same way. */
+  final class IntegerValue private (val small : Long, val big : BigInt) extends Value {
+    def v : BigInt = if (big == null) BigInt(small) else big
+    def isSmall : Boolean = big == null
+
+    def stringDescr(brackets : Boolean) : String = {
+      if (big == null) small.toString else big.toString()
+    }
+
+    override def equals(that : Any) : Boolean = {
+      that match {
+        case w : IntegerValue =>
+          if (big == null) w.big == null && small == w.small
+          else big == w.big
+        case _ => false
+      }
+    }
+
+    override def hashCode : Int = {
+      if (big == null) (small ^ (small >>> 32)).toInt else big.hashCode
+    }
 
     def typeof : TypeValue = TYPE_INT
     
@@ -253,13 +277,13 @@ object Values {
       message.name match {
         case MESSAGE_PLUS => NativeFunctionValue(plus _)
         case MESSAGE_MINUS => NativeFunctionValue(minus _)
-        case MESSAGE_UMINUS => IntegerValue(-v)
+        case MESSAGE_UMINUS => negate
         case MESSAGE_TIMES => NativeFunctionValue(times _)
         case MESSAGE_POW => NativeFunctionValue(pow _)
         case MESSAGE_DIV => NativeFunctionValue(div _)
         case MESSAGE_MOD => NativeFunctionValue(mod _)
-        case MESSAGE_TO => Evaluator.systemSendMessage(this, message.name)
-        case MESSAGE_DOWNTO => Evaluator.systemSendMessage(this, message.name)
+        case MESSAGE_TO => range(1, message.name)
+        case MESSAGE_DOWNTO => range(-1, message.name)
         case AUTO_CONVERSION_REAL => 
           val r = IntervalArithmetic.real_fromInt(this)
           r.typeConvert(true, TYPE_INT) match {
@@ -269,30 +293,81 @@ object Values {
           }
         case CONVERSION_REAL => 
           IntervalArithmetic.real_fromInt(this)
-        case CONVERSION_STRING => StringValue(v.toString)
-        case CONVERSION_BOOL => BooleanValue(v != 0)
+        case CONVERSION_STRING => StringValue(stringDescr(false))
+        case CONVERSION_BOOL => BooleanValue(big != null || small != 0)
         case _ => null
       }      
     }
+    // ranges between integers that fit into a long are native, see RangeTail
+    private def range(step : Int, message : String) : Value = {
+      NativeFunctionValue(m =>
+        m match {
+          case m : IntegerValue if isSmall && m.isSmall && m.small != Long.MinValue &&
+                                   m.small != Long.MaxValue =>
+            rangeList(small, m.small, step)
+          case _ =>
+            val f = Evaluator.systemSendMessage(this, message).extractFunctionValue()
+            if (f.isException) f.asDynamicException
+            else f.asInstanceOf[FunctionValue].apply(m)
+        })
+    }
     def plus(w : Value) : Value = {
       iconv(w) match {
-        case IntegerValue(w) =>
-          IntegerValue(v + w)
+        case w : IntegerValue => add(w)
         case _ => null
       }
     }
     def minus(w : Value) : Value = {
       iconv(w) match {
-        case IntegerValue(w) => IntegerValue(v - w)
+        case w : IntegerValue => subtract(w)
         case _ => null
       }
     }
     def times(w : Value) : Value = {
       iconv(w) match {
-        case IntegerValue(w) => IntegerValue(v * w)
+        case w : IntegerValue => multiply(w)
         case _ => null
       }
     }
+
+    // the operations on two small integers only go through BigInt if the result overflows
+    def negate : IntegerValue = {
+      if (big == null && small != Long.MinValue) IntegerValue.fromLong(-small)
+      else IntegerValue(-v)
+    }
+    def add(w : IntegerValue) : IntegerValue = {
+      if (big == null && w.big == null) {
+        val r = small + w.small
+        if (((small ^ r) & (w.small ^ r)) >= 0) return IntegerValue.fromLong(r)
+      }
+      IntegerValue(v + w.v)
+    }
+    def subtract(w : IntegerValue) : IntegerValue = {
+      if (big == null && w.big == null) {
+        val r = small - w.small
+        if (((small ^ w.small) & (small ^ r)) >= 0) return IntegerValue.fromLong(r)
+      }
+      IntegerValue(v - w.v)
+    }
+    def multiply(w : IntegerValue) : IntegerValue = {
+      if (big == null && w.big == null) {
+        val a = small
+        val b = w.small
+        val r = a * b
+        val half = IntegerValue.HALF
+        if ((a < half && a > -half && b < half && b > -half) || a == 0 ||
+            (r / a == b && !(a == -1 && b == Long.MinValue)))
+          return IntegerValue.fromLong(r)
+      }
+      IntegerValue(v * w.v)
+    }
+    def arithmetic(op : Int, w : IntegerValue) : IntegerValue = {
+      op match {
+        case IntegerValue.OP_PLUS => add(w)
+        case IntegerValue.OP_MINUS => subtract(w)
+        case _ => multiply(w)
+      }
+    }
     def pow(w : Value) : Value = {
       iconv(w) match {
         case IntegerValue(w) => 
@@ -315,17 +390,30 @@ object Values {
     } 
     def div(w : Value) : Value = {
       iconv(w) match {
-        case IntegerValue(w) => 
-          if (w == 0) null
-          else IntegerValue(euclid(v, w)._1)
+        case w : IntegerValue =>
+          if (w.big == null) {
+            if (w.small == 0) return null
+            if (big == null && small != Long.MinValue) {
+              val q = small / w.small
+              val r = small % w.small
+              return IntegerValue.fromLong(if (r >= 0) q else if (w.small > 0) q - 1 else q + 1)
+            }
+          }
+          IntegerValue(euclid(v, w.v)._1)
         case _ => null
       }      
     }
     def mod(w : Value) : Value = {
       iconv(w) match {
-        case IntegerValue(w) =>
-          if (w == 0) null
-          else IntegerValue(euclid(v, w)._2)
+        case w : IntegerValue =>
+          if (w.big == null) {
+            if (w.small == 0) return null
+            if (big == null && w.small != Long.MinValue) {
+              val r = small % w.small
+              return IntegerValue.fromLong(if (r >= 0) r else if (w.small > 0) r + w.small else r - w.small)
+            }
+          }
+          IntegerValue(euclid(v, w.v)._2)
         case _ => null
       }
     }
@@ -348,12 +436,52 @@ object Values {
     def compareToValue(that : Value) : Int = {
       import CompareResult._
       that match {
-        case IntegerValue(w) =>
-          if (v < w) LESS else if (v > w) GREATER else EQUAL
+        case w : IntegerValue =>
+          if (big == null && w.big == null) {
+            if (small < w.small) LESS else if (small > w.small) GREATER else EQUAL
+          } else {
+            val u = v
+            val x = w.v
+            if (u < x) LESS else if (u > x) GREATER else EQUAL
+          }
         case _ => UNRELATED
       }
     }
   }
+
+  object IntegerValue {
+    val OP_PLUS = 0
+    val OP_MINUS = 1
+    val OP_TIMES = 2
+
+    // the operator of a message which adds, subtracts or multiplies integers, or -1
+    def arithmeticOp(message : String) : Int = {
+      message match {
+        case MESSAGE_PLUS => OP_PLUS
+        case MESSAGE_MINUS => OP_MINUS
+        case MESSAGE_TIMES => OP_TIMES
+        case _ => -1
+      }
+    }
+
+    private[Values] val HALF : Long = 1L << 31
+    private val CACHE_LOW = -128
+    private val CACHE_HIGH = 1024
+    private val cache : Array[IntegerValue] = new Array(CACHE_HIGH - CACHE_LOW + 1)
+    for (i <- CACHE_LOW to CACHE_HIGH) cache(i - CACHE_LOW) = new IntegerValue(i, null)
+
+    def fromLong(l : Long) : IntegerValue = {
+      if (l >= CACHE_LOW && l <= CACHE_HIGH) cache((l - CACHE_LOW).toInt)
+      else new IntegerValue(l, null)
+    }
+
+    def apply(v : BigInt) : IntegerValue = {
+      if (v.bitLength < 64) fromLong(v.longValue)
+      else new IntegerValue(0, v)
+    }
+
+    def unapply(i : IntegerValue) : Option[BigInt] = Some(i.v)
+  }
   
   abstract class FunctionValue extends Value {
     var stackTraceElement : StackTraceElement = null
@@ -427,11 +555,13 @@ object Values {
 
 
   case class ClosureValue(evaluator : Evaluator, env : Evaluator.SimpleEnvironment,
-                           branches : List[(Program.Pattern, Program.Expression, Program.Type)]) extends FunctionValue
+                           fun : Program.SEFun) extends FunctionValue
   {
     override def apply_(v : Value) : Value = {
+      val compiled = ClosureCompiler.compiled(evaluator, fun)
+      if (compiled != null) return compiled.apply(env, v)
       val e = env.thaw
-      for ((p, body, ty) <- branches) {
+      for ((p, body, ty) <- fun.branches) {
         evaluator.matchPattern(e, p, v, false)  match {
           case Evaluator.NoMatch() =>
           case Evaluator.MatchX(x) => return x
@@ -444,59 +574,37 @@ object Values {
   }
 
   case class ClosureValueMS(evaluator : Evaluator, env : Evaluator.SimpleEnvironment,
-                           branches : List[(Program.Pattern, Program.Expression, Program.Type)]) extends FunctionValue
+                           branches : List[(Program.Pattern, Program.Expression, Program.Type)],
+                           weak : Boolean) extends FunctionValue
   {
-    var cache : SortedMap[Value, Value] = new scala.collection.immutable.TreeMap()(defaultValueOrdering)
-    def save(key : Value, v : Value) : Value = {
-      this.synchronized {
-        try {
-          cache = cache + (key -> v)
-        } catch {
-          case UnrelatedX =>
-        }
-      }
+    val cache = new MemoTable(evaluator.evaluationOptions.memoCapacity, weak)
+    override def apply_(key : Value) : Value = {
+      val hkey = hashKey(key)
+      val u = cache.get(key, hkey)
+      if (u != null) return u
+      val v = compute(key)
+      cache.put(key, hkey, v)
       v
     }
-    override def apply_(key : Value) : Value = {
-      var doCache = true
-      this.synchronized {
-        try {
-          cache.get(key) match {
-            case None =>
-            case Some(u) =>
-              return u
-          }
-        } catch {
-          case UnrelatedX =>
-          doCache = false
-        }
-      }
+    private def compute(key : Value) : Value = {
       val e = env.thaw
       for ((p, body, ty) <- branches) {
         evaluator.matchPattern(e, p, key, false)  match {
           case Evaluator.NoMatch() =>
           case Evaluator.MatchX(x) => 
-            if (doCache)
-              return save(key, x)
-            else
-              return x
+            return x
           case Evaluator.DoesMatch(newEnv) =>
-            val computed = convertType(evaluator.evalExpression(newEnv, body), ty)
-            if (doCache)
-              return save(key, computed)
-            else
-              return computed
+            return convertType(evaluator.evalExpression(newEnv, body), ty)
         }
       }
-      if (doCache)
-        return save(key, domainError())
-      else
-        return domainError()
+      domainError()
     }
   }
   
 
   def sendCollectionMessage(target : Value, message : String) : Value = {
+    val native = sendNativeCollectionMessage(target, message)
+    if (native != null) return native
     var m = "coll_"+message;
     message match {
       case MESSAGE_COLLECT_CLOSE =>
@@ -535,6 +643,231 @@ object Values {
     Evaluator.systemSendMessage(target, m)
   }
 
+  /* Vectors, sets, maps and lists answer the collection messages below natively, using
+   * their size, their ordering and their indexed elements. The result is null where the
+   * generic definitions in system.b17 are still needed; natively computed functions pass
+   * arguments they do not handle, like indices which are not small integers, on to them. */
+  def sendNativeCollectionMessage(target : Value, message : String) : Value = {
+    target match {
+      case _ : VectorValue =>
+      case _ : SetValue =>
+      case _ : MapValue =>
+      case l : ListValue => return sendNativeListMessage(l, message)
+      case _ => return null
+    }
+    message match {
+      case MESSAGE_SIZE => IntegerValue.fromLong(collectionSize(target))
+      case MESSAGE_ISEMPTY => BooleanValue(collectionSize(target) == 0)
+      case MESSAGE_HEAD =>
+        if (collectionSize(target) == 0) domainError()
+        else collectionElements(target).next
+      case MESSAGE_TAIL =>
+        if (collectionSize(target) == 0) domainError()
+        else collectionDrop(target, 1)
+      case MESSAGE_CONTAINS =>
+        NativeFunctionValue(x => BooleanValue(collectionIndexOf(target, x) >= 0))
+      case MESSAGE_INDEXOF =>
+        NativeFunctionValue(x => IntegerValue.fromLong(collectionIndexOf(target, x)))
+      case MESSAGE_ATINDEX =>
+        nativeWithIndex(target, message, i =>
+          if (i < 0 || i >= collectionSize(target)) domainError()
+          else collectionAt(target, i))
+      case MESSAGE_TAKE =>
+        nativeWithIndex(target, message, n =>
+          collectionTake(target, n.max(0).min(collectionSize(target))))
+      case MESSAGE_DROP =>
+        nativeWithIndex(target, message, n =>
+          if (n <= 0) target
+          else if (n > collectionSize(target)) domainError()
+          else collectionDrop(target, n))
+      case _ => null
+    }
+  }
+
+  private def collectionSize(c : Value) : Int = {
+    c match {
+      case v : VectorValue => v.length
+      case SetValue(set) => set.size
+      case MapValue(map) => map.size
+    }
+  }
+
+  private def collectionElements(c : Value) : Iterator[Value] = {
+    c match {
+      case v : VectorValue => v.elements.iterator
+      case SetValue(set) => set.iterator
+      case MapValue(map) => map.iterator.map(kv => VectorValue(Array(kv._1, kv._2)))
+    }
+  }
+
+  // the element at index i, which must be within bounds; sorted trees know their sizes
+  // and skip the elements before i without visiting them
+  private def collectionAt(c : Value, i : Int) : Value = {
+    c match {
+      case v : VectorValue => v.elements(i)
+      case SetValue(set) => set.drop(i).firstKey
+      case MapValue(map) =>
+        val kv = map.drop(i).head
+        VectorValue(Array(kv._1, kv._2))
+    }
+  }
+
+  /* The position of the element that is equal to x, or -1. Sets and maps look the element
+   * up like contains does and count the elements before it in their order. */
+  private def collectionIndexOf(c : Value, x : Value) : Int = {
+    try {
+      c match {
+        case v : VectorValue => indexOfElement(v.elements.iterator, x)
+        case s @ SetValue(set) =>
+          s.contains(x) match {
+            case BooleanValue(true) => set.until(x).size
+            case _ => -1
+          }
+        case m @ MapValue(map) =>
+          m.contains(x) match {
+            case BooleanValue(true) =>
+              x.typeConvert(true, TYPE_VECT) match {
+                case VectorValue(Array(k, _)) => map.until(k.force()).size
+              }
+            case _ => -1
+          }
+      }
+    } catch {
+      case UnrelatedX => -1
+    }
+  }
+
+  private def collectionTake(c : Value, n : Int) : Value = {
+    c match {
+      case v : VectorValue => VectorValue(v.elements.take(n))
+      case SetValue(set) => SetValue(set.take(n))
+      case MapValue(map) => MapValue(map.take(n))
+    }
+  }
+
+  private def collectionDrop(c : Value, n : Int) : Value = {
+    c match {
+      case v : VectorValue => VectorValue(v.elements.drop(n))
+      case SetValue(set) => SetValue(set.drop(n))
+      case MapValue(map) => MapValue(map.drop(n))
+    }
+  }
+
+  // the position of the first element that is equal to x, or -1
+  private def indexOfElement(elements : Iterator[Value], x : Value) : Int = {
+    var i = 0
+    while (elements.hasNext) {
+      if (compareValues(elements.next, x) == CompareResult.EQUAL) return i
+      i = i + 1
+    }
+    -1
+  }
+
+  private def nativeWithIndex(target : Value, message : String, f : Int => Value) : Value = {
+    NativeFunctionValue(x =>
+      x.typeConvert(true, TYPE_INT) match {
+        case i : IntegerValue if i.isSmall && i.small.toInt == i.small => f(i.small.toInt)
+        case _ => systemCollectionApply(target, message, x)
+      })
+  }
+
+  private def systemCollectionApply(target : Value, message : String, x : Value) : Value = {
+    val f = Evaluator.systemSendMessage(target, "coll_"+message).extractFunctionValue()
+    if (f.isException) f.asDynamicException
+    else f.asInstanceOf[FunctionValue].apply(x)
+  }
+
+  /* Lists are walked like the for loops in system.b17 walk them, forcing their tails. An
+   * element that is a dynamic exception ends such a loop, so the messages are left to
+   * system.b17 then. Mapping, filtering and taking stay strict, also for ranges and lists
+   * with lazy tails: system.b17 applies the function to every element when / or ^ is
+   * applied, so an exception it raises is raised there and not when a later element is
+   * forced, outside of the try around the operation. */
+  private def sendNativeListMessage(list : ListValue, message : String) : Value = {
+    // the first n elements of the list, null if one of them is a dynamic exception
+    def elements(n : Int) : List[Value] = {
+      var l = list
+      var i = 0
+      var result : List[Value] = List()
+      while (i < n) {
+        l match {
+          case EmptyListValue() => return result.reverse
+          case ConsListValue(h, t) =>
+            if (h.isDynamicException) return null
+            result = h :: result
+            l = normalizeListTail(t)
+        }
+        i = i + 1
+      }
+      result.reverse
+    }
+    def withElements(x : Value, f : List[Value] => Value) : Value = {
+      val l = elements(Int.MaxValue)
+      if (l == null) systemCollectionApply(list, message, x) else f(l)
+    }
+    message match {
+      case MESSAGE_SIZE =>
+        val l = elements(Int.MaxValue)
+        if (l == null) null else IntegerValue.fromLong(l.length)
+      case MESSAGE_ISEMPTY =>
+        list match {
+          case EmptyListValue() => BooleanValue(true)
+          case ConsListValue(h, t) =>
+            normalizeListTail(t)
+            BooleanValue(h.isDynamicException)
+        }
+      case MESSAGE_HEAD =>
+        list match {
+          case ConsListValue(h, t) if !h.isDynamicException =>
+            normalizeListTail(t)
+            h
+          case _ => domainError()
+        }
+      case MESSAGE_TAIL =>
+        list match {
+          case ConsListValue(h, t) if !h.isDynamicException => normalizeListTail(t)
+          case _ => domainError()
+        }
+      case MESSAGE_CONTAINS =>
+        NativeFunctionValue(x => withElements(x, l => BooleanValue(indexOfElement(l.iterator, x) >= 0)))
+      case MESSAGE_INDEXOF =>
+        NativeFunctionValue(x => withElements(x, l => IntegerValue.fromLong(indexOfElement(l.iterator, x))))
+      case MESSAGE_ATINDEX =>
+        nativeWithIndex(list, message, i => {
+          val l = elements(i.max(0) + 1)
+          if (l == null) systemCollectionApply(list, message, IntegerValue.fromLong(i))
+          else if (i < 0 || l.length <= i) domainError()
+          else l.last
+        })
+      case MESSAGE_TAKE =>
+        nativeWithIndex(list, message, n => {
+          val l = elements(n.max(1))
+          if (l == null) systemCollectionApply(list, message, IntegerValue.fromLong(n))
+          else {
+            var taken : ListValue = EmptyListValue()
+            for (x <- l.take(n).reverse) taken = ConsListValue(x, taken)
+            taken
+          }
+        })
+      case MESSAGE_DROP =>
+        nativeWithIndex(list, message, n => {
+          var l : Value = list
+          var i = 0
+          while (i < n) {
+            l = l match {
+              case ConsListValue(h, t) if !h.isDynamicException => normalizeListTail(t)
+              case _ => 
+                i = n
+                domainError()
+            }
+            i = i + 1
+          }
+          l
+        })
+      case _ => null
+    }
+  }
+
   case class StringValue(v : String) extends Value {
     def compareToValue(that : Value) : Int = {
       import CompareResult._
@@ -696,6 +1029,14 @@ object Values {
     }
     def typeof : TypeValue = TYPE_CEXP
 
+    private var hash : Long = UNKNOWN_HASH
+    def structuralHash : Long = {
+      if (hash == UNKNOWN_HASH) {
+        val h = Values.structuralHash(v)
+        hash = if (h == NO_HASH) NO_HASH else 31 * constr.name.hashCode + h.toInt
+      }
+      hash
+    }
   }
   
   def doLookupIfNecessary(v : Value) : Value = {
@@ -767,9 +1108,9 @@ object Values {
       for ((_, e) <- newMessages) {
         e match {
           case e: EnvironmentValue =>
-            val sliced = newMessages -- (keys -- e._messages)
+            val sliced = newMessages -- (keys -- e._messages.keySet)
             if (e.env != null)
-              e.env = e.env.replace(sliced)
+              e.env = e.env.replace(sliced, e._messages)
           case _ =>
         }
       }      
@@ -786,7 +1127,7 @@ object Values {
       }
     }
 
-    def setEnvMessages(_messages : SortedSet[Id]) {
+    def setEnvMessages(_messages : SortedMap[Id, Int]) {
       for ((m, e) <- messages) {
         e match {
           case e: EnvironmentValue =>
@@ -803,7 +1144,7 @@ object Values {
 
   }*/
 
-  case class StackTraceElement(location : Location, description : String);
+  case class StackTraceElement(location : Location, description : String) extends java.io.Serializable;
 
   case class ExceptionValue(dynamic : Boolean, v : Value) extends Value {
     def compareToValue(that : Value) : Int = {
@@ -862,7 +1203,7 @@ object Values {
   }
 
   class VectorForIterator(v : VectorValue) extends ForIterator {
-    val it = v.tuple.iterator
+    val it = v.elements.iterator
     var i = 0
     def nextValue() : Value = {
       if (it.hasNext) {
@@ -872,10 +1213,10 @@ object Values {
         null
     }
     def rest() : Value = {
-      VectorValue(v.tuple.drop(i))
+      VectorValue(v.elements.drop(i))
     }
     override def length() : Option[Int] = {
-      Some(v.tuple.length - i)
+      Some(v.length - i)
     }
   }
 
@@ -937,16 +1278,30 @@ object Values {
 
   class ListForIterator(v : ListValue) extends ForIterator {
     var list = v
+    // once the rest of the list is a range, its elements are counted instead of built
+    var range : RangeTail = null
+    var next : Long = 0
     def nextValue() : Value = {
+      if (range != null) {
+        if (if (range.step > 0) next > range.bound else next < range.bound) return null
+        val x = IntegerValue.fromLong(next)
+        next = next + range.step
+        return x
+      }
       list match {
         case EmptyListValue() => null
+        case ConsListValue(head, tail : RangeTail) =>
+          range = tail
+          next = tail.from
+          head
         case ConsListValue(head, tail) =>
           list = normalizeListTail(tail)
           head
       }
     }
     def rest() : Value = {
-      list
+      if (range != null) rangeList(next, range.bound, range.step)
+      else list
     }
   }
 
@@ -1030,12 +1385,24 @@ object Values {
   class SetCollector(v : SetValue) extends Collector {
     // There is no mutable set in scala ... too bad!
     var set = v.set
+    // the hash index of v is kept up to date if v has one already
+    var index : HashSet[HashKey] = v.builtHashIndex match {
+      case Some(index) => index
+      case _ => null
+    }
     override def collect_close () : Value = {
-      SetValue(set)
+      val s = SetValue(set)
+      if (index != null) s.setHashIndex(index)
+      s
     }
     override def collect_add(v : Value) : ExceptionValue =  {
       try {
-        set = set + v.force()
+        val x = v.force()
+        set = set + x
+        if (index != null) {
+          val key = hashKey(x)
+          index = if (key == null) null else index + key
+        }
         return null
       } catch {
         case UnrelatedX => dynamicException(CONSTRUCTOR_UNRELATED)
@@ -1045,14 +1412,25 @@ object Values {
 
   class MapCollector(v : MapValue) extends Collector {
     var map = v.map
+    // the hash index of v is kept up to date if v has one already
+    var index : HashMap[HashKey, Value] = v.builtHashIndex match {
+      case Some(index) => index
+      case _ => null
+    }
     override def collect_close () : Value = {
-      MapValue(map)
+      val m = MapValue(map)
+      if (index != null) m.setHashIndex(index)
+      m
     }
     override def collect_add(v : Value) : ExceptionValue =  {
       v.force match {
         case VectorValue(Array(key, value)) =>
           try {
             map = map + (key -> value)
+            if (index != null) {
+              val k = hashKey(key)
+              index = if (k == null) null else index + (k -> value)
+            }
             null
           } catch {
             case UnrelatedX => dynamicException(CONSTRUCTOR_UNRELATED)
@@ -1063,14 +1441,12 @@ object Values {
   }
 
   class VectorCollector(v : VectorValue) extends Collector {
-    import scala.collection.mutable.ArrayBuffer
-    val buffer : ArrayBuffer[Value] = new ArrayBuffer(v.tuple.length*2+15)
-    for (x <- v.tuple) buffer + x
+    val builder = v.elements.newBuilder
     override def collect_close () : Value = {
-      VectorValue(buffer.toArray)
+      VectorValue(builder.result)
     }
     override def collect_add(v : Value) : ExceptionValue =  {
-      buffer + v
+      builder += v
       return null
     }
   }
@@ -1134,7 +1510,7 @@ object Values {
         case MESSAGE_UMINUS =>
           Evaluator.systemSendMessage(this, "seq", message.name)
         case MESSAGE_APPLY =>
-          Evaluator.systemSendMessage(this, "coll", MESSAGE_ATINDEX)
+          sendCollectionMessage(this, MESSAGE_ATINDEX)
         case MESSAGE_EMPTY =>
           Evaluator.systemSendMessage(this, "list", MESSAGE_EMPTY)
         case AUTO_CONVERSION_VECT =>
@@ -1151,9 +1527,11 @@ object Values {
         case _ => UNRELATED
       }
     }
+    def structuralHash : Long
   }
   
   case class EmptyListValue() extends ListValue {    
+    def structuralHash : Long = SEQUENCE_HASH_SEED
     def stringDescr(brackets : Boolean) : String = {
       return "[]";
     }
@@ -1170,7 +1548,7 @@ object Values {
       0
     }
     override def toVectorValue() : VectorValue = {
-      VectorValue(Array())
+      VectorValue(PersistentVector.EMPTY)
     }
   }
   
@@ -1196,11 +1574,59 @@ object Values {
     override def toVectorValue() : VectorValue = {
       VectorValue(toList.toArray)
     }
+    private var hash : Long = UNKNOWN_HASH
+    def structuralHash : Long = {
+      if (hash == UNKNOWN_HASH) hash = computeHash()
+      hash
+    }
+    // the tails are normalized as in compareLists
+    private def computeHash() : Long = {
+      var h = SEQUENCE_HASH_SEED
+      var list : Value = this
+      while (true) {
+        list match {
+          case ConsListValue(head, tail) =>
+            val e = Values.structuralHash(head)
+            if (e == NO_HASH) return NO_HASH
+            h = 31 * h + e.toInt
+            list = tail
+          case EmptyListValue() => return h
+          case t =>
+            if (isUnevaluated(t)) return NO_HASH
+            val u = t.force()
+            if (u.isInstanceOf[ListValue]) list = u
+            else {
+              val e = Values.structuralHash(u)
+              if (e == NO_HASH) return NO_HASH
+              return 31 * h + e.toInt
+            }
+        }
+      }
+      h
+    }
   }
   
-  case class VectorValue(tuple : Array[Value]) extends Value {
+  /* The elements of a vector are kept in a persistent vector, so appending to a vector
+   * and taking the rest of a vector share the elements with the original vector. */
+  final class VectorValue(val elements : PersistentVector) extends Value {
     def typeof : TypeValue = TYPE_VECT
 
+    private var array : Array[Value] = null
+
+    // the elements as an array, which must not be modified
+    def tuple : Array[Value] = {
+      if (array == null) array = elements.toArray
+      array
+    }
+
+    def length : Int = elements.length
+
+    private var hash : Long = UNKNOWN_HASH
+    def structuralHash : Long = {
+      if (hash == UNKNOWN_HASH) hash = sequenceHash(SEQUENCE_HASH_SEED, elements.iterator)
+      hash
+    }
+
     def compareToValue(that : Value) : Int = {
       import CompareResult._
       that match {
@@ -1211,15 +1637,14 @@ object Values {
     }
 
     override def stringDescr(brackets : Boolean) : String = {
-      val size = tuple.size
+      val size = length
       if (size == 0) "()"
-      else if (size == 1) "("+tuple(0).stringDescr(false)+",)"
+      else if (size == 1) "("+elements(0).stringDescr(false)+",)"
       else {
-        var s = "("+tuple(0).stringDescr(false)
-        var i = 1
-        while (i < size) {
-          s = s + "," + tuple(i).stringDescr(false)
-          i = i + 1
+        val it = elements.iterator
+        var s = "("+it.next.stringDescr(false)
+        while (it.hasNext) {
+          s = s + "," + it.next.stringDescr(false)
         }
         s + ")"
       }
@@ -1244,19 +1669,20 @@ object Values {
     def atIndex(i : Value) : Value = {
       i.typeConvert(true, TYPE_INT) match {
         case IntegerValue(i) =>
-          if (i < 0 || i >= tuple.length)
+          if (i < 0 || i >= length)
             domainError()
           else
-            tuple(i.toInt)
+            elements(i.toInt)
         case _ => null
       }
     }
 
     override def choose() : Value = {
-      if (tuple.size == 0) dynamicException(CONSTRUCTOR_EMPTYCHOICE)
-      else tuple(0)
+      if (length == 0) dynamicException(CONSTRUCTOR_EMPTYCHOICE)
+      else elements(0)
     }
     def toListValue : ListValue = {
+      val tuple = this.tuple
       var size = tuple.size
       var list : ListValue = EmptyListValue()
       while (size > 0) {
@@ -1266,6 +1692,13 @@ object Values {
       list
     }
   }
+
+  object VectorValue {
+    def apply(tuple : Array[Value]) : VectorValue =
+      new VectorValue(PersistentVector.fromArray(tuple))
+    def apply(elements : PersistentVector) : VectorValue = new VectorValue(elements)
+    def unapply(v : VectorValue) : Option[Array[Value]] = Some(v.tuple)
+  }
   
   case class SetValue(set : SortedSet[Value]) extends Value {
     def typeof : TypeValue = TYPE_SET
@@ -1299,6 +1732,13 @@ object Values {
       }
     }
     def contains(w : Value) : Value = {
+      val key = hashKey(w)
+      if (key != null) {
+        hashIndex match {
+          case Some(index) => return BooleanValue(index.contains(key))
+          case _ =>
+        }
+      }
       try {
         BooleanValue(set.contains(w))
       } catch {
@@ -1307,7 +1747,13 @@ object Values {
     }
     def remove(w : Value) : Value = {
       try {
-        SetValue(set - w)
+        val s = SetValue(set - w)
+        val key = hashKey(w)
+        builtHashIndex match {
+          case Some(index) if key != null => s.setHashIndex(index - key)
+          case _ =>
+        }
+        s
       } catch {
         case UnrelatedX => this
       }
@@ -1324,6 +1770,31 @@ object Values {
         case _ => UNRELATED
       }
     }
+
+    // the elements by their structural hash; None if an element has no structural hash
+    @volatile private var index : Option[HashSet[HashKey]] = null
+    def builtHashIndex : Option[HashSet[HashKey]] = index
+    def setHashIndex(index : HashSet[HashKey]) {
+      this.index = Some(index)
+    }
+    def hashIndex : Option[HashSet[HashKey]] = {
+      if (index == null) {
+        var i = HashSet.empty[HashKey]
+        val it = set.iterator
+        while (it.hasNext && i != null) {
+          val key = hashKey(it.next)
+          i = if (key == null) null else i + key
+        }
+        index = if (i == null) None else Some(i)
+      }
+      index
+    }
+
+    private var hash : Long = UNKNOWN_HASH
+    def structuralHash : Long = {
+      if (hash == UNKNOWN_HASH) hash = sequenceHash(SET_HASH_SEED, set.iterator)
+      hash
+    }
   }
   
   case class MapValue(map : SortedMap[Value, Value]) extends Value {
@@ -1352,7 +1823,7 @@ object Values {
         case MESSAGE_SLASHSLASH =>
           Evaluator.systemSendMessage(this, "map", MESSAGE_SLASHSLASH)
         case MESSAGE_CONTAINS =>
-          Evaluator.systemSendMessage(this, "map", MESSAGE_CONTAINS)
+          NativeFunctionValue(contains _)
         case MESSAGE_TIMESTIMES =>
           Evaluator.systemSendMessage(this, "map", MESSAGE_TIMESTIMES)
         case MESSAGE_CONTAINSKEY =>
@@ -1366,7 +1837,25 @@ object Values {
         case m => sendCollectionMessage(this, m)
       }
     }
+    // whether w is a key/value pair of the map
+    def contains(w : Value) : Value = {
+      w.typeConvert(true, TYPE_VECT) match {
+        case VectorValue(Array(k, v)) =>
+          lookup(k.force()) match {
+            case null => BooleanValue(false)
+            case u => BooleanValue(compareValues(u, v) == CompareResult.EQUAL)
+          }
+        case _ => BooleanValue(false)
+      }
+    }
     def containsKey(w : Value) : Value = {
+      val key = hashKey(w)
+      if (key != null) {
+        hashIndex match {
+          case Some(index) => return BooleanValue(index.contains(key))
+          case _ =>
+        }
+      }
       try {
         BooleanValue(map.contains(w))
       } catch {
@@ -1374,6 +1863,17 @@ object Values {
       }
     }
     def lookup(w : Value) : Value = {
+      val key = hashKey(w)
+      if (key != null) {
+        hashIndex match {
+          case Some(index) =>
+            return index.get(key) match {
+              case Some(v) => v
+              case _ => null
+            }
+          case _ =>
+        }
+      }
       try {
         map.get(w) match {
           case Some(v) => v
@@ -1385,11 +1885,45 @@ object Values {
     }
     def remove(w : Value) : Value = {
       try {
-        MapValue(map - w)
+        val m = MapValue(map - w)
+        val key = hashKey(w)
+        builtHashIndex match {
+          case Some(index) if key != null => m.setHashIndex(index - key)
+          case _ =>
+        }
+        m
       } catch {
         case UnrelatedX => this
       }
     }
+
+    // the key/value pairs by the structural hash of the key; None if a key has no
+    // structural hash
+    @volatile private var index : Option[HashMap[HashKey, Value]] = null
+    def builtHashIndex : Option[HashMap[HashKey, Value]] = index
+    def setHashIndex(index : HashMap[HashKey, Value]) {
+      this.index = Some(index)
+    }
+    def hashIndex : Option[HashMap[HashKey, Value]] = {
+      if (index == null) {
+        var i = HashMap.empty[HashKey, Value]
+        val it = map.iterator
+        while (it.hasNext && i != null) {
+          val (k, v) = it.next
+          val key = hashKey(k)
+          i = if (key == null) null else i + (key -> v)
+        }
+        index = if (i == null) None else Some(i)
+      }
+      index
+    }
+
+    private var hash : Long = UNKNOWN_HASH
+    def structuralHash : Long = {
+      if (hash == UNKNOWN_HASH)
+        hash = sequenceHash(MAP_HASH_SEED, map.iterator.flatMap(kv => Iterator(kv._1, kv._2)))
+      hash
+    }
     override def choose() : Value = {
       val it = map.iterator
       if (it.hasNext) {
@@ -1479,6 +2013,70 @@ object Values {
     }
   }
            
+  val UNKNOWN_HASH : Long = Long.MinValue
+  val NO_HASH : Long = Long.MaxValue
+
+  val SEQUENCE_HASH_SEED = 1
+  val SET_HASH_SEED = 3
+  val MAP_HASH_SEED = 5
+
+  /* The structural hash of a value, or NO_HASH. Two values with a structural hash can
+   * only be equal with respect to compareValues if their hashes are equal. Integers,
+   * strings and booleans have a structural hash, and so have vectors, lists, sets, maps
+   * and constructor values made of them. Lists and vectors hash alike, as they are
+   * converted into each other when compared. Other values, like objects, might be
+   * converted into anything and have no structural hash. Computing the hash does not
+   * evaluate lazy values, a value which contains an unevaluated one has no hash. */
+  def structuralHash(v : Value) : Long = {
+    if (isUnevaluated(v)) return NO_HASH
+    v.force() match {
+      case i : IntegerValue => i.hashCode
+      case StringValue(s) => s.hashCode
+      case BooleanValue(b) => if (b) 1231 else 1237
+      case v : VectorValue => v.structuralHash
+      case l : ListValue => l.structuralHash
+      case c : ConstructorValue => c.structuralHash
+      case s : SetValue => s.structuralHash
+      case m : MapValue => m.structuralHash
+      case _ => NO_HASH
+    }
+  }
+
+  def sequenceHash(seed : Int, elements : Iterator[Value]) : Long = {
+    var h = seed
+    while (elements.hasNext) {
+      val e = structuralHash(elements.next)
+      if (e == NO_HASH) return NO_HASH
+      h = 31 * h + e.toInt
+    }
+    h
+  }
+
+  def isUnevaluated(v : Value) : Boolean = {
+    v match {
+      case l : SuspendedValue => l.result == null
+      case _ => false
+    }
+  }
+
+  // the key of a value in the hash index of a set or map
+  final class HashKey(val value : Value, val hash : Int) {
+    override def hashCode : Int = hash
+    override def equals(that : Any) : Boolean = {
+      that match {
+        case that : HashKey =>
+          hash == that.hash && compareValues(value, that.value) == CompareResult.EQUAL
+        case _ => false
+      }
+    }
+  }
+
+  // null if the value has no structural hash
+  def hashKey(v : Value) : HashKey = {
+    val h = structuralHash(v)
+    if (h == NO_HASH) null else new HashKey(v.force(), h.toInt)
+  }
+
   val MESSAGE_COMPARE_Id = Program.Id(MESSAGE_COMPARE)
            
   def compareViaCompare(v1 : Value, v2 : Value) : Option[Int] = {
@@ -1601,8 +2199,8 @@ object Values {
   
   def compareVectors(v1 : VectorValue, v2 : VectorValue) : Int = {
     import CompareResult._
-    val i1 = v1.tuple.iterator
-    val i2 = v2.tuple.iterator
+    val i1 = v1.elements.iterator
+    val i2 = v2.elements.iterator
     while (!i1.isEmpty) {
       if (i2.isEmpty) return GREATER
       val e1 = i1.next
@@ -1635,8 +2233,79 @@ object Values {
     }
   }
    
-  case class LazyValue(var evaluator : Evaluator, var env : Evaluator.SimpleEnvironment, var se : Program.SimpleExpression, var result : Value) extends Value {
-    var deep : Boolean = false
+  /* The state of a memoized computation: null while it is pending, a MemoComputing while
+   * a thread computes it, a MemoFailed if the computation failed with an evaluation error,
+   * and the computed value once it is done. A thread that needs the value while another thread computes it
+   * waits for that computation instead of starting its own. */
+  final class Memo(initial : Value) extends atomic.AtomicReference[AnyRef](initial) {
+
+    // the computed value, or null
+    def result : Value = {
+      get match {
+        case v : Value => v
+        case _ => null
+      }
+    }
+
+    // A thread that needs the value again while it computes it computes it once more,
+    // as waiting for itself would never end.
+    def force(m : Memoized) : Value = {
+      while (true) {
+        get match {
+          case v : Value => return v
+          case c : MemoComputing =>
+            if (c.thread eq Thread.currentThread) return m.compute()
+            c.done.await()
+          case MemoFailed(t) => throw t
+          case _ =>
+            val c = new MemoComputing(Thread.currentThread)
+            if (compareAndSet(null, c)) {
+              try {
+                val v = m.compute()
+                set(v)
+                m.computed()
+                return v
+              } catch {
+                case t : Evaluator.EvalX =>
+                  set(MemoFailed(t))
+                  throw t
+                case t : Throwable =>
+                  // a stack overflow, running out of memory, an interrupt or a cancellation
+                  // says nothing about the value: make the computation pending again, the
+                  // waiting threads wake up and one of them computes it anew
+                  set(null)
+                  throw t
+              } finally {
+                c.done.countDown()
+              }
+            }
+        }
+      }
+      null
+    }
+
+    // makes the computation pending again if its value is v
+    def forget(v : Value) {
+      compareAndSet(v, null)
+    }
+  }
+
+  trait Memoized {
+    def compute() : Value
+    // called once, after the value has been computed and stored in the memo
+    def computed() {}
+  }
+
+  final class MemoComputing(val thread : Thread) {
+    val done = new CountDownLatch(1)
+  }
+
+  case class MemoFailed(t : Throwable)
+
+  // a value that is computed when it is forced for the first time
+  abstract class SuspendedValue extends Value with Memoized {
+    val memo = new Memo(null)
+    def result : Value = memo.result
     override def stringDescr(brackets : Boolean) : String = {
       "_lazy"
     }
@@ -1644,24 +2313,18 @@ object Values {
       force().typeof
     }
     override def force() : Value = {
-      if (result != null) result
-      else {
-        this.synchronized {
-          if (result != null) return result
-        }
-        var r =
-          evaluator.evalSE(env, se).force() match {
-            case x@(ExceptionValue(true, p)) =>
-              val e = ExceptionValue(false, p)
-              e.stackTrace = x.stackTrace
-              e
-            case x => x
-          }
-        this.synchronized {
-          if (result == null)
-            result = r
-        }
-        result
+      val r = memo.result
+      if (r != null) r
+      else memo.force(this)
+    }
+    // a dynamic exception becomes a static one when it is the value of a lazy expression
+    def suspended(v : Value) : Value = {
+      v.force() match {
+        case x@(ExceptionValue(true, p)) =>
+          val e = ExceptionValue(false, p)
+          e.stackTrace = x.stackTrace
+          e
+        case x => x
       }
     }
     override def sendMessage(message : Program.Id) : Value = {
@@ -1672,11 +2335,34 @@ object Values {
     }
   }
 
+  case class LazyValue(var evaluator : Evaluator, var env : Evaluator.SimpleEnvironment, var se : Program.SimpleExpression) extends SuspendedValue {
+    override def computed() {
+      env = null
+      se = null
+    }
+    def compute() : Value = {
+      suspended(evaluator.evalSE(env, se))
+    }
+  }
+
+  /* The list from, from + step, ... up to bound, which is what to and downto return for
+   * integers that fit into a long. It replaces the lazy expressions of to_ and downto_ in
+   * system.b17, and a for loop over it only counts. */
+  final class RangeTail(val from : Long, val bound : Long, val step : Int) extends SuspendedValue {
+    def compute() : Value = rangeList(from, bound, step)
+  }
+
+  // bound must not be the minimal or maximal long, so that stepping past it cannot overflow
+  def rangeList(from : Long, bound : Long, step : Int) : ListValue = {
+    if (if (step > 0) from > bound else from < bound) EmptyListValue()
+    else ConsListValue(IntegerValue.fromLong(from), new RangeTail(from + step, bound, step))
+  }
+
   // this is a special value that lives only inside environments
   abstract class EnvironmentValue(var env : Evaluator.SimpleEnvironment) extends Value {
     var evaluator : Evaluator = null
     var _this : Value = null
-    var _messages : SortedSet[Program.Id] = SortedSet()
+    var _messages : SortedMap[Program.Id, Int] = SortedMap()
     def sendMessage(m : Program.Id) : Value = {
       throw Evaluator.EvalX("EnvironmentValue has been sent a message. How?")
     }
@@ -1711,114 +2397,131 @@ object Values {
     }
   }
 
+  // env and se are kept after the value has been computed, copy needs them
   case class EnvironmentValueMS(var se : Program.SimpleExpression,
-                                var result : Value)
-  extends EnvironmentValue(null) {
+                                initialResult : Value)
+  extends EnvironmentValue(null) with Memoized {
+
+    val memo = new Memo(initialResult)
 
     def onLookup() : Value = {
-      if (result != null) result
-      else {
-        var localEnv : Evaluator.SimpleEnvironment = null
-        var localSE : Program.SimpleExpression = null
-        this.synchronized {
-          if (result != null) return result
-          localEnv = env.setThis(_this)
-          localSE = se
-        }
-        var r = evaluator.evalSE(localEnv, localSE)
-        this.synchronized {
-          result = r
-          env = null;
-          se = null;
-        }
-        result
-      }
+      val r = memo.result
+      if (r != null) r
+      else memo.force(this)
+    }
+
+    def compute() : Value = {
+      evaluator.evalSE(env.setThis(_this), se)
     }
 
     def copy() : EnvironmentValue = {
-      this.synchronized {
-        val e = EnvironmentValueMS(se, result)
-        e.env = env
-        e._this = _this
-        e._messages = _messages
-        e.evaluator = evaluator
-        e
-      }
+      val e = EnvironmentValueMS(se, memo.result)
+      e.env = env
+      e._this = _this
+      e._messages = _messages
+      e.evaluator = evaluator
+      e
     }
 
   }
 
+  /* The value is only softly referenced, so it may have to be computed again; env and se
+   * are therefore kept. The memo holds the value only while threads wait for it. */
   case class EnvironmentValueMW(
                                     var se : Program.SimpleExpression,
-                                    var cache : java.lang.ref.Reference[Value])
-  extends EnvironmentValue(null) {
+                                    initialCache : java.lang.ref.Reference[Value])
+  extends EnvironmentValue(null) with Memoized {
+    @volatile var cache : java.lang.ref.Reference[Value] = initialCache
+    val memo = new Memo(null)
     def getResult () : Value = {
-      var result : Value = null
-      if (cache != null)
-        result = cache.get()
-      return result
+      val c = cache
+      if (c != null) c.get() else null
     }
     def onLookup() : Value = {
-      var result = getResult()
+      val result = getResult()
       if (result != null) result
       else {
-        var localEnv : Evaluator.SimpleEnvironment = null
-        var localSE : Program.SimpleExpression = null
-        this.synchronized {
-          result = getResult()
-          if (result != null) return result
-          localEnv = env.setThis(_this)
-          localSE = se
-        }
-        var r = evaluator.evalSE(localEnv, localSE)
-        this.synchronized {
-          result = getResult()
-          //if (result == null) {
-            cache = new java.lang.ref.SoftReference(r)
-            result = r
-            env = null;
-            se = null;
-          //}
-        }
-        result
+        val r = memo.force(this)
+        memo.forget(r)
+        r
       }
     }
 
-    def copy() : EnvironmentValue = {
-      this.synchronized {
-        val e = EnvironmentValueMW(se, cache)
-        e.env = env
-        e._this = _this
-        e._messages = _messages
-        e.evaluator = evaluator
-        e
+    def compute() : Value = {
+      val result = getResult()
+      if (result != null) result
+      else {
+        val r = evaluator.evalSE(env.setThis(_this), se)
+        cache = new java.lang.ref.SoftReference(r)
+        r
       }
     }
 
+    def copy() : EnvironmentValue = {
+      val e = EnvironmentValueMW(se, cache)
+      e.env = env
+      e._this = _this
+      e._messages = _messages
+      e.evaluator = evaluator
+      e
+    }
+
   }
 
   case class ConcurrentValue(evaluator : Evaluator, env : Evaluator.SimpleEnvironment, se : Program.SimpleExpression)
-    extends Value with Callable[Value]
+    extends Value
   {
-    val futureTask = new FutureTask[Value](this)
+    // joining the task from a worker of the pool runs other tasks while it waits
+    val task = new RecursiveTask[Value] {
+      def compute() : Value = {
+        Evaluator.detached(evaluator.evalSE(env, se))
+      }
+    }
+
+    // used instead of task if the value runs on a thread of its own; waiting for it parks
+    // the thread, so a virtual thread does not hold on to its carrier thread
+    @volatile var future : FutureTask[Value] = null
 
     def typeof : Value = {
       force().typeof
     }
 
-
-    def getTask() : FutureTask[Value] = {
-      futureTask
+    def fork() {
+      if (evaluator.threads != null) {
+        val scope = ConcurrencyScope.get
+        if (scope != null) scope.add(this)
+        future = new FutureTask[Value](new Callable[Value] {
+          def call() : Value = {
+            ConcurrencyScope.set(scope)
+            evaluator.evalSE(env, se)
+          }
+        })
+        evaluator.threads.execute(future)
+      } else {
+        Thread.currentThread match {
+          case w : ForkJoinWorkerThread if w.getPool eq evaluator.pool => task.fork()
+          case _ => evaluator.pool.execute(task)
+        }
+      }
     }
 
     override def stringDescr(brackets : Boolean) : String = {
       "_concurrent"
     }
-    def call() : Value = {
-      evaluator.evalSE(env, se)
-    }
     override def force() : Value = {
-      futureTask.get().force()
+      if (future != null) future.get().force()
+      else task.join().force()
+    }
+
+    // waits until the value has been computed, without forcing it
+    def await() {
+      if (future != null) {
+        try {
+          future.get()
+        } catch {
+          case _ : ExecutionException =>
+        }
+      } else task.quietlyJoin()
     }
 
     override def sendMessage(message : Program.Id) : Value = {
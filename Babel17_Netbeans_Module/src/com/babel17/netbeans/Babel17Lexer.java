@@ -2,23 +2,42 @@ package com.babel17.netbeans;
 
 import org.antlr.runtime.Token;
 import org.netbeans.spi.lexer.Lexer;
+import org.netbeans.spi.lexer.LexerInput;
 import org.netbeans.spi.lexer.LexerRestartInfo;
 import org.netbeans.api.lexer.PartType;
 import com.babel17.antlr.babel17Lexer;
 
+/**
+ * Apart from block comments, every token of Babel-17 ends on the line it starts, and the
+ * ANTLR lexer keeps no state from one token to the next, so it can be restarted at every
+ * token. Block comments do not nest; they are lexed here a line at a time, and the lexer is
+ * in comment mode between the lines of a block comment. NetBeans passes this state back when
+ * it restarts the lexer, so an edit in a long comment only relexes the edited line.
+ */
 public class Babel17Lexer implements Lexer<Babel17TokenId> {
 
+    /** The state of the lexer between two lines of a block comment. */
+    private static final Integer IN_COMMENT = Integer.valueOf(1);
+
     private LexerRestartInfo<Babel17TokenId> info;
 
     private babel17Lexer lexer;
 
+    private boolean inComment;
+
     public Babel17Lexer(LexerRestartInfo<Babel17TokenId> info) {
         this.info = info;
+        this.inComment = IN_COMMENT.equals(info.state());
         AntlrCharStream charStream = new AntlrCharStream(info.input(), "Babel17Editor");
         lexer = new babel17Lexer(charStream);
     }
 
     public org.netbeans.api.lexer.Token<Babel17TokenId> nextToken() {
+        if (inComment) return commentLine(false);
+        if (startsComment()) {
+            inComment = true;
+            return commentLine(true);
+        }
         Token token = lexer.nextToken();
         if (token.getType() != babel17Lexer.EOF) {
             Babel17TokenId tokenId = Babel17LanguageHierarchy.getToken(token.getType());
@@ -33,8 +52,51 @@ public class Babel17Lexer implements Lexer<Babel17TokenId> {
         return null;
     }
 
+    // consumes "#(" if the input starts with it
+    private boolean startsComment() {
+        LexerInput input = info.input();
+        if (input.read() == '#') {
+            if (input.read() == '(') return true;
+            input.backup(2);
+        } else {
+            input.backup(1);
+        }
+        return false;
+    }
+
+    private static boolean isNewline(int c) {
+        return c == '\n' || c == '\r' || c == '\f' || c == 0x85 || c == 0x2028 || c == 0x2029;
+    }
+
+    // the rest of the current line of a block comment, or the comment up to its end
+    private org.netbeans.api.lexer.Token<Babel17TokenId> commentLine(boolean start) {
+        LexerInput input = info.input();
+        int previous = -1;
+        while (true) {
+            int c = input.read();
+            if (c == LexerInput.EOF) {
+                input.backup(1);
+                if (input.readLength() == 0) return null;
+                return comment(start ? PartType.START : PartType.MIDDLE);
+            }
+            if (c == '#' && previous == ')') {
+                inComment = false;
+                return comment(start ? PartType.COMPLETE : PartType.END);
+            }
+            if (isNewline(c)) {
+                return comment(start ? PartType.START : PartType.MIDDLE);
+            }
+            previous = c;
+        }
+    }
+
+    private org.netbeans.api.lexer.Token<Babel17TokenId> comment(PartType partType) {
+        Babel17TokenId tokenId = Babel17LanguageHierarchy.getToken(babel17Lexer.COMMENT);
+        return info.tokenFactory().createToken(tokenId, info.input().readLength(), partType);
+    }
+
     public Object state() {
-        return null;
+        return inComment ? IN_COMMENT : null;
     }
 
     public void release() {}
@@ -3,6 +3,7 @@ package com.babel17.netbeans;
 import org.netbeans.modules.parsing.spi.*;
 import org.netbeans.modules.parsing.api.*;
 import com.babel17.interpreter.parser.ErrorMessage;
+import com.babel17.interpreter.parser.Cancellation;
 import com.babel17.naive.Interpreter;
 import com.babel17.naive.FileCentral;
 import java.util.*;
@@ -32,7 +33,14 @@ public class Babel17Parser extends Parser {
 
   private Snapshot snapshot;
   private Collection<ErrorMessage> errors;
-
+  private volatile Cancellation cancellation;
+
+  /*
+   * The parsing infrastructure only parses a document once the edits have paused for its
+   * reschedule delay, and it calls cancel when the document is edited again, so only the
+   * latest snapshot of a file is analysed to its end. A cancelled analysis has no errors,
+   * see Babel17ParserResult.getErrors, and leaves the document marked as not up to date.
+   */
   @Override
   public void parse(Snapshot snapshot, Task task, SourceModificationEvent event) {
     Document document = snapshot.getSource().getDocument(false);
@@ -41,16 +49,23 @@ public class Babel17Parser extends Parser {
     if (p != null)
       p.setStatus(UpToDateStatus.UP_TO_DATE_PROCESSING);
     this.snapshot = snapshot;
-    Reader reader = new StringReader(snapshot.getText().toString());
+    this.errors = null;
+    FileObject fo = snapshot.getSource().getFileObject();
+    Cancellation c = new Cancellation();
+    cancellation = c;
     try {
-      FileObject fo = snapshot.getSource().getFileObject();
+      Reader reader = new StringReader(snapshot.getText().toString());
       Project project = FileOwnerQuery.getOwner(fo);
       FileCentral fc = null;
       if (project instanceof Babel17Project) {
           fc = ((Babel17Project) project).getFileCentral();         
       } else
           fc = new FileCentral();
-      errors = Interpreter.parseAndAnalyze(fc, new Source(fo.getPath()), reader);
+      errors = Interpreter.parseAndAnalyze(fc, new Source(fo.getPath()), reader, c);
+    } catch (Cancellation.Cancelled ex) {
+      errors = null;
+      if (p != null)
+        p.setStatus(UpToDateStatus.UP_TO_DATE_DIRTY);
     } catch (IOException ex) {
       Logger.getLogger(Babel17Parser.class.getName()).log(Level.WARNING, null, ex);
     }
@@ -63,6 +78,8 @@ public class Babel17Parser extends Parser {
 
   @Override
   public void cancel() {
+    Cancellation c = cancellation;
+    if (c != null) c.cancel();
   }
 
   @Override
@@ -89,6 +106,7 @@ public class Babel17Parser extends Parser {
     }*/
 
     
+    // null if the analysis has been cancelled
     public Collection<ErrorMessage> getErrors() {
       if (!valid) {
         return java.util.Collections.emptyList();
@@ -24,6 +24,8 @@ class SyntaxErrorsHighlightingTask extends ParserResultTask {
       Babel17Parser.Babel17ParserResult babel17Result =
               (Babel17Parser.Babel17ParserResult) result;
       Collection<ErrorMessage> syntaxErrors = babel17Result.getErrors();
+      // a cancelled analysis keeps the errors of the last one until a newer one is done
+      if (syntaxErrors == null) return;
       Document document = result.getSnapshot().getSource().getDocument(false);
       List<ErrorDescription> errors = new ArrayList<ErrorDescription>();
       for (ErrorMessage error : syntaxErrors) {
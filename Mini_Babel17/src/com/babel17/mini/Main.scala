@@ -97,15 +97,13 @@ object Main {
   }
 
   def toList(nl : NodeList) : List[Node] = {
-      val len = nl.length()
-      var i = 0
+      var i = nl.length()
       var l = List[Node]()
-      while (i < len) {
-        val m = nl.get(i)
-        i = i + 1
-        l = m::l
+      while (i > 0) {
+        i = i - 1
+        l = nl.get(i)::l
       }
-      return l.reverse
+      return l
   }
 
   def patternId(pattern : Node) : String = {